@@ -4,25 +4,65 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * Lookups walk the trie from the root without keeping any state in the object,
+ * and addWord publishes each new node only once it is complete, so any number
+ * of threads can call getSuggestions, getTopSuggestions, getFuzzySuggestions
+ * and countPrefixes while words are added. Calls to addWord run one at a time.
+ * A lookup under way while a word is added may or may not find it, but always
+ * returns complete words in rank order.
+ *
+ * getTopSuggestions keeps the best candidates for the most recently used
+ * prefixes. A prefix that extends a cached one, as each keystroke does, is
+ * answered by filtering the cached candidates when they are enough to be sure
+ * of the result. Adding words clears the cache.
+ *
  * @author clairewalker
  *
  */
 public class Autocomplete implements IAutocomplete {
-	private Node root;
-	private Node current;
+	private static final int CACHE_SIZE = 64;
+	private static final int CANDIDATES = 32;
+
+	private volatile Node root;
 	private int numberSuggestions;
 
+	// prefix to its best candidates, least recently used first; cacheVersion
+	// changes whenever words are added. Both are guarded by cache
+	private final LinkedHashMap<String, CachedSuggestions> cache = new LinkedHashMap<String, CachedSuggestions>(16,
+			0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedSuggestions> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	private long cacheVersion;
+	private final LongAdder cacheHits = new LongAdder();
+	private final LongAdder cacheMisses = new LongAdder();
+
 	/**
 	 * Creates new Autocomplete object with root node that has 0 prefixes and query
-	 * "" Sets current node to root node
+	 * ""
 	 */
 	public Autocomplete() {
 		this.root = new Node("", 0);
-		this.current = root;
 	}
 
 	/**
@@ -37,88 +77,63 @@ public class Autocomplete implements IAutocomplete {
 	 */
 	public void setRoot(Node r) {
 		this.root = r;
-	}
-
-	/**
-	 * helper method for addWord param word, fullWord, weight word is the string
-	 * that is being cut by one letter for each iteration fullWord remains untouched
-	 * to be added to the Term once the Node is created this function does the work
-	 * of adding the word to the Trie
-	 * 
-	 */
-	private void addWordHelper(String word, String fullWord, long weight) {
-		// get the first letter of the word
-		char firstLetter = word.charAt(0);
-		int indexOfLetter = firstLetter - 97;
-		// if index of letter is not between 0 and 25 after this calc, then it's not a
-		// valid lowercase letter
-		if (indexOfLetter < 0 || indexOfLetter > 25) {
-			return;
-		}
-
-		// if the word length is 1, then we want to add the word to the Trie
-		if (word.length() == 1) {
-			// if this letter's reference index is currently null, then we create a new node
-			// and add it to the Trie
-			if (current.getReference(indexOfLetter) == null) {
-				// creates a new node whose term is null
-				Node newNode = new Node(fullWord, weight);
-				newNode.setPrefixes(1);
-				newNode.setWords(1);
-				current.setReference(newNode, indexOfLetter);
-				current = root;
-				root.setPrefixes(root.getPrefixes() + 1);
-				return;
-			}
-			// else, we want to update the node at this location in the Trie
-			else {
-				// move current
-				current = current.getReference(indexOfLetter);
-				// increment prefixes, words, and set the term for this node
-				current.setPrefixes(current.getPrefixes() + 1);
-				current.setWords(1);
-				current.setTerm(fullWord, weight);
-				// reset the current pointer back to the root and increment root's prefixes
-				current = root;
-				root.setPrefixes(root.getPrefixes() + 1);
-				return;
-			}
-		}
-
-		// if word length is not 1, then want to move to the correct reference[]
-		// location for this letter
-		// if the reference is currently null, then we want to create a new node
-		if (current.getReference(indexOfLetter) == null) {
-			// creates a new node whose term is null
-			Node newNode = new Node(word, 0);
-			newNode.setPrefixes(1);
-			current.setReference(newNode, indexOfLetter);
-			current = newNode;
-		} else {
-			// move current
-			current = current.getReference(indexOfLetter);
-			// increment the number of prefixes for that letter's reference
-			current.setPrefixes(current.getPrefixes() + 1);
-		}
-		// recursive call on the next letter of the word
-		addWordHelper(word.substring(1), fullWord, weight);
-
+		invalidateCache();
 	}
 
 	@Override
-	public void addWord(String word, long weight) {
+	public synchronized void addWord(String word, long weight) throws IllegalArgumentException {
 		// if the word length is less than 1, return
 		if (word.length() < 1) {
 			return;
 		}
+		if (weight < 0) {
+			throw new IllegalArgumentException();
+		}
 
 		// make sure word is lowercase
 		String lowerCaseWord = word.toLowerCase();
 
-		// call addWordHelper with this lowercase word
-		// we pass two copies because one copy will be chopped in the recursive process
-		addWordHelper(lowerCaseWord, lowerCaseWord, weight);
-		current = root;
+		// only words made of the letters a to z are added, so check them all before
+		// changing anything
+		for (int i = 0; i < lowerCaseWord.length(); i++) {
+			if (lowerCaseWord.charAt(i) < 'a' || lowerCaseWord.charAt(i) > 'z') {
+				return;
+			}
+		}
+
+		// walk down one letter at a time, counting the word in every node on the way
+		// and creating missing nodes. A new node is filled in before it is linked,
+		// so a reader never sees one half built
+		Node node = root;
+		root.setPrefixes(root.getPrefixes() + 1);
+		root.setMaxWeight(Math.max(root.getMaxWeight(), weight));
+		for (int i = 0; i < lowerCaseWord.length(); i++) {
+			int indexOfLetter = lowerCaseWord.charAt(i) - 97;
+			boolean lastLetter = i == lowerCaseWord.length() - 1;
+			Node next = node.getReference(indexOfLetter);
+			if (next == null) {
+				next = new Node(lowerCaseWord, 0);
+				next.setPrefixes(1);
+				next.setMaxWeight(weight);
+				// the node of the last letter holds the word
+				if (lastLetter) {
+					next.setTerm(lowerCaseWord, weight);
+					next.setWords(1);
+				}
+				node.setReference(next, indexOfLetter);
+			} else {
+				next.setPrefixes(next.getPrefixes() + 1);
+				// the word is in this node's subtree, so its weight may be the largest
+				next.setMaxWeight(Math.max(next.getMaxWeight(), weight));
+				// set the term before words so a reader that sees the word sees its term
+				if (lastLetter) {
+					next.setTerm(lowerCaseWord, weight);
+					next.setWords(1);
+				}
+			}
+			node = next;
+		}
+		invalidateCache();
 	}
 
 	@Override
@@ -178,11 +193,160 @@ public class Autocomplete implements IAutocomplete {
 			e.printStackTrace();
 		}
 
-		// reset the current to the root and return the root
-		current = root;
 		return root;
 	}
 
+	/**
+	 * Loads the same file format as buildTrie, much faster when the words are in
+	 * lexicographic order. The file is memory-mapped and scanned byte by byte
+	 * instead of split into Strings, and each word is added from the node of the
+	 * prefix it shares with the previous word rather than from the root. Prefix
+	 * counts and maximum weights are added up on the way back out of each node,
+	 * so the trie is only complete once bulkLoad returns.
+	 *
+	 * Lines that buildTrie would skip are skipped, as are words with letters
+	 * other than a to z. Unsorted files load correctly, just with less sharing
+	 *
+	 * @param filename
+	 * @param k        the maximum number of suggestions that should be displayed
+	 * @return the root of the Trie
+	 */
+	public synchronized Node bulkLoad(String filename, int k) {
+		numberSuggestions = k;
+		MappedByteBuffer buf;
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("file too large to map: " + filename);
+			}
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException e) {
+			e.printStackTrace();
+			return root;
+		}
+
+		// path[d] is the node of the first d letters of the previous word. Words
+		// ending below path[d] since it was reached are counted in pending[d], and
+		// their largest weight is in pendingMax[d]
+		Node[] path = new Node[64];
+		int[] pending = new int[64];
+		long[] pendingMax = new long[64];
+		byte[] previous = new byte[64];
+		byte[] word = new byte[64];
+		int previousLength = 0;
+		path[0] = root;
+
+		int end = buf.limit();
+		int pos = 0;
+		// skip the count line
+		while (pos < end && buf.get(pos++) != '\n') {
+		}
+		while (pos < end) {
+			// the weight, after any leading white space
+			while (pos < end && isBlank(buf.get(pos))) {
+				pos++;
+			}
+			long weight = 0;
+			int digits = 0;
+			boolean valid = true;
+			if (pos < end && buf.get(pos) == '+') {
+				pos++;
+			}
+			while (pos < end && buf.get(pos) >= '0' && buf.get(pos) <= '9') {
+				int digit = buf.get(pos++) - '0';
+				if (weight > (Long.MAX_VALUE - digit) / 10) {
+					valid = false;
+				}
+				weight = weight * 10 + digit;
+				digits++;
+			}
+			valid &= digits > 0 && pos < end && isBlank(buf.get(pos));
+
+			// the word, lowercased, up to the next white space
+			while (pos < end && isBlank(buf.get(pos))) {
+				pos++;
+			}
+			int length = 0;
+			while (pos < end && !isBlank(buf.get(pos)) && buf.get(pos) != '\n') {
+				byte b = buf.get(pos++);
+				if (b >= 'A' && b <= 'Z') {
+					b += 'a' - 'A';
+				}
+				valid &= b >= 'a' && b <= 'z';
+				if (length == word.length) {
+					word = Arrays.copyOf(word, length * 2);
+				}
+				word[length++] = b;
+			}
+			// ignore the rest of the line
+			while (pos < end && buf.get(pos++) != '\n') {
+			}
+			if (!valid || length == 0) {
+				continue;
+			}
+
+			// leave the nodes of the previous word below the shared prefix
+			int common = 0;
+			while (common < previousLength && common < length && previous[common] == word[common]) {
+				common++;
+			}
+			for (int d = previousLength; d > common; d--) {
+				close(path, pending, pendingMax, d);
+			}
+			if (length >= path.length) {
+				int size = Math.max(path.length * 2, length + 1);
+				path = Arrays.copyOf(path, size);
+				pending = Arrays.copyOf(pending, size);
+				pendingMax = Arrays.copyOf(pendingMax, size);
+				previous = Arrays.copyOf(previous, size);
+			}
+
+			// walk or create the rest of the word from there
+			for (int d = common; d < length; d++) {
+				Node next = path[d].getReference(word[d] - 'a');
+				if (next == null) {
+					next = new Node("", 0);
+					path[d].setReference(next, word[d] - 'a');
+				}
+				path[d + 1] = next;
+			}
+			Node last = path[length];
+			last.setTerm(new String(word, 0, length, StandardCharsets.ISO_8859_1), weight);
+			last.setWords(1);
+			pending[length]++;
+			pendingMax[length] = Math.max(pendingMax[length], weight);
+			System.arraycopy(word, 0, previous, 0, length);
+			previousLength = length;
+		}
+		for (int d = previousLength; d > 0; d--) {
+			close(path, pending, pendingMax, d);
+		}
+		root.setPrefixes(root.getPrefixes() + pending[0]);
+		root.setMaxWeight(Math.max(root.getMaxWeight(), pendingMax[0]));
+		invalidateCache();
+		return root;
+	}
+
+	/**
+	 * adds the words counted at depth d to path[d] and passes them up to its
+	 * parent
+	 */
+	private static void close(Node[] path, int[] pending, long[] pendingMax, int d) {
+		Node node = path[d];
+		node.setPrefixes(node.getPrefixes() + pending[d]);
+		node.setMaxWeight(Math.max(node.getMaxWeight(), pendingMax[d]));
+		pending[d - 1] += pending[d];
+		pendingMax[d - 1] = Math.max(pendingMax[d - 1], pendingMax[d]);
+		pending[d] = 0;
+		pendingMax[d] = 0;
+	}
+
+	/**
+	 * @return true for white space other than the end of a line
+	 */
+	private static boolean isBlank(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+	}
+
 	@Override
 	public int numberSuggestions() {
 		return numberSuggestions;
@@ -190,47 +354,16 @@ public class Autocomplete implements IAutocomplete {
 
 	@Override
 	public Node getSubTrie(String prefix) {
-		Node nodeToReturn = root;
-
-		// if prefix is empty string, return the root
-		if (prefix.length() < 1) {
-			if (prefix.equals("")) {
-				return root;
-			} else {
-				return null;
-			}
-		}
-
 		// make sure word is lowercase
 		String lowerCaseWord = prefix.toLowerCase();
 
-		// get the first letter
-		char firstLetter = lowerCaseWord.charAt(0);
-		int indexOfLetter = firstLetter - 97;
-
-		// if prefix is one letter long, return the reference for that letter or null if
-		// it doesn't exist
-		if (prefix.length() == 1) {
-			if (current.getReference(indexOfLetter) == null) {
-				return null;
-			} else {
-				nodeToReturn = current.getReference(indexOfLetter);
-				return nodeToReturn;
-			}
-		}
-
-		// else, move to the reference for that letter, returning null if it doesn't
-		// exist
-		if (current.getReference(indexOfLetter) == null) {
-			return null;
-		} else {
-			// move current
-			current = current.getReference(indexOfLetter);
+		// follow the reference for each letter in turn, returning null as soon as one
+		// doesn't exist. The root is returned for the empty string
+		Node node = root;
+		for (int i = 0; i < lowerCaseWord.length() && node != null; i++) {
+			node = node.getReference(lowerCaseWord.charAt(i) - 97);
 		}
-		// do recursive call on the rest of the string
-		nodeToReturn = getSubTrie(prefix.substring(1));
-		current = root;
-		return nodeToReturn;
+		return node;
 	}
 
 	@Override
@@ -253,6 +386,262 @@ public class Autocomplete implements IAutocomplete {
 		return listOfQueries;
 	}
 
+	@Override
+	public List<ITerm> getTopSuggestions(String prefix, int k) {
+		if (k < 1) {
+			return new ArrayList<ITerm>();
+		}
+		String lowerCasePrefix = prefix.toLowerCase();
+		long version;
+		synchronized (cache) {
+			version = cacheVersion;
+			List<ITerm> cached = refine(lowerCasePrefix, k);
+			if (cached != null) {
+				cacheHits.increment();
+				return cached;
+			}
+		}
+		cacheMisses.increment();
+
+		// walk the trie for more candidates than asked for, so longer prefixes can be
+		// answered from them too
+		int wanted = Math.max(k, CANDIDATES);
+		List<ITerm> candidates = topSuggestions(lowerCasePrefix, wanted);
+		synchronized (cache) {
+			// words added since the walk started may be missing from it
+			if (version == cacheVersion) {
+				cache.put(lowerCasePrefix, new CachedSuggestions(candidates, candidates.size() < wanted));
+			}
+		}
+		return new ArrayList<ITerm>(candidates.subList(0, Math.min(k, candidates.size())));
+	}
+
+	/**
+	 * Answers a lookup from the cache, using the longest cached prefix of prefix.
+	 * Its candidates are in weight order, so those that start with prefix are the
+	 * best words for prefix as long as there are k of them, or the cached list
+	 * held every word of its own prefix. Must hold the cache lock
+	 *
+	 * @return the best k words for prefix, or null if the cache can't tell
+	 */
+	private List<ITerm> refine(String prefix, int k) {
+		for (int length = prefix.length(); length >= 0; length--) {
+			CachedSuggestions cached = cache.get(prefix.substring(0, length));
+			if (cached == null) {
+				continue;
+			}
+			List<ITerm> listOfQueries = new ArrayList<ITerm>();
+			for (ITerm term : cached.terms) {
+				if (((Term) term).getTerm().startsWith(prefix)) {
+					listOfQueries.add(term);
+					if (listOfQueries.size() == k) {
+						return listOfQueries;
+					}
+				}
+			}
+			// a shorter cached prefix can't do better than a longer one
+			return cached.complete ? listOfQueries : null;
+		}
+		return null;
+	}
+
+	/**
+	 * @return number of getTopSuggestions calls answered from the cache
+	 */
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+
+	/**
+	 * @return number of getTopSuggestions calls that walked the trie
+	 */
+	public long getCacheMisses() {
+		return cacheMisses.sum();
+	}
+
+	/**
+	 * @return fraction of getTopSuggestions calls answered from the cache, 0 if
+	 *         there have been none
+	 */
+	public double getCacheHitRate() {
+		long hits = cacheHits.sum();
+		long total = hits + cacheMisses.sum();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * empties the cache, and stops lookups already under way from filling it with
+	 * results from before the change
+	 */
+	private void invalidateCache() {
+		synchronized (cache) {
+			cacheVersion++;
+			cache.clear();
+		}
+	}
+
+	/**
+	 * The best candidates for a prefix, in weight order. complete is true if they
+	 * are every word starting with the prefix
+	 */
+	private static class CachedSuggestions {
+		private final List<ITerm> terms;
+		private final boolean complete;
+
+		private CachedSuggestions(List<ITerm> terms, boolean complete) {
+			this.terms = terms;
+			this.complete = complete;
+		}
+	}
+
+	/**
+	 * @return the best k words starting with prefix, found by walking the trie
+	 */
+	private List<ITerm> topSuggestions(String prefix, int k) {
+		List<ITerm> listOfQueries = new ArrayList<ITerm>();
+		Node subTrieRoot = getSubTrie(prefix);
+		if (subTrieRoot == null || k < 1) {
+			return listOfQueries;
+		}
+		// best first: nodes are queued by the largest weight below them and words by
+		// their own weight, so a word reaches the head of the queue only once
+		// nothing left could outweigh it
+		PriorityQueue<Candidate> queue = new PriorityQueue<>();
+		queue.add(new Candidate(subTrieRoot, null, 0, subTrieRoot.getMaxWeight()));
+		List<Candidate> found = new ArrayList<Candidate>();
+		while (!queue.isEmpty() && found.size() < k) {
+			Candidate next = queue.poll();
+			if (next.term != null) {
+				found.add(next);
+				continue;
+			}
+			Node node = next.node;
+			if (node.getWords() == 1) {
+				queue.add(new Candidate(null, node.getTerm(), 0, node.getWeight()));
+			}
+			for (int i = 0; i < 26; i++) {
+				Node child = node.getReference(i);
+				if (child != null) {
+					queue.add(new Candidate(child, null, 0, child.getMaxWeight()));
+				}
+			}
+		}
+		return terms(found);
+	}
+
+	@Override
+	public List<ITerm> getFuzzySuggestions(String prefix, int maxEdits, int k) {
+		List<ITerm> listOfQueries = new ArrayList<ITerm>();
+		if (prefix == null || maxEdits < 0 || k < 1) {
+			return listOfQueries;
+		}
+		int[] target = Levenshtein.codePoints(prefix.toLowerCase());
+
+		// every word below a match starts within its distance of prefix
+		Map<Node, Integer> matches = new IdentityHashMap<Node, Integer>();
+		fuzzyMatches(root, Levenshtein.start(target.length), target, maxEdits + 1, matches);
+
+		// best first as in getTopSuggestions, fewest edits before highest weight. A
+		// match below another one is queued with its own smaller distance, so it is
+		// skipped when the one above is expanded
+		PriorityQueue<Candidate> queue = new PriorityQueue<>();
+		for (Map.Entry<Node, Integer> match : matches.entrySet()) {
+			queue.add(new Candidate(match.getKey(), null, match.getValue(), match.getKey().getMaxWeight()));
+		}
+		List<Candidate> found = new ArrayList<Candidate>();
+		while (!queue.isEmpty() && found.size() < k) {
+			Candidate next = queue.poll();
+			if (next.term != null) {
+				found.add(next);
+				continue;
+			}
+			Node node = next.node;
+			if (node.getWords() == 1) {
+				queue.add(new Candidate(null, node.getTerm(), next.distance, node.getWeight()));
+			}
+			for (int i = 0; i < 26; i++) {
+				Node child = node.getReference(i);
+				if (child != null && !matches.containsKey(child)) {
+					queue.add(new Candidate(child, null, next.distance, child.getMaxWeight()));
+				}
+			}
+		}
+		return terms(found);
+	}
+
+	/**
+	 * A word added during a walk can turn up below a node queued with its old
+	 * largest weight, after lighter words have been taken, so the words found are
+	 * put back in queue order. Without a concurrent addWord they already are
+	 *
+	 * @return the words of found, fewest edits then highest weight first
+	 */
+	private static List<ITerm> terms(List<Candidate> found) {
+		Collections.sort(found);
+		List<ITerm> listOfQueries = new ArrayList<ITerm>();
+		for (Candidate candidate : found) {
+			listOfQueries.add(candidate.term);
+		}
+		return listOfQueries;
+	}
+
+	/**
+	 * Walks down from node keeping the Levenshtein row of its path against target,
+	 * and records each node whose path is closer to target than bound, the
+	 * distance of the closest match above it. A branch is left as soon as no
+	 * longer path could get closer than bound
+	 */
+	private static void fuzzyMatches(Node node, int[] row, int[] target, int bound, Map<Node, Integer> matches) {
+		int distance = row[target.length];
+		if (distance < bound) {
+			matches.put(node, distance);
+			bound = distance;
+		}
+		for (int i = 0; i < 26; i++) {
+			Node child = node.getReference(i);
+			if (child != null) {
+				int[] next = Levenshtein.step(row, target, 'a' + i);
+				if (Levenshtein.min(next) < bound) {
+					fuzzyMatches(child, next, target, bound, matches);
+				}
+			}
+		}
+	}
+
+	/**
+	 * An entry in the getTopSuggestions queue: either a node still to expand or a
+	 * word ready to be returned. Fewer edits from the prefix come first, then
+	 * higher weights; at equal weight words come before nodes so the search can
+	 * stop without expanding further
+	 */
+	private static class Candidate implements Comparable<Candidate> {
+		private final Node node;
+		private final Term term;
+		private final int distance;
+		private final long weight;
+
+		private Candidate(Node node, Term term, int distance, long weight) {
+			this.node = node;
+			this.term = term;
+			this.distance = distance;
+			this.weight = weight;
+		}
+
+		@Override
+		public int compareTo(Candidate that) {
+			if (this.distance != that.distance) {
+				return Integer.compare(this.distance, that.distance);
+			}
+			if (this.weight != that.weight) {
+				return Long.compare(that.weight, this.weight);
+			}
+			if ((this.term == null) != (that.term == null)) {
+				return this.term != null ? -1 : 1;
+			}
+			return this.term == null ? 0 : this.term.compareTo(that.term);
+		}
+	}
+
 	/**
 	 * helper method for getSuggestions receives the root of the subtrie and an
 	 * empty list adds all words in the subtrie to the list
@@ -0,0 +1,628 @@
+package autocomplete;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * A read-only autocomplete over a minimized automaton, stored as a flat byte
+ * array that can be memory-mapped and queried without being read into objects.
+ *
+ * The automaton is built from the words in lexicographic order. Words share
+ * their common prefixes, and states whose remaining words and weights are the
+ * same are stored once, so common suffixes are shared too. Weights are pushed
+ * onto the arcs: each state knows the largest weight below it, and each arc and
+ * each final state records how much lower that maximum is past it. The
+ * maximum reached along a path is therefore a bound on every word below it,
+ * which getTopSuggestions uses to look at only the best k words.
+ *
+ * Layout:
+ *
+ * <pre>
+ * int    magic
+ * int    version
+ * int    numWords
+ * int    root         offset of the start state
+ * long   maxWeight    largest weight of any word
+ * int    crc          CRC32 of the states
+ * states, each written before any state that points to it:
+ *   byte    flags       1 if the state ends a word
+ *   vlong   finalDrop   maximum below the state minus its own word's weight,
+ *                       only if it ends a word
+ *   vint    count       number of words below the state
+ *   byte    numArcs
+ *   arcs, in letter order, each:
+ *     byte  label
+ *     vlong drop        maximum below the state minus maximum below the target
+ *     vint  target      offset of the target state
+ * </pre>
+ *
+ * Only words of the letters a to z are kept, as in Autocomplete. addWord is not
+ * supported, and the Nodes returned by buildTrie and getSubTrie are detached
+ * copies of one state without references.
+ *
+ * @author clairewalker
+ *
+ */
+public class CompactAutocomplete implements IAutocomplete {
+	/**
+	 * format version written by this class
+	 */
+	public static final int VERSION = 1;
+
+	private static final int MAGIC = 0x4E414143;
+	private static final int HEADER = 4 + 4 + 4 + 4 + 8 + 4;
+	private static final int FINAL = 1;
+
+	private ByteBuffer buf;
+	private int numberSuggestions;
+
+	/**
+	 * Creates an empty CompactAutocomplete, to be filled by buildTrie
+	 */
+	public CompactAutocomplete() {
+		this.buf = compile(new TreeMap<String, Long>());
+	}
+
+	private CompactAutocomplete(ByteBuffer buf, int k) {
+		this.buf = buf;
+		this.numberSuggestions = k;
+	}
+
+	/**
+	 * Builds the automaton for a set of words
+	 *
+	 * @param words word to weight, in lexicographic order
+	 * @param k     the maximum number of suggestions that should be displayed
+	 * @return the automaton
+	 * @throws IllegalArgumentException if a word is not lowercase a to z or a
+	 *                                  weight is negative
+	 */
+	public static CompactAutocomplete build(TreeMap<String, Long> words, int k) throws IllegalArgumentException {
+		return new CompactAutocomplete(compile(words), k);
+	}
+
+	/**
+	 * Opens an automaton saved by write by memory-mapping the file
+	 *
+	 * @param file
+	 * @param k    the maximum number of suggestions that should be displayed
+	 * @return the automaton
+	 * @throws IOException if the file cannot be read or is not a complete
+	 *                     automaton
+	 */
+	public static CompactAutocomplete open(Path file, int k) throws IOException {
+		MappedByteBuffer mapped;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("automaton too large: " + file);
+			}
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (mapped.limit() < HEADER || mapped.getInt(0) != MAGIC) {
+			throw new IOException("not an autocomplete automaton: " + file);
+		}
+		if (mapped.getInt(4) != VERSION) {
+			throw new IOException("unsupported automaton version " + mapped.getInt(4) + ": " + file);
+		}
+		int root = mapped.getInt(12);
+		if (root < HEADER || root >= mapped.limit() || crc(mapped) != mapped.getInt(HEADER - 4)) {
+			throw new IOException("corrupt automaton: " + file);
+		}
+		return new CompactAutocomplete(mapped, k);
+	}
+
+	/**
+	 * Saves the automaton, replacing any file already at file. The bytes are
+	 * written to a temporary file that is moved into place once complete
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(Path file) throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer all = buf.duplicate();
+			all.clear();
+			while (all.hasRemaining()) {
+				channel.write(all);
+			}
+			channel.force(true);
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return number of bytes taken by the automaton
+	 */
+	public int byteSize() {
+		return buf.limit();
+	}
+
+	/**
+	 * @return number of words in the automaton
+	 */
+	public int numWords() {
+		return buf.getInt(8);
+	}
+
+	/**
+	 * Not supported: the automaton is read-only
+	 *
+	 * @throws UnsupportedOperationException
+	 */
+	@Override
+	public void addWord(String word, long weight) {
+		throw new UnsupportedOperationException("CompactAutocomplete is read-only");
+	}
+
+	@Override
+	public Node buildTrie(String filename, int k) {
+		numberSuggestions = k;
+		TreeMap<String, Long> words = new TreeMap<>();
+		try {
+			// read the file like Autocomplete.buildTrie, skipping the count line and
+			// any line that is not a weight followed by a word
+			BufferedReader br = new BufferedReader(new FileReader(filename));
+			br.readLine();
+			String lineRead = br.readLine();
+			while (lineRead != null) {
+				String[] splitLineArray = lineRead.trim().split("\\s+");
+				lineRead = br.readLine();
+				if (splitLineArray.length < 2) {
+					continue;
+				}
+				long weight;
+				try {
+					weight = Long.parseLong(splitLineArray[0]);
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				String word = splitLineArray[1].toLowerCase();
+				if (weight < 0 || !isWord(word)) {
+					continue;
+				}
+				// a later line for the same word replaces the earlier one
+				words.put(word, weight);
+			}
+			br.close();
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		buf = compile(words);
+		return getSubTrie("");
+	}
+
+	@Override
+	public int numberSuggestions() {
+		return numberSuggestions;
+	}
+
+	@Override
+	public Node getSubTrie(String prefix) {
+		if (prefix == null) {
+			return null;
+		}
+		State state = walk(prefix.toLowerCase());
+		if (state == null) {
+			return null;
+		}
+		// a detached copy of the state: its counts and weights, but no references
+		Node node = new Node(prefix.toLowerCase(), state.isFinal ? state.finalWeight : 0);
+		if (state.isFinal) {
+			node.setWords(1);
+		}
+		node.setPrefixes(state.count);
+		node.setMaxWeight(state.bound);
+		return node;
+	}
+
+	@Override
+	public int countPrefixes(String prefix) {
+		State state = prefix == null ? null : walk(prefix.toLowerCase());
+		return state == null ? 0 : state.count;
+	}
+
+	@Override
+	public List<ITerm> getSuggestions(String prefix) {
+		List<ITerm> listOfQueries = new ArrayList<ITerm>();
+		State state = prefix == null ? null : walk(prefix.toLowerCase());
+		if (state != null) {
+			getSuggestionsHelper(state, new StringBuilder(prefix.toLowerCase()), listOfQueries);
+		}
+		return listOfQueries;
+	}
+
+	/**
+	 * adds every word below state to listOfQueries, in lexicographic order
+	 */
+	private void getSuggestionsHelper(State state, StringBuilder word, List<ITerm> listOfQueries) {
+		if (state.isFinal) {
+			listOfQueries.add(new Term(word.toString(), state.finalWeight));
+		}
+		for (int i = 0; i < state.numArcs; i++) {
+			word.append((char) state.labels[i]);
+			getSuggestionsHelper(new State(state.targets[i], state.bounds[i]), word, listOfQueries);
+			word.setLength(word.length() - 1);
+		}
+	}
+
+	@Override
+	public List<ITerm> getTopSuggestions(String prefix, int k) {
+		List<ITerm> listOfQueries = new ArrayList<ITerm>();
+		State start = prefix == null || k < 1 ? null : walk(prefix.toLowerCase());
+		if (start == null) {
+			return listOfQueries;
+		}
+		// best first, as in Autocomplete: a state's bound is the exact maximum below
+		// it, so a word reaches the head of the queue only once nothing left could
+		// outweigh it
+		PriorityQueue<Candidate> queue = new PriorityQueue<>();
+		queue.add(new Candidate(prefix.toLowerCase(), start.offset, 0, start.bound));
+		while (!queue.isEmpty() && listOfQueries.size() < k) {
+			Candidate next = queue.poll();
+			if (next.state < 0) {
+				listOfQueries.add(new Term(next.word, next.weight));
+				continue;
+			}
+			State state = new State(next.state, next.weight);
+			if (state.isFinal) {
+				queue.add(new Candidate(next.word, -1, 0, state.finalWeight));
+			}
+			for (int i = 0; i < state.numArcs; i++) {
+				queue.add(new Candidate(next.word + (char) state.labels[i], state.targets[i], 0, state.bounds[i]));
+			}
+		}
+		return listOfQueries;
+	}
+
+	@Override
+	public List<ITerm> getFuzzySuggestions(String prefix, int maxEdits, int k) {
+		List<ITerm> listOfQueries = new ArrayList<ITerm>();
+		if (prefix == null || maxEdits < 0 || k < 1) {
+			return listOfQueries;
+		}
+		int[] target = Levenshtein.codePoints(prefix.toLowerCase());
+
+		// every word below a match starts within its distance of prefix. States are
+		// shared between paths that may be at different distances, so matches are
+		// kept by the path that reached them
+		Map<String, Candidate> matches = new HashMap<String, Candidate>();
+		fuzzyMatches("", new State(buf.getInt(12), buf.getLong(16)), Levenshtein.start(target.length), target,
+				maxEdits + 1, matches);
+
+		// best first as in getTopSuggestions, fewest edits before highest weight,
+		// skipping matches below a match as they are queued with their own smaller
+		// distance
+		PriorityQueue<Candidate> queue = new PriorityQueue<>(matches.values());
+		while (!queue.isEmpty() && listOfQueries.size() < k) {
+			Candidate next = queue.poll();
+			if (next.state < 0) {
+				listOfQueries.add(new Term(next.word, next.weight));
+				continue;
+			}
+			State state = new State(next.state, next.weight);
+			if (state.isFinal) {
+				queue.add(new Candidate(next.word, -1, next.distance, state.finalWeight));
+			}
+			for (int i = 0; i < state.numArcs; i++) {
+				String word = next.word + (char) state.labels[i];
+				if (!matches.containsKey(word)) {
+					queue.add(new Candidate(word, state.targets[i], next.distance, state.bounds[i]));
+				}
+			}
+		}
+		return listOfQueries;
+	}
+
+	/**
+	 * Walks down from state, reached by word, keeping the Levenshtein row of the
+	 * path against target, and records each path that is closer to target than
+	 * bound, the distance of the closest match above it. A branch is left as soon
+	 * as no longer path could get closer than bound
+	 */
+	private void fuzzyMatches(String word, State state, int[] row, int[] target, int bound,
+			Map<String, Candidate> matches) {
+		int distance = row[target.length];
+		if (distance < bound) {
+			matches.put(word, new Candidate(word, state.offset, distance, state.bound));
+			bound = distance;
+		}
+		for (int i = 0; i < state.numArcs; i++) {
+			int[] next = Levenshtein.step(row, target, state.labels[i]);
+			if (Levenshtein.min(next) < bound) {
+				fuzzyMatches(word + (char) state.labels[i], new State(state.targets[i], state.bounds[i]), next, target,
+						bound, matches);
+			}
+		}
+	}
+
+	/**
+	 * @return the state reached by reading prefix from the start state, or null if
+	 *         no word starts with prefix
+	 */
+	private State walk(String prefix) {
+		State state = new State(buf.getInt(12), buf.getLong(16));
+		for (int i = 0; i < prefix.length(); i++) {
+			int next = -1;
+			for (int a = 0; a < state.numArcs; a++) {
+				if (state.labels[a] == prefix.charAt(i)) {
+					next = a;
+					break;
+				}
+			}
+			if (next < 0) {
+				return null;
+			}
+			state = new State(state.targets[next], state.bounds[next]);
+		}
+		return state;
+	}
+
+	/**
+	 * A state decoded from the buffer, with the bound of each of its targets
+	 */
+	private class State {
+		private final int offset;
+		private final long bound;
+		private final boolean isFinal;
+		private final long finalWeight;
+		private final int count;
+		private final int numArcs;
+		private final byte[] labels;
+		private final long[] bounds;
+		private final int[] targets;
+		private int pos;
+
+		private State(int offset, long bound) {
+			this.offset = offset;
+			this.bound = bound;
+			this.pos = offset;
+			this.isFinal = (buf.get(pos++) & FINAL) != 0;
+			this.finalWeight = isFinal ? bound - readVLong() : 0;
+			this.count = (int) readVLong();
+			this.numArcs = buf.get(pos++);
+			this.labels = new byte[numArcs];
+			this.bounds = new long[numArcs];
+			this.targets = new int[numArcs];
+			for (int i = 0; i < numArcs; i++) {
+				labels[i] = buf.get(pos++);
+				bounds[i] = bound - readVLong();
+				targets[i] = (int) readVLong();
+			}
+		}
+
+		private long readVLong() {
+			long v = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = buf.get(pos++);
+				v |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			return v;
+		}
+	}
+
+	/**
+	 * An entry in the getTopSuggestions queue: a state still to expand, or a word
+	 * ready to be returned when state is -1. Fewer edits from the prefix come
+	 * first, then higher weights; at equal weight words come before states
+	 */
+	private static class Candidate implements Comparable<Candidate> {
+		private final String word;
+		private final int state;
+		private final int distance;
+		private final long weight;
+
+		private Candidate(String word, int state, int distance, long weight) {
+			this.word = word;
+			this.state = state;
+			this.distance = distance;
+			this.weight = weight;
+		}
+
+		@Override
+		public int compareTo(Candidate that) {
+			if (this.distance != that.distance) {
+				return Integer.compare(this.distance, that.distance);
+			}
+			if (this.weight != that.weight) {
+				return Long.compare(that.weight, this.weight);
+			}
+			return Boolean.compare(this.state >= 0, that.state >= 0);
+		}
+	}
+
+	/**
+	 * @return true if word is non-empty and all lowercase a to z
+	 */
+	private static boolean isWord(String word) {
+		if (word.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < word.length(); i++) {
+			if (word.charAt(i) < 'a' || word.charAt(i) > 'z') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Builds the automaton in one pass over the sorted words. The states along the
+	 * previous word are kept open; when the next word leaves that path, the open
+	 * states below the shared prefix can no longer change and are written, reusing
+	 * an identical state already written if there is one
+	 */
+	private static ByteBuffer compile(TreeMap<String, Long> words) throws IllegalArgumentException {
+		Compiler compiler = new Compiler();
+		String previous = "";
+		for (Map.Entry<String, Long> e : words.entrySet()) {
+			String word = e.getKey();
+			if (!isWord(word) || e.getValue() == null || e.getValue() < 0) {
+				throw new IllegalArgumentException("cannot add " + word + " " + e.getValue());
+			}
+			int common = 0;
+			while (common < previous.length() && common < word.length()
+					&& previous.charAt(common) == word.charAt(common)) {
+				common++;
+			}
+			compiler.close(previous, common);
+			compiler.extend(word.length());
+			compiler.pending.get(word.length()).isFinal = true;
+			compiler.pending.get(word.length()).weight = e.getValue();
+			previous = word;
+		}
+		compiler.close(previous, 0);
+		int root = compiler.write(compiler.pending.get(0));
+
+		byte[] states = compiler.out.toByteArray();
+		ByteBuffer built = ByteBuffer.allocate(HEADER + states.length);
+		built.putInt(MAGIC);
+		built.putInt(VERSION);
+		built.putInt(words.size());
+		built.putInt(root);
+		built.putLong(compiler.lastMax);
+		built.putInt(0);
+		built.put(states);
+		built.putInt(HEADER - 4, crc(built));
+		built.clear();
+		return built;
+	}
+
+	private static int crc(ByteBuffer buf) {
+		ByteBuffer states = buf.duplicate();
+		states.limit(buf.limit());
+		states.position(HEADER);
+		CRC32 crc = new CRC32();
+		crc.update(states);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * A state still being built, with the targets already written
+	 */
+	private static class OpenState {
+		private boolean isFinal;
+		private long weight;
+		private int numArcs;
+		private final byte[] labels = new byte[26];
+		private final int[] targets = new int[26];
+		private final long[] maxes = new long[26];
+		private final int[] counts = new int[26];
+
+		private void clear() {
+			isFinal = false;
+			weight = 0;
+			numArcs = 0;
+		}
+	}
+
+	private static class Compiler {
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		private final Map<String, Integer> written = new HashMap<>();
+		private final List<OpenState> pending = new ArrayList<>();
+		private final ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+		private long lastMax;
+		private int lastCount;
+
+		private Compiler() {
+			pending.add(new OpenState());
+		}
+
+		/**
+		 * makes sure open states exist for depths up to depth, the deeper ones empty
+		 */
+		private void extend(int depth) {
+			while (pending.size() <= depth) {
+				pending.add(new OpenState());
+			}
+		}
+
+		/**
+		 * writes the open states of previous deeper than keep, each becoming an arc
+		 * of its parent
+		 */
+		private void close(String previous, int keep) {
+			for (int d = previous.length(); d > keep; d--) {
+				OpenState child = pending.get(d);
+				int target = write(child);
+				child.clear();
+				OpenState parent = pending.get(d - 1);
+				int a = parent.numArcs++;
+				parent.labels[a] = (byte) previous.charAt(d - 1);
+				parent.targets[a] = target;
+				parent.maxes[a] = lastMax;
+				parent.counts[a] = lastCount;
+			}
+		}
+
+		/**
+		 * @return offset of the state, after writing it if no identical state was
+		 *         written before. Sets lastMax and lastCount for the state
+		 */
+		private int write(OpenState state) {
+			long max = state.isFinal ? state.weight : 0;
+			int count = state.isFinal ? 1 : 0;
+			for (int a = 0; a < state.numArcs; a++) {
+				max = Math.max(max, state.maxes[a]);
+				count += state.counts[a];
+			}
+			lastMax = max;
+			lastCount = count;
+
+			scratch.reset();
+			scratch.write(state.isFinal ? FINAL : 0);
+			if (state.isFinal) {
+				writeVLong(scratch, max - state.weight);
+			}
+			writeVLong(scratch, count);
+			scratch.write(state.numArcs);
+			for (int a = 0; a < state.numArcs; a++) {
+				scratch.write(state.labels[a]);
+				writeVLong(scratch, max - state.maxes[a]);
+				writeVLong(scratch, state.targets[a]);
+			}
+			// the encoding names the targets, so equal encodings are equal states
+			byte[] bytes = scratch.toByteArray();
+			String key = new String(bytes, StandardCharsets.ISO_8859_1);
+			Integer offset = written.get(key);
+			if (offset == null) {
+				offset = HEADER + out.size();
+				out.write(bytes, 0, bytes.length);
+				written.put(key, offset);
+			}
+			return offset;
+		}
+
+		private static void writeVLong(ByteArrayOutputStream out, long v) {
+			while ((v & ~0x7FL) != 0) {
+				out.write((int) ((v & 0x7F) | 0x80));
+				v >>>= 7;
+			}
+			out.write((int) v);
+		}
+	}
+}
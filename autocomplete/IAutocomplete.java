@@ -59,4 +59,29 @@ public interface IAutocomplete
      */
     public List<ITerm> getSuggestions(String prefix);
 
+
+    /**
+     * This method should not throw an exception
+     * @param prefix
+     * @param k the maximum number of terms to return
+     * @return a List of at most k ITerm objects with query starting with
+     *         prefix, highest weight first. Return an empty list if there are
+     *         no ITerm object starting with prefix.
+     */
+    public List<ITerm> getTopSuggestions(String prefix, int k);
+
+
+    /**
+     * This method should not throw an exception
+     * @param prefix
+     * @param maxEdits the most insertions, deletions and substitutions allowed
+     *                 between prefix and the start of a word, usually 1 or 2
+     * @param k the maximum number of terms to return
+     * @return a List of at most k ITerm objects with query starting within
+     *         maxEdits of prefix, fewest edits first and highest weight first
+     *         among those with as many edits. Return an empty list if there are
+     *         none or maxEdits is negative.
+     */
+    public List<ITerm> getFuzzySuggestions(String prefix, int maxEdits, int k);
+
 }
@@ -0,0 +1,67 @@
+package autocomplete;
+
+/**
+ * Rows of the Levenshtein table of a target against the path being walked down
+ * a trie, used as the states of a Levenshtein automaton for the target.
+ *
+ * Cell i of the row for a path is the number of edits that turn the first i
+ * code points of the target into the path. Reading one more label of the path
+ * gives the next row. The last cell is how far the path is from the whole
+ * target, and no longer path can get closer than the smallest cell, so a walk
+ * can stop as soon as that is too far.
+ *
+ * @author clairewalker
+ *
+ */
+final class Levenshtein {
+
+	private Levenshtein() {
+	}
+
+	/**
+	 * @return the code points of s
+	 */
+	static int[] codePoints(String s) {
+		return s.codePoints().toArray();
+	}
+
+	/**
+	 * @return the row for the empty path: i edits for the first i code points
+	 */
+	static int[] start(int length) {
+		int[] row = new int[length + 1];
+		for (int i = 0; i <= length; i++) {
+			row[i] = i;
+		}
+		return row;
+	}
+
+	/**
+	 * @param row    the row for a path
+	 * @param target code points of the target
+	 * @param label  next code point of the path
+	 * @return the row for the path followed by label
+	 */
+	static int[] step(int[] row, int[] target, int label) {
+		int[] next = new int[row.length];
+		next[0] = row[0] + 1;
+		for (int i = 1; i < row.length; i++) {
+			// insert label, delete target[i - 1], or match or substitute it
+			int cost = target[i - 1] == label ? 0 : 1;
+			next[i] = Math.min(Math.min(row[i] + 1, next[i - 1] + 1), row[i - 1] + cost);
+		}
+		return next;
+	}
+
+	/**
+	 * @return the smallest cell of row, a bound on the distance of any path that
+	 *         extends it
+	 */
+	static int min(int[] row) {
+		int min = row[0];
+		for (int i = 1; i < row.length; i++) {
+			min = Math.min(min, row[i]);
+		}
+		return min;
+	}
+}
@@ -1,18 +1,47 @@
 package autocomplete;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 /**
  * ==== Attributes ==== - words: number of words - term: the ITerm object -
  * prefixes: number of prefixes - references: Array of references to
- * next/children Nodes
+ * next/children Nodes, only allocated once the first child is added -
+ * maxWeight: largest weight of any word in the subtree
  * 
  * ==== Constructor ==== Node(String word, long weight)
  * 
+ * Fields are written with release and read with acquire semantics, so a thread
+ * that reaches a node through getReference sees it fully built while another
+ * thread adds words, without the cost of a volatile write on every change.
+ * 
  * @author Your_Name
  */
 public class Node {
+	private static final VarHandle REFERENCES = MethodHandles.arrayElementVarHandle(Node[].class);
+	private static final VarHandle WORDS;
+	private static final VarHandle TERM;
+	private static final VarHandle PREFIXES;
+	private static final VarHandle REFERENCE_ARRAY;
+	private static final VarHandle MAX_WEIGHT;
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			WORDS = lookup.findVarHandle(Node.class, "words", int.class);
+			TERM = lookup.findVarHandle(Node.class, "term", ITerm.class);
+			PREFIXES = lookup.findVarHandle(Node.class, "prefixes", int.class);
+			REFERENCE_ARRAY = lookup.findVarHandle(Node.class, "references", Node[].class);
+			MAX_WEIGHT = lookup.findVarHandle(Node.class, "maxWeight", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
 	private int words;
 	private ITerm term;
 	private int prefixes;
 	private Node[] references;
+	private long maxWeight;
 
 	/**
 	 * @param word
@@ -23,23 +52,18 @@ public class Node {
 		if (word == null || weight < 0) {
 			throw new IllegalArgumentException();
 		}
-		this.words = 0;
-		if (weight < 1) {
-			term = null;
-		} else {
+		// plain writes are enough here: nothing can see the node until it is linked
+		// with setReference
+		if (weight >= 1) {
 			term = new Term(word, weight);
 		}
-		references = new Node[26];
+		this.maxWeight = weight;
 	}
 
 	/**
 	 * Constructor with no params
 	 */
 	public Node() {
-		this.words = 0;
-//		this.term = null;
-		this.prefixes = 0;
-		this.references = new Node[26];
 	}
 
 	
@@ -47,21 +71,35 @@ public class Node {
 	 * @return term weight
 	 */
 	public long getWeight() {
-		return ((Term) this.term).getWeight();
+		return getTerm().getWeight();
 	}
 
 	/**
 	 * @param w
 	 */
 	public void setWeight(int w) {
-		((Term) this.term).setWeight(w);
+		getTerm().setWeight(w);
+	}
+
+	/**
+	 * @return largest weight of any word in the subtree rooted at this node
+	 */
+	public long getMaxWeight() {
+		return (long) MAX_WEIGHT.getAcquire(this);
+	}
+
+	/**
+	 * @param w sets maxWeight to w
+	 */
+	public void setMaxWeight(long w) {
+		MAX_WEIGHT.setRelease(this, w);
 	}
 
 	/**
 	 * @return this.term
 	 */
 	public Term getTerm() {
-		return (Term) this.term;
+		return (Term) TERM.getAcquire(this);
 	}
 
 	/**
@@ -69,21 +107,21 @@ public class Node {
 	 * @param weight
 	 */
 	public void setTerm(String word, long weight) {
-		this.term = new Term(word, weight);
+		TERM.setRelease(this, new Term(word, weight));
 	}
 
 	/**
 	 * @param t sets this.term to t
 	 */
 	public void setTerm(Term t) {
-		this.term = t;
+		TERM.setRelease(this, t);
 	}
 
 	/**
 	 * @return words
 	 */
 	public int getWords() {
-		return this.words;
+		return (int) WORDS.getAcquire(this);
 	}
 
 	/**
@@ -91,7 +129,7 @@ public class Node {
 	 * @return w sets words=w
 	 */
 	public int setWords(int w) {
-		this.words = w;
+		WORDS.setRelease(this, w);
 		return w;
 	}
 
@@ -99,7 +137,7 @@ public class Node {
 	 * @return prefixes
 	 */
 	public int getPrefixes() {
-		return prefixes;
+		return (int) PREFIXES.getAcquire(this);
 	}
 
 	/**
@@ -109,7 +147,7 @@ public class Node {
 		if (p < 0) {
 			return;
 		}
-		prefixes = p;
+		PREFIXES.setRelease(this, p);
 	}
 
 	/**
@@ -120,7 +158,11 @@ public class Node {
 		if (i < 0 || i > 25) {
 			return null;
 		}
-		return references[i];
+		Node[] refs = (Node[]) REFERENCE_ARRAY.getAcquire(this);
+		if (refs == null) {
+			return null;
+		}
+		return (Node) REFERENCES.getAcquire(refs, i);
 	}
 
 	/**
@@ -131,21 +173,27 @@ public class Node {
 		if (i < 0 || i > 25) {
 			return;
 		}
-		references[i] = n;
+		Node[] refs = (Node[]) REFERENCE_ARRAY.getAcquire(this);
+		if (refs == null) {
+			// only the writer adds children, so only it allocates the array
+			refs = new Node[26];
+			REFERENCE_ARRAY.setRelease(this, refs);
+		}
+		REFERENCES.setRelease(refs, i, n);
 	}
 
 	/**
-	 * @return this.references
+	 * @return this.references, null if no child has been added
 	 */
 	public Node[] getReferences() {
-		return this.references;
+		return (Node[]) REFERENCE_ARRAY.getAcquire(this);
 	}
 
 	/**
 	 * @param refs
 	 */
 	public void setReferences(Node[] refs) {
-		this.references = refs;
+		REFERENCE_ARRAY.setRelease(this, refs);
 	}
 
 	/**
@@ -153,7 +201,7 @@ public class Node {
 	 */
 	public boolean isLeaf() {
 		for (int i = 0; i < 26; i++) {
-			if (this.references[i] != null) {
+			if (getReference(i) != null) {
 				return false;
 			}
 		}
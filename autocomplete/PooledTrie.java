@@ -0,0 +1,469 @@
+package autocomplete;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A mutable trie over Unicode code points whose nodes live in pooled primitive
+ * arrays rather than in Node objects.
+ *
+ * A node is an int index into parallel arrays of its weight, the largest weight
+ * below it, its number of words and where its children are. The children of a
+ * node are a block of the shared childLabels and childNodes arrays, sorted by
+ * code point so a child is found by binary search. A full block is moved to a
+ * block twice its size, and the old block is kept on a free list for the next
+ * node that needs one of that size.
+ *
+ * Any code point is accepted, so words with digits, accents or non-Latin
+ * letters can be suggested. Words are lowercased as in Autocomplete, and the
+ * word of each node is rebuilt from the path to it when suggestions are made.
+ * getSubTrie and buildTrie return detached Nodes holding the counts and
+ * weights of one node, without references.
+ *
+ * @author clairewalker
+ *
+ */
+public class PooledTrie implements IAutocomplete {
+	private static final int ROOT = 0;
+	private static final long NO_WORD = -1;
+
+	// per node
+	private int numNodes;
+	private long[] weights;
+	private long[] maxWeights;
+	private int[] prefixes;
+	private int[] childStart;
+	private int[] childCount;
+
+	// child blocks, each a power of two long
+	private int[] childLabels;
+	private int[] childNodes;
+	private int poolSize;
+	private final int[] freeBlocks = new int[32];
+
+	private int numberSuggestions;
+
+	/**
+	 * Creates an empty PooledTrie with only its root
+	 */
+	public PooledTrie() {
+		weights = new long[16];
+		maxWeights = new long[16];
+		prefixes = new int[16];
+		childStart = new int[16];
+		childCount = new int[16];
+		childLabels = new int[16];
+		childNodes = new int[16];
+		Arrays.fill(freeBlocks, -1);
+		newNode();
+	}
+
+	/**
+	 * @return number of nodes, including the root
+	 */
+	public int numNodes() {
+		return numNodes;
+	}
+
+	/**
+	 * @param word
+	 * @param weight
+	 * @throws IllegalArgumentException if word is null or weight is negative
+	 */
+	@Override
+	public void addWord(String word, long weight) throws IllegalArgumentException {
+		if (word == null || weight < 0) {
+			throw new IllegalArgumentException();
+		}
+		String lowerCaseWord = word.toLowerCase();
+		if (lowerCaseWord.length() < 1) {
+			return;
+		}
+
+		// walk down the trie one code point at a time, adding missing nodes and
+		// remembering the path
+		int[] path = new int[lowerCaseWord.length() + 1];
+		int depth = 0;
+		int node = ROOT;
+		path[0] = ROOT;
+		for (int i = 0; i < lowerCaseWord.length();) {
+			int codePoint = lowerCaseWord.codePointAt(i);
+			i += Character.charCount(codePoint);
+			int slot = findChild(node, codePoint);
+			node = slot >= 0 ? childNodes[slot] : addChild(node, codePoint, -slot - 1);
+			path[++depth] = node;
+		}
+
+		long previous = weights[node];
+		weights[node] = weight;
+		if (previous == NO_WORD) {
+			for (int d = 0; d <= depth; d++) {
+				prefixes[path[d]]++;
+			}
+		}
+		if (weight >= previous) {
+			// the new weight can only raise the maximum along the path
+			for (int d = 0; d <= depth; d++) {
+				maxWeights[path[d]] = Math.max(maxWeights[path[d]], weight);
+			}
+		} else {
+			// a word's weight went down, so work the maximum out again from the bottom
+			// until it stops changing
+			for (int d = depth; d >= 0; d--) {
+				long max = recomputeMaxWeight(path[d]);
+				if (max == maxWeights[path[d]]) {
+					break;
+				}
+				maxWeights[path[d]] = max;
+			}
+		}
+	}
+
+	@Override
+	public Node buildTrie(String filename, int k) {
+		numberSuggestions = k;
+		try {
+			// same format as Autocomplete.buildTrie: a count line, then a weight and a
+			// word on each line
+			BufferedReader br = new BufferedReader(new FileReader(filename));
+			br.readLine();
+			String lineRead = br.readLine();
+			while (lineRead != null) {
+				String[] splitLineArray = lineRead.trim().split("\\s+");
+				lineRead = br.readLine();
+				if (splitLineArray.length < 2) {
+					continue;
+				}
+				long weight;
+				try {
+					weight = Long.parseLong(splitLineArray[0]);
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				if (weight < 0) {
+					continue;
+				}
+				addWord(splitLineArray[1], weight);
+			}
+			br.close();
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return getSubTrie("");
+	}
+
+	@Override
+	public int numberSuggestions() {
+		return numberSuggestions;
+	}
+
+	@Override
+	public Node getSubTrie(String prefix) {
+		int node = prefix == null ? -1 : find(prefix.toLowerCase());
+		if (node < 0) {
+			return null;
+		}
+		// a detached copy of the node: its counts and weights, but no references
+		Node copy = new Node(prefix.toLowerCase(), Math.max(0, weights[node]));
+		if (weights[node] != NO_WORD) {
+			copy.setWords(1);
+		}
+		copy.setPrefixes(prefixes[node]);
+		copy.setMaxWeight(maxWeights[node]);
+		return copy;
+	}
+
+	@Override
+	public int countPrefixes(String prefix) {
+		int node = prefix == null ? -1 : find(prefix.toLowerCase());
+		return node < 0 ? 0 : prefixes[node];
+	}
+
+	@Override
+	public List<ITerm> getSuggestions(String prefix) {
+		List<ITerm> listOfQueries = new ArrayList<ITerm>();
+		int node = prefix == null ? -1 : find(prefix.toLowerCase());
+		if (node >= 0) {
+			getSuggestionsHelper(node, new StringBuilder(prefix.toLowerCase()), listOfQueries);
+		}
+		return listOfQueries;
+	}
+
+	/**
+	 * adds every word below node to listOfQueries, in code point order
+	 */
+	private void getSuggestionsHelper(int node, StringBuilder word, List<ITerm> listOfQueries) {
+		if (weights[node] != NO_WORD) {
+			listOfQueries.add(new Term(word.toString(), weights[node]));
+		}
+		int length = word.length();
+		for (int slot = childStart[node]; slot < childStart[node] + childCount[node]; slot++) {
+			word.appendCodePoint(childLabels[slot]);
+			getSuggestionsHelper(childNodes[slot], word, listOfQueries);
+			word.setLength(length);
+		}
+	}
+
+	@Override
+	public List<ITerm> getTopSuggestions(String prefix, int k) {
+		List<ITerm> listOfQueries = new ArrayList<ITerm>();
+		int start = prefix == null || k < 1 ? -1 : find(prefix.toLowerCase());
+		if (start < 0) {
+			return listOfQueries;
+		}
+		// best first, as in Autocomplete: nodes are queued by the largest weight below
+		// them and words by their own weight. A candidate only points back to its
+		// parent, so words are spelled out just for the k returned
+		PriorityQueue<Candidate> queue = new PriorityQueue<>();
+		queue.add(new Candidate(null, start, -1, 0, maxWeights[start]));
+		while (!queue.isEmpty() && listOfQueries.size() < k) {
+			Candidate next = queue.poll();
+			if (next.node < 0) {
+				listOfQueries.add(new Term(spell(prefix.toLowerCase(), next), next.weight));
+				continue;
+			}
+			int node = next.node;
+			if (weights[node] != NO_WORD) {
+				queue.add(new Candidate(next, -1, -1, 0, weights[node]));
+			}
+			for (int slot = childStart[node]; slot < childStart[node] + childCount[node]; slot++) {
+				queue.add(new Candidate(next, childNodes[slot], childLabels[slot], 0, maxWeights[childNodes[slot]]));
+			}
+		}
+		return listOfQueries;
+	}
+
+	@Override
+	public List<ITerm> getFuzzySuggestions(String prefix, int maxEdits, int k) {
+		List<ITerm> listOfQueries = new ArrayList<ITerm>();
+		if (prefix == null || maxEdits < 0 || k < 1) {
+			return listOfQueries;
+		}
+		int[] target = Levenshtein.codePoints(prefix.toLowerCase());
+
+		// every word below a match starts within its distance of prefix. The matches
+		// point back to the root, so their words can be spelled
+		Map<Integer, Candidate> matches = new HashMap<Integer, Candidate>();
+		int[] row = Levenshtein.start(target.length);
+		int distance = Math.min(row[target.length], maxEdits + 1);
+		fuzzyMatches(new Candidate(null, ROOT, -1, distance, maxWeights[ROOT]), row, target, maxEdits + 1,
+				matches);
+
+		// best first as in Autocomplete, fewest edits before highest weight, skipping
+		// matches below a match as they are queued with their own smaller distance
+		PriorityQueue<Candidate> queue = new PriorityQueue<>(matches.values());
+		while (!queue.isEmpty() && listOfQueries.size() < k) {
+			Candidate next = queue.poll();
+			if (next.node < 0) {
+				listOfQueries.add(new Term(spell("", next), next.weight));
+				continue;
+			}
+			int node = next.node;
+			if (weights[node] != NO_WORD) {
+				queue.add(new Candidate(next, -1, -1, next.distance, weights[node]));
+			}
+			for (int slot = childStart[node]; slot < childStart[node] + childCount[node]; slot++) {
+				if (!matches.containsKey(childNodes[slot])) {
+					queue.add(new Candidate(next, childNodes[slot], childLabels[slot], next.distance,
+							maxWeights[childNodes[slot]]));
+				}
+			}
+		}
+		return listOfQueries;
+	}
+
+	/**
+	 * Walks down from path keeping the Levenshtein row of its code points against
+	 * target, and records each node that is closer to target than bound, the
+	 * distance of the closest match above it. A branch is left as soon as no
+	 * longer path could get closer than bound
+	 */
+	private void fuzzyMatches(Candidate path, int[] row, int[] target, int bound, Map<Integer, Candidate> matches) {
+		if (path.distance < bound) {
+			matches.put(path.node, path);
+			bound = path.distance;
+		}
+		int node = path.node;
+		for (int slot = childStart[node]; slot < childStart[node] + childCount[node]; slot++) {
+			int[] next = Levenshtein.step(row, target, childLabels[slot]);
+			if (Levenshtein.min(next) < bound) {
+				int distance = Math.min(next[target.length], bound);
+				fuzzyMatches(new Candidate(path, childNodes[slot], childLabels[slot], distance,
+						maxWeights[childNodes[slot]]), next, target, bound, matches);
+			}
+		}
+	}
+
+	/**
+	 * @return prefix followed by the code points on the path from the prefix's node
+	 *         down to candidate
+	 */
+	private String spell(String prefix, Candidate candidate) {
+		StringBuilder suffix = new StringBuilder();
+		for (Candidate c = candidate; c != null; c = c.parent) {
+			if (c.codePoint >= 0) {
+				suffix.appendCodePoint(c.codePoint);
+			}
+		}
+		// reversing a StringBuilder keeps surrogate pairs in order
+		return prefix + suffix.reverse();
+	}
+
+	/**
+	 * An entry in the getTopSuggestions queue: a node still to expand, or the word
+	 * of its parent ready to be returned when node is -1. codePoint is the label
+	 * of the arc from the parent, or -1 if there is none. Fewer edits from the
+	 * prefix come first, then higher weights; at equal weight words come before
+	 * nodes
+	 */
+	private static class Candidate implements Comparable<Candidate> {
+		private final Candidate parent;
+		private final int node;
+		private final int codePoint;
+		private final int distance;
+		private final long weight;
+
+		private Candidate(Candidate parent, int node, int codePoint, int distance, long weight) {
+			this.parent = parent;
+			this.node = node;
+			this.codePoint = codePoint;
+			this.distance = distance;
+			this.weight = weight;
+		}
+
+		@Override
+		public int compareTo(Candidate that) {
+			if (this.distance != that.distance) {
+				return Integer.compare(this.distance, that.distance);
+			}
+			if (this.weight != that.weight) {
+				return Long.compare(that.weight, this.weight);
+			}
+			return Boolean.compare(this.node >= 0, that.node >= 0);
+		}
+	}
+
+	/**
+	 * @return the node reached by reading prefix from the root, or -1 if no word
+	 *         starts with prefix
+	 */
+	private int find(String prefix) {
+		int node = ROOT;
+		for (int i = 0; i < prefix.length();) {
+			int codePoint = prefix.codePointAt(i);
+			i += Character.charCount(codePoint);
+			int slot = findChild(node, codePoint);
+			if (slot < 0) {
+				return -1;
+			}
+			node = childNodes[slot];
+		}
+		return node;
+	}
+
+	/**
+	 * @return the slot of node's child for codePoint, or -(insertion slot) - 1 if
+	 *         there is none
+	 */
+	private int findChild(int node, int codePoint) {
+		return Arrays.binarySearch(childLabels, childStart[node], childStart[node] + childCount[node], codePoint);
+	}
+
+	/**
+	 * @return the largest weight of node's own word and its children's maxima
+	 */
+	private long recomputeMaxWeight(int node) {
+		long max = Math.max(0, weights[node]);
+		for (int slot = childStart[node]; slot < childStart[node] + childCount[node]; slot++) {
+			max = Math.max(max, maxWeights[childNodes[slot]]);
+		}
+		return max;
+	}
+
+	/**
+	 * Adds a new child for codePoint at slot, moving node's children to a bigger
+	 * block first if theirs is full
+	 *
+	 * @return the new child
+	 */
+	private int addChild(int node, int codePoint, int slot) {
+		int start = childStart[node];
+		int count = childCount[node];
+		if (Integer.bitCount(count) <= 1) {
+			// counts of 0 and powers of two fill their block
+			int capacity = count == 0 ? 1 : count * 2;
+			int moved = allocateBlock(capacity);
+			System.arraycopy(childLabels, start, childLabels, moved, count);
+			System.arraycopy(childNodes, start, childNodes, moved, count);
+			if (count > 0) {
+				freeBlock(start, count);
+			}
+			slot += moved - start;
+			start = moved;
+			childStart[node] = start;
+		}
+		// shift the later children up one to keep the block sorted
+		System.arraycopy(childLabels, slot, childLabels, slot + 1, start + count - slot);
+		System.arraycopy(childNodes, slot, childNodes, slot + 1, start + count - slot);
+		int child = newNode();
+		childLabels[slot] = codePoint;
+		childNodes[slot] = child;
+		childCount[node] = count + 1;
+		return child;
+	}
+
+	/**
+	 * @return the start of a free block of capacity slots, capacity being a power
+	 *         of two
+	 */
+	private int allocateBlock(int capacity) {
+		int sizeClass = Integer.numberOfTrailingZeros(capacity);
+		int start = freeBlocks[sizeClass];
+		if (start >= 0) {
+			// a freed block keeps the next free block of its size in its first slot
+			freeBlocks[sizeClass] = childNodes[start];
+			return start;
+		}
+		if (poolSize + capacity > childLabels.length) {
+			int length = Math.max(childLabels.length * 2, poolSize + capacity);
+			childLabels = Arrays.copyOf(childLabels, length);
+			childNodes = Arrays.copyOf(childNodes, length);
+		}
+		start = poolSize;
+		poolSize += capacity;
+		return start;
+	}
+
+	private void freeBlock(int start, int capacity) {
+		int sizeClass = Integer.numberOfTrailingZeros(capacity);
+		childNodes[start] = freeBlocks[sizeClass];
+		freeBlocks[sizeClass] = start;
+	}
+
+	/**
+	 * @return index of a new node with no word and no children
+	 */
+	private int newNode() {
+		if (numNodes == weights.length) {
+			int length = weights.length * 2;
+			weights = Arrays.copyOf(weights, length);
+			maxWeights = Arrays.copyOf(maxWeights, length);
+			prefixes = Arrays.copyOf(prefixes, length);
+			childStart = Arrays.copyOf(childStart, length);
+			childCount = Arrays.copyOf(childCount, length);
+		}
+		int node = numNodes++;
+		weights[node] = NO_WORD;
+		return node;
+	}
+}
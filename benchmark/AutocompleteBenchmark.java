@@ -0,0 +1,170 @@
+package benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import autocomplete.Autocomplete;
+import autocomplete.CompactAutocomplete;
+import autocomplete.ITerm;
+import autocomplete.PooledTrie;
+import test.SyntheticCorpus;
+
+/**
+ * Compares the Node trie of Autocomplete with PooledTrie and with
+ * CompactAutocomplete, built in memory and opened from a memory-mapped file, on
+ * a synthetic vocabulary
+ * written in the autocomplete.txt format. Reports the heap each retains, the
+ * latency of top-k lookups for short prefixes, with Autocomplete timed both
+ * without and with its prefix cache, and the latency of fuzzy
+ * lookups for mistyped prefixes within one and two edits.
+ *
+ * Usage: java benchmark.AutocompleteBenchmark [numWords]
+ *
+ * @author clairewalker
+ *
+ */
+public class AutocompleteBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int numWords = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+
+		// Zipfian weights, as word counts would be, shuffled so a word's spelling
+		// says nothing about its weight
+		Random random = new Random(42);
+		int[] ranks = new int[numWords];
+		for (int i = 0; i < numWords; i++) {
+			int j = random.nextInt(i + 1);
+			ranks[i] = ranks[j];
+			ranks[j] = i;
+		}
+		Path file = Files.createTempFile("autocomplete-benchmark", ".txt");
+		try (BufferedWriter bw = Files.newBufferedWriter(file)) {
+			bw.write(String.valueOf(numWords));
+			bw.newLine();
+			for (int i = 0; i < numWords; i++) {
+				bw.write("  " + Math.max(1, 10000000L / (ranks[i] + 1)) + " " + SyntheticCorpus.word(i));
+				bw.newLine();
+			}
+		}
+
+		long before = IndexMemoryBenchmark.usedHeap();
+		Autocomplete trie = new Autocomplete();
+		trie.buildTrie(file.toString(), 10);
+		long trieHeap = IndexMemoryBenchmark.usedHeap() - before;
+
+		before = IndexMemoryBenchmark.usedHeap();
+		PooledTrie pooled = new PooledTrie();
+		pooled.buildTrie(file.toString(), 10);
+		long pooledHeap = IndexMemoryBenchmark.usedHeap() - before;
+
+		before = IndexMemoryBenchmark.usedHeap();
+		CompactAutocomplete compact = new CompactAutocomplete();
+		compact.buildTrie(file.toString(), 10);
+		long compactHeap = IndexMemoryBenchmark.usedHeap() - before;
+
+		Path saved = Files.createTempFile("autocomplete-benchmark", ".fst");
+		compact.write(saved);
+		before = IndexMemoryBenchmark.usedHeap();
+		CompactAutocomplete mapped = CompactAutocomplete.open(saved, 10);
+		long mappedHeap = IndexMemoryBenchmark.usedHeap() - before;
+
+		System.out.printf("%d words, %.1f MB file%n", numWords, compact.byteSize() / 1e6);
+		System.out.printf("%-26s %10.1f MB heap %8.1f bytes/word%n", "Autocomplete", trieHeap / 1e6,
+				(double) trieHeap / numWords);
+		System.out.printf("%-26s %10.1f MB heap %8.1f bytes/word%n", "PooledTrie", pooledHeap / 1e6,
+				(double) pooledHeap / numWords);
+		System.out.printf("%-26s %10.1f MB heap %8.1f bytes/word%n", "CompactAutocomplete", compactHeap / 1e6,
+				(double) compactHeap / numWords);
+		System.out.printf("%-26s %10.1f MB heap %8.1f bytes/word%n", "CompactAutocomplete mapped",
+				mappedHeap / 1e6, (double) mappedHeap / numWords);
+
+		// prefixes of one to three letters of words drawn from the vocabulary
+		List<String> prefixes = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			String word = SyntheticCorpus.word(random.nextInt(numWords));
+			prefixes.add(word.substring(0, Math.min(word.length(), 1 + i % 3)));
+		}
+		System.out.printf("%-26s %10s %10s%n", "top 10", "p50 us", "p99 us");
+		// Autocomplete caches recent prefixes, and answers longer ones from them,
+		// so the trie walk is timed with the cache emptied before each lookup by
+		// setting the same root again, and the cached lookups are timed separately
+		time("Autocomplete", prefixes, () -> trie.setRoot(trie.getRoot()),
+				prefix -> trie.getTopSuggestions(prefix, 10));
+		long hits = trie.getCacheHits();
+		long misses = trie.getCacheMisses();
+		time("Autocomplete cached", prefixes, prefix -> trie.getTopSuggestions(prefix, 10));
+		System.out.printf("%-26s %10.1f%%%n", "  cache hit rate",
+				100.0 * (trie.getCacheHits() - hits) / (trie.getCacheHits() - hits + trie.getCacheMisses() - misses));
+		time("PooledTrie", prefixes, prefix -> pooled.getTopSuggestions(prefix, 10));
+		time("CompactAutocomplete", prefixes, prefix -> compact.getTopSuggestions(prefix, 10));
+		time("CompactAutocomplete mapped", prefixes, prefix -> mapped.getTopSuggestions(prefix, 10));
+
+		// prefixes of three to eight letters with one letter dropped, changed or
+		// doubled, as when typing too fast
+		List<String> typos = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			String word = SyntheticCorpus.word(random.nextInt(numWords));
+			String prefix = word.substring(0, Math.min(word.length(), 3 + i % 6));
+			int at = random.nextInt(prefix.length());
+			if (i % 3 == 0) {
+				typos.add(prefix.substring(0, at) + prefix.substring(at + 1));
+			} else if (i % 3 == 1) {
+				typos.add(prefix.substring(0, at) + (char) ('a' + random.nextInt(26)) + prefix.substring(at + 1));
+			} else {
+				typos.add(prefix.substring(0, at + 1) + prefix.substring(at));
+			}
+		}
+		for (int maxEdits = 1; maxEdits <= 2; maxEdits++) {
+			final int edits = maxEdits;
+			System.out.printf("%-26s %10s %10s%n", "fuzzy top 10, " + edits + (edits == 1 ? " edit" : " edits"),
+					"p50 us", "p99 us");
+			time("Autocomplete", typos, prefix -> trie.getFuzzySuggestions(prefix, edits, 10));
+			time("PooledTrie", typos, prefix -> pooled.getFuzzySuggestions(prefix, edits, 10));
+			time("CompactAutocomplete", typos, prefix -> compact.getFuzzySuggestions(prefix, edits, 10));
+			time("CompactAutocomplete mapped", typos, prefix -> mapped.getFuzzySuggestions(prefix, edits, 10));
+		}
+
+		// keep everything reachable until measured
+		if (trie.getRoot() == null || pooled.numNodes() + compact.numWords() + mapped.numWords() < 0) {
+			System.out.println();
+		}
+		Files.delete(file);
+		Files.delete(saved);
+	}
+
+	private static void time(String name, List<String> prefixes, Function<String, List<ITerm>> lookup) {
+		time(name, prefixes, () -> {
+		}, lookup);
+	}
+
+	/**
+	 * Times each lookup, running beforeEach untimed before every one
+	 */
+	private static void time(String name, List<String> prefixes, Runnable beforeEach,
+			Function<String, List<ITerm>> lookup) {
+		// warm up, then time each lookup
+		for (int round = 0; round < 5; round++) {
+			for (String prefix : prefixes) {
+				beforeEach.run();
+				lookup.apply(prefix);
+			}
+		}
+		long[] nanos = new long[prefixes.size()];
+		for (int i = 0; i < nanos.length; i++) {
+			beforeEach.run();
+			long start = System.nanoTime();
+			lookup.apply(prefixes.get(i));
+			nanos[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(nanos);
+		System.out.printf("%-26s %10.1f %10.1f%n", name, nanos[nanos.length / 2] / 1e3,
+				nanos[nanos.length * 99 / 100] / 1e3);
+	}
+}
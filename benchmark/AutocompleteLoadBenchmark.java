@@ -0,0 +1,66 @@
+package benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import autocomplete.Autocomplete;
+import test.SyntheticCorpus;
+
+/**
+ * Compares Autocomplete.buildTrie with Autocomplete.bulkLoad on a synthetic
+ * autocomplete file with its words in lexicographic order.
+ *
+ * Usage: java benchmark.AutocompleteLoadBenchmark [numLines]
+ *
+ * @author clairewalker
+ *
+ */
+public class AutocompleteLoadBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int numLines = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		String[] words = new String[numLines];
+		for (int i = 0; i < numLines; i++) {
+			words[i] = SyntheticCorpus.word(i);
+		}
+		Arrays.sort(words);
+		Random random = new Random(42);
+		Path file = Files.createTempFile("autocomplete-load-benchmark", ".txt");
+		try (BufferedWriter bw = Files.newBufferedWriter(file)) {
+			bw.write(String.valueOf(numLines));
+			bw.newLine();
+			for (String word : words) {
+				bw.write("  " + (1 + random.nextInt(100000)) + " " + word);
+				bw.newLine();
+			}
+		}
+		System.out.printf("%d lines, %.1f MB%n", numLines, Files.size(file) / 1e6);
+
+		// alternate the two so neither always runs on a warmer JVM, and collect the
+		// previous trie first so neither pays for the other's garbage
+		long[] buildTrie = new long[5];
+		long[] bulkLoad = new long[5];
+		for (int round = 0; round < buildTrie.length; round++) {
+			IndexMemoryBenchmark.usedHeap();
+			long start = System.nanoTime();
+			new Autocomplete().buildTrie(file.toString(), 10);
+			buildTrie[round] = System.nanoTime() - start;
+			IndexMemoryBenchmark.usedHeap();
+			start = System.nanoTime();
+			new Autocomplete().bulkLoad(file.toString(), 10);
+			bulkLoad[round] = System.nanoTime() - start;
+		}
+		Arrays.sort(buildTrie);
+		Arrays.sort(bulkLoad);
+		long slow = buildTrie[buildTrie.length / 2];
+		long fast = bulkLoad[bulkLoad.length / 2];
+		System.out.printf("%-12s %10.0f ms%n", "buildTrie", slow / 1e6);
+		System.out.printf("%-12s %10.0f ms %6.1fx%n", "bulkLoad", fast / 1e6, (double) slow / fast);
+		Files.delete(file);
+	}
+}
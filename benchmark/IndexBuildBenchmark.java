@@ -0,0 +1,103 @@
+package benchmark;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import indexing.IndexBuilder;
+import test.SyntheticCorpus;
+
+/**
+ * Compares the time to build the forward and inverted indexes with the single
+ * pass ForwardIndex used by buildIndex against the word to doc count map path
+ * it replaced.
+ *
+ * Usage: java benchmark.IndexBuildBenchmark [numDocs] [wordsPerDoc]
+ *
+ * @author clairewalker
+ *
+ */
+public class IndexBuildBenchmark {
+
+	public static void main(String[] args) {
+		int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int wordsPerDoc = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+
+		Map<String, List<String>> docs = new SyntheticCorpus(42, 100000, 1.0).documents(numDocs, wordsPerDoc);
+
+		// buildMapOfWordsToDocCountPairs reads the documents last given to the
+		// builder
+		IndexBuilder counter = new IndexBuilder();
+		counter.updateIndex(docs);
+
+		// warm up both paths before measuring
+		for (int round = 0; round < 2; round++) {
+			legacy(counter, docs);
+			fused(docs);
+		}
+
+		long start = System.nanoTime();
+		long postings = legacy(counter, docs);
+		long legacyNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		fused(docs);
+		long fusedNanos = System.nanoTime() - start;
+
+		System.out.printf("%d documents, %d postings%n", numDocs, postings);
+		System.out.printf("%-30s %8d ms%n", "word/doc count map", legacyNanos / 1000000);
+		System.out.printf("%-30s %8d ms%n", "single pass ForwardIndex", fusedNanos / 1000000);
+	}
+
+	private static long fused(Map<String, List<String>> docs) {
+		IndexBuilder builder = new IndexBuilder();
+		return count(builder.buildInvertedIndex(builder.buildIndex(docs)));
+	}
+
+	/**
+	 * The code path buildIndex and buildInvertedIndex used before the
+	 * ForwardIndex
+	 */
+	private static long legacy(IndexBuilder counter, Map<String, List<String>> docs) {
+		HashMap<String, Map<String, Integer>> mapA = counter.buildMapOfWordsToDocCountPairs();
+		int numDocs = docs.size();
+		Map<String, Map<String, Double>> indexMap = new TreeMap<String, Map<String, Double>>();
+		for (Entry<String, List<String>> doc : docs.entrySet()) {
+			Map<String, Double> wordTFIDFPairs = new TreeMap<String, Double>();
+			int numWordsInDoc = doc.getValue().size();
+			for (String word : doc.getValue()) {
+				if (!wordTFIDFPairs.containsKey(word)) {
+					double TF = (double) mapA.get(word).get(doc.getKey()) / numWordsInDoc;
+					double IDF = Math.log((double) numDocs / mapA.get(word).size());
+					wordTFIDFPairs.put(word, TF * IDF);
+				}
+			}
+			indexMap.put(doc.getKey(), wordTFIDFPairs);
+		}
+
+		HashMap<String, TreeSet<Entry<String, Double>>> invertedIndex = new HashMap<>();
+		for (Entry<String, Map<String, Integer>> word : mapA.entrySet()) {
+			for (String docname : word.getValue().keySet()) {
+				double TFIDF = indexMap.get(docname).get(word.getKey());
+				invertedIndex.computeIfAbsent(word.getKey(), w -> new TreeSet<Entry<String, Double>>((o1, o2) -> {
+					if (o1.getValue().equals(o2.getValue())) {
+						return o1.getKey().compareTo(o2.getKey());
+					}
+					return o2.getValue().compareTo(o1.getValue());
+				})).add(new AbstractMap.SimpleEntry<>(docname, TFIDF));
+			}
+		}
+		return count(invertedIndex);
+	}
+
+	private static long count(Map<?, ?> invertedIndex) {
+		long postings = 0;
+		for (Object set : invertedIndex.values()) {
+			postings += ((java.util.Set<?>) set).size();
+		}
+		return postings;
+	}
+}
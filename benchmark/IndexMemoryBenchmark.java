@@ -0,0 +1,66 @@
+package benchmark;
+
+import java.util.List;
+import java.util.Map;
+
+import indexing.IncrementalIndex;
+import indexing.IndexBuilder;
+import test.SyntheticCorpus;
+
+/**
+ * Compares the heap retained by the String keyed maps of buildIndex and
+ * buildInvertedIndex with the id based IncrementalIndex, on the same synthetic
+ * corpus.
+ *
+ * Usage: java benchmark.IndexMemoryBenchmark [numDocs] [wordsPerDoc]
+ *
+ * @author clairewalker
+ *
+ */
+public class IndexMemoryBenchmark {
+
+	public static void main(String[] args) {
+		int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int wordsPerDoc = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+
+		Map<String, List<String>> docs = new SyntheticCorpus(42, 100000, 1.0).documents(numDocs, wordsPerDoc);
+
+		long before = usedHeap();
+		IndexBuilder builder = new IndexBuilder();
+		builder.updateIndex(docs);
+		long incremental = usedHeap() - before;
+		long postings = 0;
+		for (Object set : builder.getIncrementalIndex().invertedIndex().values()) {
+			postings += ((java.util.Set<?>) set).size();
+		}
+
+		before = usedHeap();
+		IndexBuilder legacy = new IndexBuilder();
+		legacy.updateIndex(docs);
+		Map<String, Map<String, Double>> index = legacy.buildIndex(docs);
+		Map<?, ?> invertedIndex = legacy.buildInvertedIndex(index);
+		long maps = usedHeap() - before - incremental;
+
+		System.out.printf("%d documents, %d postings%n", numDocs, postings);
+		System.out.printf("%-34s %10.1f MB %8.1f bytes/posting%n", "buildIndex + buildInvertedIndex",
+				maps / 1e6, (double) maps / postings);
+		System.out.printf("%-34s %10.1f MB %8.1f bytes/posting%n", "IncrementalIndex", incremental / 1e6,
+				(double) incremental / postings);
+
+		// keep everything reachable until measured
+		if (index.size() + invertedIndex.size() + builder.getIncrementalIndex().numTerms() < 0) {
+			System.out.println();
+		}
+	}
+
+	/**
+	 * @return bytes of heap in use after a full collection
+	 */
+	static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
@@ -0,0 +1,70 @@
+package benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import indexing.ConcurrentFetcher;
+import indexing.IndexBuilder;
+import test.LocalFeedServer;
+
+/**
+ * Measures end-to-end ingest against a LocalFeedServer: parseFeed fetching
+ * every feed and article over HTTP, then buildIndex and buildInvertedIndex.
+ * Reports articles and megabytes per second for the fetch and for the whole
+ * run, with the given latency and bandwidth on every host.
+ *
+ * Usage: java benchmark.IngestBenchmark [numFeeds] [articlesPerFeed] [numHosts]
+ * [latencyMillis] [kilobytesPerSecondPerHost] [maxInFlight] [maxPerHost]
+ *
+ * @author clairewalker
+ *
+ */
+public class IngestBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int numFeeds = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int articlesPerFeed = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		int numHosts = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		long latency = args.length > 3 ? Long.parseLong(args[3]) : 20;
+		long kilobytesPerSecond = args.length > 4 ? Long.parseLong(args[4]) : 0;
+		int maxInFlight = args.length > 5 ? Integer.parseInt(args[5]) : 64;
+		int maxPerHost = args.length > 6 ? Integer.parseInt(args[6]) : 8;
+
+		LocalFeedServer server = new LocalFeedServer(42, numFeeds, articlesPerFeed, 500);
+		server.setHosts(numHosts);
+		server.setLatency(latency);
+		server.setBandwidth(kilobytesPerSecond * 1000);
+		server.start();
+		try {
+			System.out.printf("%d feeds, %d articles, %d hosts, %d ms latency, %s per host%n", numFeeds,
+					server.getNumArticles(), numHosts, latency,
+					kilobytesPerSecond == 0 ? "unlimited" : kilobytesPerSecond + " kB/s");
+
+			IndexBuilder builder = new IndexBuilder();
+			builder.setConcurrentFetcher(new ConcurrentFetcher(maxInFlight, maxPerHost, TimeUnit.HOURS.toMillis(1)));
+			long start = System.nanoTime();
+			Map<String, List<String>> docs = builder.parseFeed(server.getFeedUrls());
+			long fetched = System.nanoTime();
+			Map<?, ?> invertedIndex = builder.buildInvertedIndex(builder.buildIndex(docs));
+			long indexed = System.nanoTime();
+
+			long words = 0;
+			for (List<String> w : docs.values()) {
+				words += w.size();
+			}
+			System.out.printf("%d articles, %d words, %d terms, %d requests, %.1f MB%n", docs.size(), words,
+					invertedIndex.size(), server.getRequests(), server.getBytesSent() / 1e6);
+			report("fetch", docs.size(), server.getBytesSent(), fetched - start);
+			report("fetch + index", docs.size(), server.getBytesSent(), indexed - start);
+		} finally {
+			server.stop();
+		}
+	}
+
+	private static void report(String name, int articles, long bytes, long nanos) {
+		System.out.printf("%-14s %8d ms %10.0f articles/s %8.2f MB/s%n", name, nanos / 1000000,
+				articles * 1e9 / nanos, bytes * 1e3 / nanos);
+	}
+}
@@ -0,0 +1,63 @@
+package benchmark;
+
+import java.util.List;
+import java.util.Map;
+
+import indexing.IndexBuilder;
+import test.SyntheticCorpus;
+
+/**
+ * Reports buildIndex + buildInvertedIndex throughput for 1, 2, 4 ... threads
+ * up to the number of available cores.
+ *
+ * Usage: java benchmark.ParallelIndexBenchmark [numDocs] [wordsPerDoc]
+ *
+ * @author clairewalker
+ *
+ */
+public class ParallelIndexBenchmark {
+
+	public static void main(String[] args) {
+		int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int wordsPerDoc = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+		int cores = Runtime.getRuntime().availableProcessors();
+
+		Map<String, List<String>> docs = new SyntheticCorpus(42, 100000, 1.0).documents(numDocs, wordsPerDoc);
+		long words = (long) numDocs * wordsPerDoc;
+		System.out.printf("%d documents, %d words, %d cores%n", numDocs, words, cores);
+
+		double single = 0;
+		for (int threads = 1;; threads = Math.min(threads * 2, cores)) {
+			IndexBuilder builder = new IndexBuilder();
+			builder.setParallelism(threads);
+			// warm up, then take the best of three
+			build(builder, docs);
+			long best = Long.MAX_VALUE;
+			for (int round = 0; round < 3; round++) {
+				best = Math.min(best, build(builder, docs));
+			}
+			double docsPerSecond = numDocs * 1e9 / best;
+			if (threads == 1) {
+				single = docsPerSecond;
+			}
+			System.out.printf("%3d threads %8d ms %10.0f docs/s %6.2fx%n", threads, best / 1000000, docsPerSecond,
+					docsPerSecond / single);
+			if (threads == cores) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return nanoseconds taken to build both indexes
+	 */
+	private static long build(IndexBuilder builder, Map<String, List<String>> docs) {
+		long start = System.nanoTime();
+		Map<?, ?> invertedIndex = builder.buildInvertedIndex(builder.buildIndex(docs));
+		long nanos = System.nanoTime() - start;
+		if (invertedIndex.isEmpty() && !docs.isEmpty()) {
+			throw new IllegalStateException();
+		}
+		return nanos;
+	}
+}
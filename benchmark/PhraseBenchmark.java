@@ -0,0 +1,82 @@
+package benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import indexing.ForwardIndex;
+import indexing.IndexSegment;
+import indexing.PositionalIndex;
+import indexing.QueryEngine;
+import test.SyntheticCorpus;
+
+/**
+ * Reports how much a PositionalIndex adds to the size of the TFIDF postings,
+ * and the latency of phrase queries against it, on a synthetic corpus.
+ *
+ * Usage: java benchmark.PhraseBenchmark [numDocs] [wordsPerDoc]
+ *
+ * @author clairewalker
+ *
+ */
+public class PhraseBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+		int wordsPerDoc = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+
+		Map<String, List<String>> docs = new SyntheticCorpus(42, 100000, 1.0).documents(numDocs, wordsPerDoc);
+		Path file = Files.createTempFile("phrase-benchmark", ".seg");
+		IndexSegment.write(file, ForwardIndex.build(docs));
+		IndexSegment segment = IndexSegment.open(file);
+		long start = System.nanoTime();
+		PositionalIndex positions = PositionalIndex.build(docs);
+		long buildMillis = (System.nanoTime() - start) / 1000000;
+		QueryEngine engine = new QueryEngine(segment.getInvertedIndex(), positions);
+
+		long tfidf = segment.getInvertedIndex().postingsBytes();
+		long positional = positions.postingsBytes();
+		long words = 0;
+		for (List<String> d : docs.values()) {
+			words += d.size();
+		}
+		System.out.printf("%d documents, %d words%n", numDocs, words);
+		System.out.printf("%-22s %10.1f MB%n", "TFIDF postings", tfidf / 1e6);
+		System.out.printf("%-22s %10.1f MB %6.2f bytes/word %5.1fx TFIDF postings (built in %d ms)%n",
+				"positional postings", positional / 1e6, (double) positional / words, (double) positional / tfidf,
+				buildMillis);
+
+		// phrases taken from the documents, so each is found at least once
+		List<String> phrases = new ArrayList<>();
+		List<String> first = docs.get(SyntheticCorpus.url(0));
+		for (int len = 2; len <= 4; len++) {
+			phrases.add(String.join(" ", first.subList(0, len)));
+		}
+		phrases.add(SyntheticCorpus.word(0) + " " + SyntheticCorpus.word(1));
+		phrases.add(SyntheticCorpus.word(5) + " " + SyntheticCorpus.word(50));
+		phrases.add(SyntheticCorpus.word(100) + " " + SyntheticCorpus.word(200));
+
+		System.out.printf("%-40s %8s %8s %10s %10s%n", "phrase", "AND", "phrase", "p50 us", "p99 us");
+		for (String phrase : phrases) {
+			String query = "\"" + phrase + "\"";
+			// warm up, then time each run of the first page
+			for (int i = 0; i < 100; i++) {
+				engine.search(query, 0, 10);
+			}
+			long[] nanos = new long[300];
+			for (int i = 0; i < nanos.length; i++) {
+				long t = System.nanoTime();
+				engine.search(query, 0, 10);
+				nanos[i] = System.nanoTime() - t;
+			}
+			Arrays.sort(nanos);
+			System.out.printf("%-40s %8d %8d %10.0f %10.0f%n", query, engine.count(phrase), engine.count(query),
+					nanos[nanos.length / 2] / 1e3, nanos[nanos.length * 99 / 100] / 1e3);
+		}
+		Files.delete(file);
+	}
+}
@@ -0,0 +1,50 @@
+package benchmark;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import indexing.CompressedInvertedIndex;
+import indexing.IndexBuilder;
+import test.SyntheticCorpus;
+
+/**
+ * Reports the memory per posting of the TreeSet postings built by
+ * buildInvertedIndex and of the same index compressed into PostingsLists.
+ *
+ * Usage: java benchmark.PostingsBenchmark [numDocs] [wordsPerDoc]
+ *
+ * @author clairewalker
+ *
+ */
+public class PostingsBenchmark {
+
+	public static void main(String[] args) {
+		int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int wordsPerDoc = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+
+		Map<String, List<String>> docs = new SyntheticCorpus(42, 100000, 1.0).documents(numDocs, wordsPerDoc);
+		IndexBuilder builder = new IndexBuilder();
+		builder.updateIndex(docs);
+		Map<String, Map<String, Double>> index = builder.buildIndex(docs);
+
+		long before = IndexMemoryBenchmark.usedHeap();
+		Map<?, ?> invertedIndex = builder.buildInvertedIndex(index);
+		long treeSets = IndexMemoryBenchmark.usedHeap() - before;
+
+		long postings = 0;
+		for (Object set : invertedIndex.values()) {
+			postings += ((Set<?>) set).size();
+		}
+
+		long start = System.nanoTime();
+		CompressedInvertedIndex compressed = CompressedInvertedIndex.build(invertedIndex);
+		long buildMillis = (System.nanoTime() - start) / 1000000;
+
+		System.out.printf("%d documents, %d terms, %d postings%n", numDocs, invertedIndex.size(), postings);
+		System.out.printf("%-28s %10.1f MB %8.2f bytes/posting%n", "TreeSet<Entry> postings", treeSets / 1e6,
+				(double) treeSets / postings);
+		System.out.printf("%-28s %10.1f MB %8.2f bytes/posting (built in %d ms)%n", "PostingsList postings",
+				compressed.postingsBytes() / 1e6, (double) compressed.postingsBytes() / postings, buildMillis);
+	}
+}
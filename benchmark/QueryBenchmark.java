@@ -0,0 +1,66 @@
+package benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import indexing.ForwardIndex;
+import indexing.IndexSegment;
+import indexing.QueryEngine;
+import test.SyntheticCorpus;
+
+/**
+ * Reports QueryEngine latency for AND, OR and NOT queries over words of
+ * different frequencies, on a memory-mapped segment of a synthetic corpus.
+ *
+ * Usage: java benchmark.QueryBenchmark [numDocs] [wordsPerDoc]
+ *
+ * @author clairewalker
+ *
+ */
+public class QueryBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int wordsPerDoc = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+		Map<String, List<String>> docs = new SyntheticCorpus(42, 100000, 1.0).documents(numDocs, wordsPerDoc);
+		Path file = Files.createTempFile("query-benchmark", ".seg");
+		IndexSegment.write(file, ForwardIndex.build(docs));
+		docs = null;
+		IndexSegment segment = IndexSegment.open(file);
+		QueryEngine engine = new QueryEngine(segment.getInvertedIndex());
+		System.out.printf("%d documents, %d terms, %.1f MB of postings%n", numDocs, segment.numTerms(),
+				segment.getInvertedIndex().postingsBytes() / 1e6);
+
+		// words by frequency rank: 10 is in most documents, 5000 in a few
+		String[] queries = { w(10), w(10) + " " + w(100), w(100) + " " + w(1000), w(10) + " " + w(50) + " " + w(200),
+				w(1000) + " " + w(5000), w(100) + " OR " + w(1000), w(10) + " OR " + w(20),
+				w(10) + " " + w(100) + " -" + w(20), w(50) + " " + w(500) + " OR " + w(200) + " " + w(2000) };
+
+		System.out.printf("%-40s %8s %10s %10s%n", "query", "hits", "p50 us", "p99 us");
+		for (String query : queries) {
+			// warm up, then time each run of the first page
+			for (int i = 0; i < 200; i++) {
+				engine.search(query, 0, 10);
+			}
+			long[] nanos = new long[500];
+			for (int i = 0; i < nanos.length; i++) {
+				long start = System.nanoTime();
+				engine.search(query, 0, 10);
+				nanos[i] = System.nanoTime() - start;
+			}
+			Arrays.sort(nanos);
+			System.out.printf("%-40s %8d %10.0f %10.0f%n", query, engine.count(query),
+					nanos[nanos.length / 2] / 1e3, nanos[nanos.length * 99 / 100] / 1e3);
+		}
+		Files.delete(file);
+	}
+
+	private static String w(int rank) {
+		return SyntheticCorpus.word(rank);
+	}
+}
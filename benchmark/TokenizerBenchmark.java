@@ -0,0 +1,98 @@
+package benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import indexing.Tokenizer;
+import test.SyntheticCorpus;
+
+/**
+ * Compares the Tokenizer with the replaceAll/toLowerCase/split code path it
+ * replaced in parseIndividualHTMLContent. Reports words per second and bytes
+ * allocated per document for each.
+ *
+ * Usage: java benchmark.TokenizerBenchmark [numDocs] [wordsPerDoc]
+ *
+ * @author clairewalker
+ *
+ */
+public class TokenizerBenchmark {
+
+	public static void main(String[] args) {
+		int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int wordsPerDoc = args.length > 1 ? Integer.parseInt(args[1]) : 800;
+
+		SyntheticCorpus corpus = new SyntheticCorpus(42, 50000, 1.0);
+		List<String> bodies = new ArrayList<>(numDocs);
+		for (int i = 0; i < numDocs; i++) {
+			bodies.add(corpus.article(wordsPerDoc));
+		}
+
+		Tokenizer tokenizer = new Tokenizer();
+		long[] sink = new long[1];
+		Tokenizer.TokenSink counter = (chars, len) -> sink[0] += len;
+
+		// warm up both paths before measuring
+		for (int round = 0; round < 3; round++) {
+			for (String body : bodies) {
+				legacy(body);
+				tokenizer.tokenize(body, counter);
+				tokenizer.tokenize(body);
+			}
+		}
+
+		report("replaceAll/toLowerCase/split", bodies, () -> {
+			long n = 0;
+			for (String body : bodies) {
+				n += legacy(body).size();
+			}
+			return n;
+		});
+		report("Tokenizer to List<String>", bodies, () -> {
+			long n = 0;
+			for (String body : bodies) {
+				n += tokenizer.tokenize(body).size();
+			}
+			return n;
+		});
+		report("Tokenizer to reusable sink", bodies, () -> {
+			long n = 0;
+			for (String body : bodies) {
+				n += tokenizer.tokenize(body, counter);
+			}
+			return n;
+		});
+	}
+
+	/**
+	 * The code path parseIndividualHTMLContent used before the Tokenizer
+	 */
+	private static List<String> legacy(String body) {
+		String bodyNoPunctuationLowercase = body.replaceAll("\\p{Punct}", "").toLowerCase();
+		return Arrays.asList(bodyNoPunctuationLowercase.split(" "));
+	}
+
+	private interface Run {
+		long run();
+	}
+
+	private static void report(String name, List<String> bodies, Run run) {
+		long bytesBefore = allocatedBytes();
+		long start = System.nanoTime();
+		long tokens = run.run();
+		long nanos = System.nanoTime() - start;
+		long bytes = allocatedBytes() - bytesBefore;
+		System.out.printf("%-30s %12.0f tokens/s %12d bytes/doc%n", name, tokens * 1e9 / nanos,
+				bytes / bodies.size());
+	}
+
+	/**
+	 * @return bytes allocated so far by the current thread
+	 */
+	static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
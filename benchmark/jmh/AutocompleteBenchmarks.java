@@ -0,0 +1,131 @@
+package benchmark.jmh;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import autocomplete.Autocomplete;
+import autocomplete.ITerm;
+import autocomplete.Node;
+import test.SyntheticCorpus;
+
+/**
+ * JMH benchmarks of loading an autocomplete file with buildTrie and bulkLoad,
+ * and of getSuggestions and getTopSuggestions on the loaded trie, for
+ * vocabularies of several sizes with Zipfian weights.
+ *
+ * Usage: gradle jmh -PjmhIncludes=AutocompleteBenchmarks
+ *
+ * @author clairewalker
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AutocompleteBenchmarks {
+	private static final int NUM_PREFIXES = 256;
+
+	@Param({ "10000", "100000", "500000" })
+	public int numWords;
+
+	private Path file;
+	private Autocomplete trie;
+	private String[] prefixes;
+	private int nextPrefix;
+
+	/**
+	 * Writes the vocabulary in the autocomplete.txt format, sorted as
+	 * createAutocompleteFile writes it, and loads it once for the lookups
+	 */
+	@Setup
+	public void setUp() throws IOException {
+		// Zipfian weights shuffled over the words, so a word's spelling says nothing
+		// about its weight
+		Random random = new Random(42);
+		int[] ranks = new int[numWords];
+		for (int i = 0; i < numWords; i++) {
+			int j = random.nextInt(i + 1);
+			ranks[i] = ranks[j];
+			ranks[j] = i;
+		}
+		String[] words = new String[numWords];
+		for (int i = 0; i < numWords; i++) {
+			words[i] = SyntheticCorpus.word(i);
+		}
+		String[] sorted = words.clone();
+		Arrays.sort(sorted);
+		Map<String, Integer> rankOf = new HashMap<>();
+		for (int i = 0; i < numWords; i++) {
+			rankOf.put(words[i], ranks[i]);
+		}
+		file = Files.createTempFile("autocomplete-jmh", ".txt");
+		try (BufferedWriter bw = Files.newBufferedWriter(file)) {
+			bw.write(String.valueOf(numWords));
+			bw.newLine();
+			for (String word : sorted) {
+				bw.write("  " + Math.max(1, 10000000L / (rankOf.get(word) + 1)) + " " + word);
+				bw.newLine();
+			}
+		}
+		trie = new Autocomplete();
+		trie.bulkLoad(file.toString(), 10);
+
+		// prefixes of three letters, as after a few keystrokes
+		prefixes = new String[NUM_PREFIXES];
+		for (int i = 0; i < NUM_PREFIXES; i++) {
+			String word = words[random.nextInt(numWords)];
+			prefixes[i] = word.substring(0, Math.min(word.length(), 3));
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.delete(file);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Node buildTrie() {
+		return new Autocomplete().buildTrie(file.toString(), 10);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Node bulkLoad() {
+		return new Autocomplete().bulkLoad(file.toString(), 10);
+	}
+
+	@Benchmark
+	public List<ITerm> getSuggestions() {
+		return trie.getSuggestions(prefixes[nextPrefix++ % NUM_PREFIXES]);
+	}
+
+	@Benchmark
+	public List<ITerm> getTopSuggestions() {
+		// cycling through more prefixes than the cache holds measures the trie walk
+		return trie.getTopSuggestions(prefixes[nextPrefix++ % NUM_PREFIXES], 10);
+	}
+}
@@ -0,0 +1,95 @@
+package benchmark.jmh;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import indexing.IndexBuilder;
+import test.SyntheticCorpus;
+
+/**
+ * JMH benchmarks of the IndexBuilder stages after the feeds are fetched:
+ * buildIndex, buildInvertedIndex, buildHomePage and searchArticles, on a
+ * synthetic corpus at each SyntheticCorpus.Scale.
+ *
+ * Usage: gradle jmh -PjmhIncludes=IndexingBenchmarks
+ *
+ * @author clairewalker
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class IndexingBenchmarks {
+	private static final int WORDS_PER_DOC = 300;
+	private static final int NUM_QUERIES = 256;
+
+	@Param
+	public SyntheticCorpus.Scale scale;
+
+	private Map<String, List<String>> docs;
+	private IndexBuilder builder;
+	private Map<String, Map<String, Double>> index;
+	private Map<?, ?> invertedIndex;
+	private String[] queries;
+	private int nextQuery;
+
+	/**
+	 * Generates the corpus and builds the index once, in the order the GUI does,
+	 * so each stage can be measured on the output of the one before
+	 */
+	@Setup
+	public void setUp() {
+		SyntheticCorpus corpus = scale.corpus(42);
+		docs = corpus.documents(scale.numDocs(), WORDS_PER_DOC);
+		builder = new IndexBuilder();
+		index = builder.buildIndex(docs);
+		invertedIndex = builder.buildInvertedIndex(index);
+		// queries follow the word frequencies, so frequent words with long postings
+		// are searched most often
+		queries = new String[NUM_QUERIES];
+		for (int i = 0; i < NUM_QUERIES; i++) {
+			queries[i] = corpus.nextWord();
+		}
+	}
+
+	@Benchmark
+	public Map<String, Map<String, Double>> buildIndex() {
+		return new IndexBuilder().buildIndex(docs);
+	}
+
+	@Benchmark
+	public Map<?, ?> buildInvertedIndex() {
+		// inverting the index the same builder just built, as the GUI does
+		return builder.buildInvertedIndex(index);
+	}
+
+	@Benchmark
+	public Collection<Entry<String, List<String>>> buildHomePage() {
+		return builder.buildHomePage(invertedIndex);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public List<String> searchArticles() {
+		String query = queries[nextQuery++ % NUM_QUERIES];
+		return builder.searchArticles(query, invertedIndex);
+	}
+}
@@ -0,0 +1,76 @@
+package benchmark.jmh;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.Jsoup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import indexing.Tokenizer;
+import test.SyntheticCorpus;
+
+/**
+ * JMH benchmarks of what parseIndividualHTMLContent does with a page once it is
+ * fetched: parse the HTML, take the body text, and split it into lowercase
+ * words. Parsing and tokenizing are also measured on their own, to tell which
+ * one a regression is in.
+ *
+ * Usage: gradle jmh -PjmhIncludes=TokenizingBenchmarks
+ *
+ * @author clairewalker
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TokenizingBenchmarks {
+	private static final int NUM_PAGES = 64;
+
+	@Param({ "200", "800", "3200" })
+	public int wordsPerPage;
+
+	private String[] pages;
+	private String[] bodies;
+	private final Tokenizer tokenizer = new Tokenizer();
+	private int nextPage;
+
+	@Setup
+	public void setUp() {
+		SyntheticCorpus corpus = SyntheticCorpus.Scale.MEDIUM.corpus(42);
+		pages = new String[NUM_PAGES];
+		bodies = new String[NUM_PAGES];
+		for (int i = 0; i < NUM_PAGES; i++) {
+			pages[i] = corpus.page(wordsPerPage);
+			bodies[i] = Jsoup.parse(pages[i]).body().text();
+		}
+	}
+
+	@Benchmark
+	public List<String> parseAndTokenize() {
+		String page = pages[nextPage++ % NUM_PAGES];
+		return new Tokenizer().tokenize(Jsoup.parse(page).body().text());
+	}
+
+	@Benchmark
+	public String parse() {
+		return Jsoup.parse(pages[nextPage++ % NUM_PAGES]).body().text();
+	}
+
+	@Benchmark
+	public List<String> tokenize() {
+		return tokenizer.tokenize(bodies[nextPage++ % NUM_PAGES]);
+	}
+}
@@ -10,9 +10,13 @@ import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.BorderFactory;
@@ -24,6 +28,8 @@ import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.KeyStroke;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.event.MouseInputAdapter;
@@ -38,9 +44,56 @@ private static final long serialVersionUID = 1L;
 private final JTextField  searchText;                            // the
                                                                  // search
                                                                  // bar
-private Autocomplete              auto;                                  // the
+private final AtomicReference<IAutocomplete> auto =
+    new AtomicReference<IAutocomplete>();                        // the
                                                                  // Autocomplete
-                                                                 // object
+                                                                 // object,
+                                                                 // swapped
+                                                                 // whole
+                                                                 // by
+                                                                 // reload
+private final ExecutorService reloader =
+    Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "autocomplete-reload");
+        t.setDaemon(true);
+        return t;
+    });                                                          // builds
+                                                                 // new
+                                                                 // tries
+                                                                 // one
+                                                                 // at
+                                                                 // a
+                                                                 // time
+private final ExecutorService lookups =
+    Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "autocomplete-lookup");
+        t.setDaemon(true);
+        return t;
+    });                                                          // runs
+                                                                 // suggestion
+                                                                 // lookups
+                                                                 // off
+                                                                 // the
+                                                                 // event
+                                                                 // thread
+private final AtomicLong  latest           = new AtomicLong();    // bumped
+                                                                 // for
+                                                                 // each
+                                                                 // new
+                                                                 // text;
+                                                                 // older
+                                                                 // lookups
+                                                                 // are
+                                                                 // dropped
+private Timer             debounce;                              // waits
+                                                                 // for
+                                                                 // typing
+                                                                 // to
+                                                                 // pause
+private Future<?>         pending;                               // the
+                                                                 // last
+                                                                 // lookup
+                                                                 // submitted
 private String[]          results          = new String[10];      // an
                                                                  // array
                                                                  // of
@@ -95,6 +148,9 @@ private int               extraMargin      = 5;                  // extra
 // number of columns in the search text that is kept
 private final int         DEF_COLUMNS      = 45;
 
+// how long typing must pause before suggestions are looked up
+private static final int  DEBOUNCE_MILLIS  = 75;
+
 // an example of one of the longest strings in the database
 private final String      suggListLen      =
     "<b>Harry Potter and the Deathly Hallows: Part 1 (2010)</b>";
@@ -114,8 +170,7 @@ public AutocompletePanel(String filename)
     
 
 
-    auto = new Autocomplete();
-    auto.buildTrie(filename, 6);
+    auto.set(load(filename));
 
 
     GroupLayout layout = new GroupLayout(this);
@@ -123,6 +178,12 @@ public AutocompletePanel(String filename)
 
     // create the search text, and allow the user to interact with it
     searchText = new JTextField(DEF_COLUMNS);
+
+    // look suggestions up once the text has stopped changing for a moment
+    debounce = new Timer(DEBOUNCE_MILLIS,
+        e -> lookUp(searchText.getText().trim()));
+    debounce.setRepeats(false);
+
     searchText.setMaximumSize(
         new Dimension(
             searchText.getMaximumSize().width,
@@ -401,9 +462,8 @@ public AutocompletePanel(String filename)
             {
                 String text = searchText.getText().trim();
 
-                // updates the drop-down menu
-                getSuggestions(text);
-                updateListSize();
+                // updates the drop-down menu once typing pauses
+                requestSuggestions(text);
             }
         });
 
@@ -468,6 +528,44 @@ private void updateListSize()
 }
 
 
+
+/**
+ * Builds a new trie from filename on a background thread and then swaps
+ * it in with a single write, so suggestions keep coming from the old trie
+ * until the new one is complete. Reloads run one at a time, in the order
+ * they were asked for.
+ *
+ * @param filename
+ *            the file the new Autocomplete object is constructed from
+ * @return completes once the new trie is in use
+ */
+public CompletableFuture<Void> reload(String filename)
+{
+    return CompletableFuture.runAsync(() -> {
+        auto.set(load(filename));
+        // show the new vocabulary for whatever is typed now
+        SwingUtilities.invokeLater(() -> {
+            if (searchText.getText().trim().length() > 0)
+            {
+                requestSuggestions(searchText.getText().trim());
+            }
+        });
+    }, reloader);
+}
+
+
+/**
+ * @param filename
+ * @return a new Autocomplete object built from filename
+ */
+private static IAutocomplete load(String filename)
+{
+    Autocomplete trie = new Autocomplete();
+    trie.bulkLoad(filename, 10);
+    return trie;
+}
+
+
 // see getSuggestions for documentation
 public void update()
 {
@@ -483,6 +581,111 @@ public void update()
  *            string to search for
  */
 public void getSuggestions(String text)
+{
+    // anything still being looked up is for older text
+    latest.incrementAndGet();
+    showSuggestions(text, text.equals("") ? null : topSuggestions(text.trim()));
+}
+
+
+/**
+ * Looks up suggestions for text once typing pauses. Keystrokes within
+ * DEBOUNCE_MILLIS of each other are coalesced into one lookup, which runs
+ * on a background thread; its result is shown only if no newer text has
+ * arrived in the meantime.
+ *
+ * @param text
+ *            string to search for
+ */
+private void requestSuggestions(String text)
+{
+    latest.incrementAndGet();
+    if (text.equals(""))
+    {
+        // nothing to look up, so clear the drop-down straight away
+        debounce.stop();
+        showSuggestions(text, null);
+        updateListSize();
+        return;
+    }
+    debounce.restart();
+}
+
+
+/**
+ * Submits a background lookup for text, tagged with the current
+ * generation. The lookup is skipped if it is already out of date when it
+ * starts, and its result is dropped if it is out of date when it finishes.
+ *
+ * @param text
+ *            string to search for
+ */
+private void lookUp(String text)
+{
+    final long generation = latest.get();
+    if (pending != null)
+    {
+        pending.cancel(false);
+    }
+    pending = lookups.submit(() -> {
+        if (generation != latest.get())
+        {
+            return;
+        }
+        try
+        {
+            List<ITerm> matches = topSuggestions(text);
+            SwingUtilities.invokeLater(() -> {
+                if (generation == latest.get())
+                {
+                    showSuggestions(text, matches);
+                    updateListSize();
+                }
+            });
+        }
+        catch (RuntimeException e)
+        {
+            e.printStackTrace();
+        }
+    });
+}
+
+
+/**
+ * @param text
+ *            string to search for
+ * @return the best suggestions for text, highest weight first, or if
+ *         no word starts with text the closest words to a misspelling
+ */
+private List<ITerm> topSuggestions(String text)
+{
+    // only the best few are shown, so ask the trie for just those,
+    // already in reverse weight order. Read the engine once so a
+    // reload during this call can't mix two vocabularies
+    IAutocomplete engine = auto.get();
+    int k = engine.numberSuggestions();
+    List<ITerm> matches = engine.getTopSuggestions(text, k);
+    if (matches.isEmpty())
+    {
+        // text may be misspelt: allow one edit in short words and two
+        // in longer ones
+        matches = engine.getFuzzySuggestions(text,
+            text.length() < 5 ? 1 : 2, k);
+    }
+    return matches;
+}
+
+
+/**
+ * Fills the drop-down menu with matches, which must be on the event
+ * thread
+ *
+ * @param text
+ *            the text the matches are for
+ * @param matches
+ *            suggestions for text, or null if text is empty
+ */
+private void showSuggestions(String text, List<ITerm> matches)
 {
 
     // don't search for suggestions if there is no input
@@ -498,13 +701,6 @@ public void getSuggestions(String text)
         text = text.trim();
 
         int textLen = text.length();
-        // clear the previous match
-        List<ITerm>matches = new ArrayList<ITerm>();
-        matches = auto.getSuggestions(text);
-        
-
-         Collections
-         .sort(matches, ITerm.byReverseWeightOrder());
 
 
          Term[] allResults = matches.toArray(new Term[matches.size()]);
@@ -514,8 +710,8 @@ public void getSuggestions(String text)
             throw new NullPointerException("allMatches() is null");
         }
 
-        results = new String[Math.min(10, allResults.length)];
-        if (Math.min(10, allResults.length) > 0)
+        results = new String[allResults.length];
+        if (allResults.length > 0)
         {
             for (int i = 0; i < results.length; i++)
             {
@@ -545,12 +741,18 @@ public void getSuggestions(String text)
                 if (query.length() > suggListLen.length())
                     query = query.substring(0, suggListLen.length());
 
+                // the typed text is plain and the rest bold. A fuzzy
+                // match doesn't start with the typed text, so it is all
+                // bold
+                int typed = query.startsWith(text.toLowerCase())
+                    ? textLen : 0;
+
                 // create the table HTML
                 results[i] = "<html><table width=\""
                     + searchText.getPreferredSize().width + "\">"
                     + "<tr><td align=left>"
-                    + query.substring(0, textLen) + "<b>"
-                    + query.substring(textLen) + "</b>";
+                    + query.substring(0, typed) + "<b>"
+                    + query.substring(typed) + "</b>";
                 
                 results[i] += "</table></html>";
             }
@@ -8,10 +8,14 @@ import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -20,6 +24,8 @@ import java.util.Map;
 import java.util.NavigableMap;
 import java.util.NavigableSet;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import javax.management.JMException;
 import javax.swing.DefaultListModel;
 import javax.swing.JButton;
 import javax.swing.JComboBox;
@@ -27,8 +33,14 @@ import javax.swing.JFrame;
 import javax.swing.JList;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
-import indexing.IIndexBuilder;
+import indexing.ConcurrentFetcher;
+import indexing.FetchCache;
+import indexing.ForwardIndex;
 import indexing.IndexBuilder;
+import indexing.IndexMetrics;
+import indexing.IndexSegment;
+import indexing.QueryEngine;
+import indexing.TermWeighting;
 
 /**
  * @author ericfouh
@@ -39,7 +51,7 @@ public class NewsAggregatorGUI
     private JFrame               frame;
     private AutocompletePanel    searchBox;
     private JComboBox            rssBox;
-    private IIndexBuilder        idxBuilder;
+    private IndexBuilder         idxBuilder;
     public static final String[] rssUrls      =
         { "https://rss.nytimes.com/services/xml/rss/nyt/US.xml",
             "http://feeds.washingtonpost.com/rss/rss_powerpost",
@@ -53,7 +65,26 @@ public class NewsAggregatorGUI
      * 
      */
     private Map<?, ?>            invIdx;
+    // inverted index of the last saved segment. Unlike invIdx it is never
+    // changed, so the autocomplete file is written from it off the event thread
+    private Map<?, ?>            savedIdx;
+    // set while the autocomplete file is written, so reindexing does not
+    // start a second write
+    private boolean              updatingAutocomplete;
+    // set while the index is saved, so a second save does not start
+    private boolean              savingIndex;
     private boolean              autocomplete = false;
+    // number of search results fetched at a time
+    private static final int     PAGE_SIZE    = 100;
+    // last row of a page of results, clicked to fetch the next page
+    private static final String  MORE_RESULTS = "\t\tmore results...";
+    private String               lastQuery;
+    // answers queries of more than one word, over the saved segment. Phrases
+    // are only checked once the index has been built in this run
+    private QueryEngine          queryEngine;
+    private int                  shownResults;
+    // where the last built index is saved between runs
+    private static final Path    SEGMENT      = Paths.get("index.seg");
 
 
     /**
@@ -90,6 +121,32 @@ public class NewsAggregatorGUI
     private void initRSSList()
     {
         idxBuilder = new IndexBuilder();
+        // fetch feeds and articles concurrently, at most 4 requests per host
+        // and a minute for the whole run
+        idxBuilder.setConcurrentFetcher(new ConcurrentFetcher(16, 4, 60000));
+        // keep word positions so quoted phrases can be searched for
+        idxBuilder.setPositional(true);
+        // keep fetched pages between runs so unchanged ones are revalidated
+        // instead of downloaded again
+        try
+        {
+            idxBuilder.setFetchCache(new FetchCache(".fetch-cache", 256L << 20));
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        // time each stage of building the indexes, readable from jconsole
+        IndexMetrics metrics = new IndexMetrics();
+        idxBuilder.setMetrics(metrics);
+        try
+        {
+            metrics.register("indexBuilder");
+        }
+        catch (JMException e)
+        {
+            e.printStackTrace();
+        }
 
         rssBox = new JComboBox(rssUrls);
         rssBox.setSelectedIndex(0);
@@ -97,6 +154,36 @@ public class NewsAggregatorGUI
     }
 
 
+    /**
+     * Fetches a page of search results. Queries of more than one word, or with
+     * AND, OR, NOT or a quoted phrase, go to the query engine when there is one
+     */
+    private List<String> search(String query, int offset)
+    {
+        if (queryEngine == null || query.trim().split("\\s+").length == 1)
+            return idxBuilder.searchArticles(query, invIdx, offset, PAGE_SIZE);
+        List<String> page = new ArrayList<>();
+        for (Entry<String, Double> e : queryEngine
+            .search(query, offset, PAGE_SIZE))
+            page.add(e.getKey());
+        return page;
+    }
+
+
+    /**
+     * Adds a page of search results to the list, followed by a row to fetch the
+     * next page if the page was full
+     */
+    private void addPage(DefaultListModel<String> articlesList, List<String> page)
+    {
+        for (String url : page)
+            articlesList.addElement("\t\t" + url);
+        shownResults += page.size();
+        if (page.size() == PAGE_SIZE)
+            articlesList.addElement(MORE_RESULTS);
+    }
+
+
     /**
      * Initialize the contents of the frame.
      */
@@ -170,7 +257,7 @@ public class NewsAggregatorGUI
             @Override
             public void actionPerformed(ActionEvent e)
             {
-                btnIndex.setEnabled(true);
+                btnIndex.setEnabled(!savingIndex);
                 String selected = (String)rssBox.getSelectedItem();
                 if (!listModel.contains(selected))
                 {
@@ -196,12 +283,44 @@ public class NewsAggregatorGUI
                 for (int i = 0; i < listModel.size(); i++)
                     feeds.add((String)listModel.get(i));
                 Map<String, List<String>> map = idxBuilder.parseFeed(feeds);
-                Map<String, Map<String, Double>> index =
-                    idxBuilder.buildIndex(map);
-                invIdx = idxBuilder.buildInvertedIndex(index);
+                // only articles added, changed or dropped since the last
+                // build are reindexed
+                invIdx = idxBuilder.updateIndex(map).invertedIndex();
                 btnHome.setEnabled(true);
                 btnSearch.setEnabled(true);
-                btnAutoCplt.setEnabled(true);
+                // save the index so the next launch can search straight away.
+                // The copy is taken here, then written and opened again off
+                // the event thread; searches use the old segment until then
+                final ForwardIndex snapshot =
+                    idxBuilder.getIncrementalIndex().snapshot();
+                savingIndex = true;
+                btnIndex.setEnabled(false);
+                CompletableFuture.supplyAsync(() -> {
+                    try
+                    {
+                        IndexSegment.write(SEGMENT, snapshot);
+                        return IndexSegment.open(SEGMENT).getInvertedIndex();
+                    }
+                    catch (IOException ex)
+                    {
+                        throw new UncheckedIOException(ex);
+                    }
+                }).whenComplete((saved, ex) -> EventQueue.invokeLater(() -> {
+                    if (ex != null)
+                    {
+                        ex.printStackTrace();
+                    }
+                    else
+                    {
+                        queryEngine = new QueryEngine(saved,
+                            idxBuilder.getPositionalIndex());
+                        savedIdx = saved.invertedIndex();
+                    }
+                    savingIndex = false;
+                    btnIndex.setEnabled(true);
+                    btnAutoCplt.setEnabled(
+                        savedIdx != null && !updatingAutocomplete);
+                }));
             }
         });
 
@@ -237,9 +356,25 @@ public class NewsAggregatorGUI
             @Override
             public void actionPerformed(ActionEvent e)
             {
-                idxBuilder
-                    .createAutocompleteFile(idxBuilder.buildHomePage(invIdx));
-                searchBox = new AutocompletePanel("autocomplete.txt");
+                // write the file and build the new trie off the event thread;
+                // the search box keeps suggesting from the old trie until the
+                // new one is swapped in. The saved segment is read, as
+                // Create Indexes may update invIdx meanwhile
+                final Map<?, ?> index = savedIdx;
+                updatingAutocomplete = true;
+                btnAutoCplt.setEnabled(false);
+                CompletableFuture
+                    .runAsync(() -> idxBuilder.createAutocompleteFile(index,
+                        TermWeighting.documentFrequency()))
+                    .thenCompose(v -> searchBox.reload("autocomplete.txt"))
+                    .whenComplete((v, ex) -> EventQueue.invokeLater(() -> {
+                        if (ex != null)
+                        {
+                            ex.printStackTrace();
+                        }
+                        updatingAutocomplete = false;
+                        btnAutoCplt.setEnabled(true);
+                    }));
             }
 
         });
@@ -255,14 +390,15 @@ public class NewsAggregatorGUI
                 if (query.length() > 0)
                 {
 
-                    List<String> articles =
-                        idxBuilder.searchArticles(query, invIdx);
+                    // only the first page of results is fetched
+                    List<String> articles = search(query, 0);
                     if (articles != null && articles.size() > 0)
                     {
                         articlesList.clear();
                         articlesList.addElement(query);
-                        for (String url : articles)
-                            articlesList.addElement("\t\t" + url);
+                        lastQuery = query;
+                        shownResults = 0;
+                        addPage(articlesList, articles);
                     }
                 }
             }
@@ -279,6 +415,13 @@ public class NewsAggregatorGUI
                     // index of the article
                     int index = list.locationToIndex(evt.getPoint());
                     String url = articlesList.get(index);
+                    // load the next page of search results
+                    if (url.equals(MORE_RESULTS))
+                    {
+                        articlesList.remove(index);
+                        addPage(articlesList, search(lastQuery, shownResults));
+                        return;
+                    }
                     URI uriAddress;
                     try
                     {
@@ -306,5 +449,24 @@ public class NewsAggregatorGUI
             }
         });
 
+        // open the index saved by the last run, if there is a usable one
+        if (Files.exists(SEGMENT))
+        {
+            try
+            {
+                IndexSegment segment = IndexSegment.open(SEGMENT);
+                invIdx = segment.getInvertedIndex().invertedIndex();
+                savedIdx = invIdx;
+                queryEngine = new QueryEngine(segment.getInvertedIndex());
+                btnHome.setEnabled(true);
+                btnSearch.setEnabled(true);
+                btnAutoCplt.setEnabled(true);
+            }
+            catch (IOException e)
+            {
+                // a partly written or damaged segment is ignored
+                e.printStackTrace();
+            }
+        }
     }
 }
@@ -0,0 +1,291 @@
+package indexing;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A read-only inverted index whose postings are kept as PostingsLists in one
+ * byte buffer.
+ *
+ * Terms get ids in lexicographic order and documents get ids in url order, so
+ * doc id order matches the document name tie break used by
+ * buildInvertedIndex, and terms can be listed in order without sorting.
+ *
+ * invertedIndex() returns a view in the shape of buildInvertedIndex, which
+ * decodes a term's postings only when they are read, highest TFIDF first. The
+ * TFIDF values it returns are quantized to 16 bits; the order is exact.
+ *
+ * @author clairewalker
+ *
+ */
+public class CompressedInvertedIndex {
+	private final String[] terms;
+	private final String[] urls;
+	private final int[] offsets;
+	private final ByteBuffer postings;
+
+	/**
+	 * @param terms    terms in lexicographic order
+	 * @param urls     document urls in lexicographic order
+	 * @param offsets  offset of each term's PostingsList in postings
+	 * @param postings the encoded postings lists
+	 */
+	public CompressedInvertedIndex(String[] terms, String[] urls, int[] offsets, ByteBuffer postings) {
+		this.terms = terms;
+		this.urls = urls;
+		this.offsets = offsets;
+		this.postings = postings;
+	}
+
+	/**
+	 * Compresses an inverted index
+	 *
+	 * @param invertedIndex an index in the shape returned by buildInvertedIndex: a
+	 *                      map of each term to a collection of document/TFIDF
+	 *                      entries, highest TFIDF first
+	 * @return the compressed index
+	 */
+	public static CompressedInvertedIndex build(Map<?, ?> invertedIndex) {
+		// give terms and documents ids in lexicographic order
+		String[] terms = new String[invertedIndex.size()];
+		Set<String> urlSet = new HashSet<>();
+		int t = 0;
+		for (Entry<?, ?> e : invertedIndex.entrySet()) {
+			terms[t++] = (String) e.getKey();
+			for (Object posting : (Collection<?>) e.getValue()) {
+				urlSet.add((String) ((Entry<?, ?>) posting).getKey());
+			}
+		}
+		Arrays.sort(terms);
+		String[] urls = urlSet.toArray(new String[urlSet.size()]);
+		Arrays.sort(urls);
+		Map<String, Integer> docIdOf = new HashMap<>();
+		for (int i = 0; i < urls.length; i++) {
+			docIdOf.put(urls[i], i);
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int[] offsets = new int[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			Collection<?> set = (Collection<?>) invertedIndex.get(terms[i]);
+			int[] docIds = new int[set.size()];
+			double[] scores = new double[set.size()];
+			int k = 0;
+			for (Object posting : set) {
+				Entry<?, ?> e = (Entry<?, ?>) posting;
+				docIds[k] = docIdOf.get(e.getKey());
+				scores[k] = ((Number) e.getValue()).doubleValue();
+				k++;
+			}
+			offsets[i] = out.size();
+			byte[] encoded = PostingsList.encode(docIds, scores);
+			out.write(encoded, 0, encoded.length);
+		}
+		return new CompressedInvertedIndex(terms, urls, offsets, ByteBuffer.wrap(out.toByteArray()));
+	}
+
+	/**
+	 * @return number of terms
+	 */
+	public int numTerms() {
+		return terms.length;
+	}
+
+	/**
+	 * @return number of documents
+	 */
+	public int numDocuments() {
+		return urls.length;
+	}
+
+	/**
+	 * @param term
+	 * @return id of the term, or -1 if it isn't in the index
+	 */
+	public int termId(String term) {
+		int id = Arrays.binarySearch(terms, term);
+		return id >= 0 ? id : -1;
+	}
+
+	/**
+	 * @param termId
+	 * @return the term
+	 */
+	public String term(int termId) {
+		return terms[termId];
+	}
+
+	/**
+	 * @return read-only list of the terms in lexicographic order
+	 */
+	public List<String> terms() {
+		return new AbstractList<String>() {
+			@Override
+			public String get(int index) {
+				return terms[index];
+			}
+
+			@Override
+			public int size() {
+				return terms.length;
+			}
+		};
+	}
+
+	/**
+	 * @param url
+	 * @return id of the document, or -1 if it isn't in the index
+	 */
+	public int docId(String url) {
+		int id = Arrays.binarySearch(urls, url);
+		return id >= 0 ? id : -1;
+	}
+
+	/**
+	 * @param docId
+	 * @return url of the document
+	 */
+	public String url(int docId) {
+		return urls[docId];
+	}
+
+	/**
+	 * @param term
+	 * @return the term's postings, or null if it isn't in the index
+	 */
+	public PostingsList postings(String term) {
+		int id = termId(term);
+		return id < 0 ? null : postings(id);
+	}
+
+	/**
+	 * @param termId
+	 * @return the term's postings
+	 */
+	public PostingsList postings(int termId) {
+		return new PostingsList(postings, offsets[termId]);
+	}
+
+	/**
+	 * @return total size in bytes of the encoded postings
+	 */
+	public long postingsBytes() {
+		return postings.limit();
+	}
+
+	/**
+	 * @return read-only view of the index in the shape returned by
+	 *         buildInvertedIndex, with terms in lexicographic order
+	 */
+	public Map<String, Set<Entry<String, Double>>> invertedIndex() {
+		return new AbstractMap<String, Set<Entry<String, Double>>>() {
+			@Override
+			public Set<Entry<String, Double>> get(Object term) {
+				if (!(term instanceof String)) {
+					return null;
+				}
+				int id = termId((String) term);
+				return id < 0 ? null : new RankedSet(postings(id));
+			}
+
+			@Override
+			public boolean containsKey(Object term) {
+				return term instanceof String && termId((String) term) >= 0;
+			}
+
+			@Override
+			public int size() {
+				return terms.length;
+			}
+
+			@Override
+			public Set<Entry<String, Set<Entry<String, Double>>>> entrySet() {
+				return new AbstractSet<Entry<String, Set<Entry<String, Double>>>>() {
+					@Override
+					public Iterator<Entry<String, Set<Entry<String, Double>>>> iterator() {
+						return new Iterator<Entry<String, Set<Entry<String, Double>>>>() {
+							private int next;
+
+							@Override
+							public boolean hasNext() {
+								return next < terms.length;
+							}
+
+							@Override
+							public Entry<String, Set<Entry<String, Double>>> next() {
+								if (!hasNext()) {
+									throw new NoSuchElementException();
+								}
+								int id = next++;
+								return new AbstractMap.SimpleImmutableEntry<String, Set<Entry<String, Double>>>(
+										terms[id], new RankedSet(postings(id)));
+							}
+						};
+					}
+
+					@Override
+					public int size() {
+						return terms.length;
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * The postings of one term, highest TFIDF first, decoded as they are iterated
+	 */
+	private class RankedSet extends AbstractSet<Entry<String, Double>> implements RankedPostings {
+		private final PostingsList list;
+
+		private RankedSet(PostingsList list) {
+			this.list = list;
+		}
+
+		@Override
+		public Iterator<Entry<String, Double>> iterator() {
+			return new Iterator<Entry<String, Double>>() {
+				private int rank;
+
+				@Override
+				public boolean hasNext() {
+					return rank < list.size();
+				}
+
+				@Override
+				public Entry<String, Double> next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					Entry<String, Double> e = new AbstractMap.SimpleImmutableEntry<>(urls[list.rankedDoc(rank)],
+							list.rankedScore(rank));
+					rank++;
+					return e;
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return list.size();
+		}
+
+		@Override
+		public String documentAt(int rank) {
+			return urls[list.rankedDoc(rank)];
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package indexing;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Fetches rss feeds and the articles they link to concurrently. Requests run on
+ * a bounded pool of worker threads, no more than maxPerHost requests are ever
+ * in flight against a single host, and the whole run is cut off at a deadline
+ * so one slow host cannot hold up the index build. Articles that have not been
+ * fetched by the deadline are left out of the result.
+ *
+ * @author clairewalker
+ *
+ */
+public class ConcurrentFetcher {
+	private final int maxInFlight;
+	private final int maxPerHost;
+	private final long deadlineMillis;
+
+	/**
+	 * @param maxInFlight    maximum number of requests in flight overall
+	 * @param maxPerHost     maximum number of requests in flight per host
+	 * @param deadlineMillis overall time budget for one call to fetch
+	 * @throws IllegalArgumentException if any argument is less than 1
+	 */
+	public ConcurrentFetcher(int maxInFlight, int maxPerHost, long deadlineMillis) throws IllegalArgumentException {
+		if (maxInFlight < 1 || maxPerHost < 1 || deadlineMillis < 1) {
+			throw new IllegalArgumentException();
+		}
+		this.maxInFlight = maxInFlight;
+		this.maxPerHost = maxPerHost;
+		this.deadlineMillis = deadlineMillis;
+	}
+
+	/**
+	 * @return maximum number of requests in flight overall
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * @return maximum number of requests in flight per host
+	 */
+	public int getMaxPerHost() {
+		return maxPerHost;
+	}
+
+	/**
+	 * @return overall time budget for one call to fetch
+	 */
+	public long getDeadlineMillis() {
+		return deadlineMillis;
+	}
+
+	/**
+	 * Fetches every feed, then every article linked from the feeds, and returns
+	 * the same map parseFeed builds sequentially
+	 *
+	 * @param feeds         the rss feeds to fetch
+	 * @param rssParser     returns the article urls listed in a feed
+	 * @param articleParser returns the words of an article
+	 * @return Map<String, List<String>> each article url and its words
+	 */
+	public Map<String, List<String>> fetch(List<String> feeds, Function<String, List<String>> rssParser,
+			Function<String, List<String>> articleParser) {
+		Run run = new Run(rssParser, articleParser);
+		try {
+			for (String rss : feeds) {
+				run.submit(rss, () -> run.fetchFeed(rss));
+			}
+			run.awaitDeadline();
+		} finally {
+			run.executor.shutdownNow();
+		}
+		return new HashMap<>(run.results);
+	}
+
+	/**
+	 * @param url
+	 * @return the host of the url, or the url itself if it cannot be parsed
+	 */
+	static String hostOf(String url) {
+		try {
+			String host = URI.create(url.trim()).getHost();
+			if (host != null) {
+				return host.toLowerCase();
+			}
+		} catch (IllegalArgumentException e) {
+			// fall through and throttle the url on its own
+		}
+		return url;
+	}
+
+	/**
+	 * Requests waiting on, and currently running against, a single host
+	 */
+	private static class HostQueue {
+		private int active;
+		private final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+	}
+
+	/**
+	 * State of a single call to fetch
+	 */
+	private class Run {
+		private final Function<String, List<String>> rssParser;
+		private final Function<String, List<String>> articleParser;
+		private final ExecutorService executor;
+		private final Map<String, HostQueue> hosts = new HashMap<>();
+		private final Map<String, List<String>> results = new ConcurrentHashMap<>();
+		private final Set<String> seen = ConcurrentHashMap.newKeySet();
+		private int pending;
+
+		private Run(Function<String, List<String>> rssParser, Function<String, List<String>> articleParser) {
+			this.rssParser = rssParser;
+			this.articleParser = articleParser;
+			this.executor = new ThreadPoolExecutor(maxInFlight, maxInFlight, 0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory());
+		}
+
+		/**
+		 * Fetches a feed and queues each article it links to that hasn't been queued
+		 * yet
+		 */
+		private void fetchFeed(String rss) {
+			for (String link : rssParser.apply(rss)) {
+				if (seen.add(link)) {
+					submit(link, () -> results.put(link, articleParser.apply(link)));
+				}
+			}
+		}
+
+		/**
+		 * Queues a request, starting it straight away if its host has a free slot
+		 */
+		private synchronized void submit(String url, Runnable task) {
+			String host = hostOf(url);
+			HostQueue queue = hosts.computeIfAbsent(host, h -> new HostQueue());
+			pending++;
+			if (queue.active < maxPerHost) {
+				queue.active++;
+				dispatch(host, task);
+			} else {
+				queue.waiting.add(task);
+			}
+		}
+
+		private void dispatch(String host, Runnable task) {
+			try {
+				executor.execute(() -> {
+					try {
+						task.run();
+					} finally {
+						done(host);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// the deadline has passed and the pool is shut down
+			}
+		}
+
+		/**
+		 * Frees the host slot held by a finished request and hands it to the next
+		 * request waiting on that host
+		 */
+		private synchronized void done(String host) {
+			HostQueue queue = hosts.get(host);
+			Runnable next = queue.waiting.poll();
+			if (next != null) {
+				dispatch(host, next);
+			} else {
+				queue.active--;
+			}
+			pending--;
+			if (pending == 0) {
+				notifyAll();
+			}
+		}
+
+		/**
+		 * Waits until every request has finished or the deadline has passed
+		 */
+		private synchronized void awaitDeadline() {
+			long end = System.currentTimeMillis() + deadlineMillis;
+			while (pending > 0) {
+				long remaining = end - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return;
+				}
+				try {
+					wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Worker threads are daemons so a fetch abandoned at the deadline never keeps
+	 * the application alive
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private static final AtomicInteger COUNT = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "feed-fetcher-" + COUNT.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package indexing;
+
+import java.util.Arrays;
+
+/**
+ * Assigns dense int ids to document urls and keeps the length of each
+ * document. A document that is removed keeps its id, and gets the same id back
+ * if it is added again.
+ *
+ * @author clairewalker
+ *
+ */
+public class DocumentTable {
+	private final TermDictionary urls = new TermDictionary();
+	// length of each document, -1 for a removed document
+	private int[] lengths = new int[0];
+	private int live;
+
+	/**
+	 * @return the number of documents currently in the table
+	 */
+	public int size() {
+		return live;
+	}
+
+	/**
+	 * @return one more than the largest id handed out so far
+	 */
+	public int maxId() {
+		return urls.size();
+	}
+
+	/**
+	 * Adds a document, or updates its length if it is already there
+	 *
+	 * @param url
+	 * @param length number of words in the document
+	 * @return the id of the document
+	 */
+	public int add(String url, int length) {
+		int id = urls.add(url);
+		if (id >= lengths.length) {
+			int capacity = Math.max(lengths.length * 2, 16);
+			int old = lengths.length;
+			lengths = Arrays.copyOf(lengths, capacity);
+			Arrays.fill(lengths, old, capacity, -1);
+		}
+		if (lengths[id] < 0) {
+			live++;
+		}
+		lengths[id] = length;
+		return id;
+	}
+
+	/**
+	 * @param id
+	 * @return true if the document was in the table
+	 */
+	public boolean remove(int id) {
+		if (!contains(id)) {
+			return false;
+		}
+		lengths[id] = -1;
+		live--;
+		return true;
+	}
+
+	/**
+	 * @param url
+	 * @return the id of the document, or -1 if it isn't in the table
+	 */
+	public int id(String url) {
+		int id = urls.get(url);
+		return id >= 0 && contains(id) ? id : -1;
+	}
+
+	/**
+	 * @param id
+	 * @return true if a document with that id is in the table
+	 */
+	public boolean contains(int id) {
+		return id >= 0 && id < urls.size() && lengths[id] >= 0;
+	}
+
+	/**
+	 * @param id
+	 * @return url of the document
+	 */
+	public String url(int id) {
+		return urls.term(id);
+	}
+
+	/**
+	 * @param id
+	 * @return number of words in the document
+	 */
+	public int length(int id) {
+		return lengths[id];
+	}
+}
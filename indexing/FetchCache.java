@@ -0,0 +1,466 @@
+package indexing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.jsoup.Connection;
+import org.jsoup.HttpStatusException;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.parser.Parser;
+
+/**
+ * A persistent cache of fetched feeds and articles, keyed by url. Each entry
+ * keeps the response body with its ETag and Last-Modified headers, so a later
+ * fetch of the same url is sent as a conditional request and an unchanged page
+ * comes back as a 304 without its body. The words parsed from an article can be
+ * cached next to it so an unchanged article isn't parsed again either. The
+ * cache is bounded in bytes and evicts the least recently used entries.
+ *
+ * @author clairewalker
+ *
+ */
+public class FetchCache {
+	private static final Pattern XML_CONTENT_TYPE = Pattern.compile("(application|text)/\\w*\\+?xml.*");
+	private static final String META = ".meta";
+	private static final String BODY = ".body";
+	private static final String WORDS = ".words";
+	// files of an entry other than its headers, named by the hex SHA-256 key
+	private static final Pattern LEFTOVER = Pattern.compile("[0-9a-f]{64}\\.(body|words|meta\\.tmp|body\\.tmp|words\\.tmp)");
+
+	private final Path directory;
+	private final long maxBytes;
+	// entries by key, least recently used first
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long totalBytes;
+
+	/**
+	 * Opens the cache in directory, creating the directory if needed, and loads
+	 * the entries left there by earlier runs
+	 *
+	 * @param directory where entries are stored
+	 * @param maxBytes  maximum total size of the cached bodies and words
+	 * @throws IOException              if the directory cannot be created or read
+	 * @throws IllegalArgumentException if maxBytes is less than 1
+	 */
+	public FetchCache(String directory, long maxBytes) throws IOException, IllegalArgumentException {
+		if (directory == null || maxBytes < 1) {
+			throw new IllegalArgumentException();
+		}
+		this.directory = Paths.get(directory);
+		this.maxBytes = maxBytes;
+		Files.createDirectories(this.directory);
+		load();
+	}
+
+	/**
+	 * @return total size in bytes of the cached bodies and words
+	 */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * @return number of urls in the cache
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Fetches url, revalidating against the cached copy if there is one
+	 *
+	 * @param url
+	 * @return the page, from the network or from the cache
+	 * @throws IOException if the page cannot be fetched
+	 */
+	public Page fetch(String url) throws IOException {
+		String key = keyOf(url);
+		Entry cached;
+		synchronized (this) {
+			cached = entries.get(key);
+		}
+
+		Connection.Response res = execute(url, cached);
+		// unchanged since we cached it
+		if (res.statusCode() == 304 && cached != null) {
+			byte[] body = readBody(key);
+			if (body != null) {
+				touch(key);
+				return new Page(url, body, cached.charset, cached.contentType, true);
+			}
+			// the body was evicted or lost while the request was out, so there's
+			// nothing left to revalidate: forget the entry and fetch the page whole
+			remove(key, cached);
+			res = execute(url, null);
+		}
+		// only a complete 2xx response has a body worth returning or caching
+		if (res.statusCode() < 200 || res.statusCode() >= 300) {
+			throw new HttpStatusException("HTTP error fetching URL", res.statusCode(), url);
+		}
+
+		byte[] body = res.bodyAsBytes();
+		Entry entry = new Entry(url, res.header("ETag"), res.header("Last-Modified"), res.charset(),
+				res.contentType());
+		if (entry.etag != null || entry.lastModified != null) {
+			store(key, entry, body);
+		}
+		return new Page(url, body, entry.charset, entry.contentType, false);
+	}
+
+	/**
+	 * Requests url, conditionally on the validators of cached if it isn't null
+	 */
+	private static Connection.Response execute(String url, Entry cached) throws IOException {
+		Connection conn = Jsoup.connect(url).ignoreHttpErrors(true);
+		if (cached != null) {
+			if (cached.etag != null) {
+				conn.header("If-None-Match", cached.etag);
+			}
+			if (cached.lastModified != null) {
+				conn.header("If-Modified-Since", cached.lastModified);
+			}
+		}
+		return conn.execute();
+	}
+
+	/**
+	 * @param url
+	 * @return the words cached for url by putWords, or null if there are none
+	 */
+	public List<String> getWords(String url) {
+		String key = keyOf(url);
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry == null || entry.wordsBytes == 0) {
+				return null;
+			}
+		}
+		try {
+			String text = new String(Files.readAllBytes(directory.resolve(key + WORDS)), StandardCharsets.UTF_8);
+			String[] lines = text.split("\n", -1);
+			int count = Integer.parseInt(lines[0]);
+			return new ArrayList<>(Arrays.asList(lines).subList(1, count + 1));
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Caches the words parsed from url. Does nothing if url's page isn't cached
+	 *
+	 * @param url
+	 * @param words
+	 */
+	public void putWords(String url, List<String> words) {
+		String key = keyOf(url);
+		synchronized (this) {
+			if (!entries.containsKey(key)) {
+				return;
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append(words.size());
+		for (String word : words) {
+			sb.append('\n').append(word);
+		}
+		byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+		try {
+			write(directory.resolve(key + WORDS), bytes);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry == null) {
+				return;
+			}
+			totalBytes += bytes.length - entry.wordsBytes;
+			entry.wordsBytes = bytes.length;
+			evict(key);
+		}
+	}
+
+	/**
+	 * Writes a freshly fetched body and its headers to disk and makes it the most
+	 * recently used entry
+	 */
+	private void store(String key, Entry entry, byte[] body) {
+		try {
+			// the old headers go first, so a crash before the new ones are written
+			// never pairs the new body with the old ETag
+			Files.deleteIfExists(directory.resolve(key + META));
+			write(directory.resolve(key + BODY), body);
+			Files.deleteIfExists(directory.resolve(key + WORDS));
+			ByteArrayOutputStream meta = new ByteArrayOutputStream();
+			entry.toProperties().store(meta, null);
+			write(directory.resolve(key + META), meta.toByteArray());
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		entry.bodyBytes = body.length;
+		synchronized (this) {
+			Entry old = entries.put(key, entry);
+			if (old != null) {
+				totalBytes -= old.bodyBytes + old.wordsBytes;
+			}
+			totalBytes += entry.bodyBytes;
+			evict(key);
+		}
+	}
+
+	/**
+	 * Removes least recently used entries until the cache fits in maxBytes. The
+	 * entry for keep is never removed
+	 */
+	private void evict(String keep) {
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (totalBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Entry> eldest = it.next();
+			if (eldest.getKey().equals(keep)) {
+				continue;
+			}
+			it.remove();
+			totalBytes -= eldest.getValue().bodyBytes + eldest.getValue().wordsBytes;
+			delete(eldest.getKey());
+		}
+	}
+
+	/**
+	 * Marks key as the most recently used entry, on disk too so the order
+	 * survives a restart
+	 */
+	private void touch(String key) {
+		synchronized (this) {
+			entries.get(key);
+		}
+		try {
+			Files.setLastModifiedTime(directory.resolve(key + META), FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// the entry is still valid, only its position in the lru order is lost
+		}
+	}
+
+	/**
+	 * Removes the entry for key and its files, unless it has been replaced by
+	 * something other than entry since
+	 */
+	private void remove(String key, Entry entry) {
+		synchronized (this) {
+			if (!entries.remove(key, entry)) {
+				return;
+			}
+			totalBytes -= entry.bodyBytes + entry.wordsBytes;
+			delete(key);
+		}
+	}
+
+	private byte[] readBody(String key) {
+		try {
+			return Files.readAllBytes(directory.resolve(key + BODY));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private void delete(String key) {
+		try {
+			Files.deleteIfExists(directory.resolve(key + META));
+			Files.deleteIfExists(directory.resolve(key + BODY));
+			Files.deleteIfExists(directory.resolve(key + WORDS));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Reads the entries in the cache directory, oldest first by the time they were
+	 * last used
+	 */
+	private void load() throws IOException {
+		List<Path> metas = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + META)) {
+			for (Path p : stream) {
+				metas.add(p);
+			}
+		}
+		List<Object[]> byAge = new ArrayList<>();
+		for (Path meta : metas) {
+			byAge.add(new Object[] { meta, Files.getLastModifiedTime(meta) });
+		}
+		byAge.sort((a, b) -> ((FileTime) a[1]).compareTo((FileTime) b[1]));
+
+		for (Object[] pair : byAge) {
+			Path meta = (Path) pair[0];
+			String name = meta.getFileName().toString();
+			String key = name.substring(0, name.length() - META.length());
+			Path body = directory.resolve(key + BODY);
+			Path words = directory.resolve(key + WORDS);
+			// a body that was never completely written leaves the entry unusable
+			if (!Files.exists(body)) {
+				delete(key);
+				continue;
+			}
+			Properties props = new Properties();
+			try (InputStream in = Files.newInputStream(meta)) {
+				props.load(in);
+			}
+			Entry entry = Entry.fromProperties(props);
+			entry.bodyBytes = Files.size(body);
+			entry.wordsBytes = Files.exists(words) ? Files.size(words) : 0;
+			entries.put(key, entry);
+			totalBytes += entry.bodyBytes + entry.wordsBytes;
+		}
+		evict(null);
+
+		// bodies, words and temporary files left without headers by a crash
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path p : stream) {
+				String name = p.getFileName().toString();
+				if (LEFTOVER.matcher(name).matches()
+						&& (name.endsWith(".tmp") || !entries.containsKey(name.substring(0, 64)))) {
+					Files.deleteIfExists(p);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes to a temporary file first so a crash never leaves a half written file
+	 * under the real name
+	 */
+	private static void write(Path target, byte[] bytes) throws IOException {
+		Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+		Files.write(tmp, bytes);
+		Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @param url
+	 * @return file name safe key for url
+	 */
+	private static String keyOf(String url) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The validators and content type of a cached url
+	 */
+	private static class Entry {
+		private final String url;
+		private final String etag;
+		private final String lastModified;
+		private final String charset;
+		private final String contentType;
+		private long bodyBytes;
+		private long wordsBytes;
+
+		private Entry(String url, String etag, String lastModified, String charset, String contentType) {
+			this.url = url;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.charset = charset;
+			this.contentType = contentType;
+		}
+
+		private Properties toProperties() {
+			Properties props = new Properties();
+			props.setProperty("url", url);
+			if (etag != null) {
+				props.setProperty("etag", etag);
+			}
+			if (lastModified != null) {
+				props.setProperty("lastModified", lastModified);
+			}
+			if (charset != null) {
+				props.setProperty("charset", charset);
+			}
+			if (contentType != null) {
+				props.setProperty("contentType", contentType);
+			}
+			return props;
+		}
+
+		private static Entry fromProperties(Properties props) {
+			return new Entry(props.getProperty("url"), props.getProperty("etag"), props.getProperty("lastModified"),
+					props.getProperty("charset"), props.getProperty("contentType"));
+		}
+	}
+
+	/**
+	 * A fetched page, parsed on demand
+	 */
+	public static class Page {
+		private final String url;
+		private final byte[] body;
+		private final String charset;
+		private final String contentType;
+		private final boolean notModified;
+
+		private Page(String url, byte[] body, String charset, String contentType, boolean notModified) {
+			this.url = url;
+			this.body = body;
+			this.charset = charset;
+			this.contentType = contentType;
+			this.notModified = notModified;
+		}
+
+		/**
+		 * @return true if the server answered 304 and the body came from the cache
+		 */
+		public boolean isNotModified() {
+			return notModified;
+		}
+
+		/**
+		 * @return the raw body
+		 */
+		public byte[] getBody() {
+			return body;
+		}
+
+		/**
+		 * Parses the body the way Jsoup.connect(url).get() would, using the xml parser
+		 * for xml content types
+		 *
+		 * @return the parsed document
+		 * @throws IOException
+		 */
+		public Document parse() throws IOException {
+			Parser parser = contentType != null && XML_CONTENT_TYPE.matcher(contentType).matches()
+					? Parser.xmlParser()
+					: Parser.htmlParser();
+			return Jsoup.parse(new ByteArrayInputStream(body), charset, url, parser);
+		}
+	}
+}
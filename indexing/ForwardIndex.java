@@ -0,0 +1,435 @@
+package indexing;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A compact forward index holding each document's term counts and length
+ * rather than its TFIDF values. It is built in a single pass over the words of
+ * every document, collecting term frequencies and document frequencies
+ * together, and the TFIDF of any term in any document is derived from them on
+ * demand.
+ *
+ * Both the forward index returned by buildIndex and the inverted index returned
+ * by buildInvertedIndex are emitted from it without going back to the words.
+ * Building and emitting can be split across the threads of a ForkJoinPool,
+ * giving the same maps as the sequential methods.
+ *
+ * @author clairewalker
+ *
+ */
+public class ForwardIndex {
+	private final TermDictionary terms;
+	private final String[] urls;
+	private final int[] lengths;
+	// distinct term ids of each document, ascending
+	private final int[][] termIds;
+	// count of each of those terms in the document
+	private final int[][] counts;
+	// number of documents containing each term, by term id
+	private final int[] documentFrequencies;
+
+	ForwardIndex(TermDictionary terms, String[] urls, int[] lengths, int[][] termIds, int[][] counts,
+			int[] documentFrequencies) {
+		this.terms = terms;
+		this.urls = urls;
+		this.lengths = lengths;
+		this.termIds = termIds;
+		this.counts = counts;
+		this.documentFrequencies = documentFrequencies;
+	}
+
+	/**
+	 * Builds the index in one pass over the words of every document
+	 *
+	 * @param docs a map computed by parseFeed
+	 * @return the forward index
+	 */
+	public static ForwardIndex build(Map<String, List<String>> docs) {
+		List<Entry<String, List<String>>> entries = new ArrayList<>(docs.entrySet());
+		Partial all = new Partial(entries, 0, entries.size());
+		String[] urls = new String[entries.size()];
+		for (int doc = 0; doc < urls.length; doc++) {
+			urls[doc] = entries.get(doc).getKey();
+		}
+		return new ForwardIndex(all.terms, urls, all.lengths, all.termIds, all.counts,
+				Arrays.copyOf(all.df, all.terms.size()));
+	}
+
+	/**
+	 * Builds the index with the documents split between the threads of pool. Each
+	 * thread counts its share of the documents against its own term dictionary,
+	 * and the partial results are merged at the end. The index is the same as the
+	 * one build(docs) returns, apart from the ids given to terms
+	 *
+	 * @param docs a map computed by parseFeed
+	 * @param pool
+	 * @return the forward index
+	 */
+	public static ForwardIndex build(Map<String, List<String>> docs, ForkJoinPool pool) {
+		List<Entry<String, List<String>>> entries = new ArrayList<>(docs.entrySet());
+		int n = entries.size();
+		String[] urls = new String[n];
+		int[] lengths = new int[n];
+		int[][] termIds = new int[n][];
+		int[][] counts = new int[n][];
+
+		// count each chunk of documents on its own
+		Partial[] partials = new Partial[chunks(pool, n)];
+		parallelFor(pool, n, partials.length, (chunk, from, to) -> {
+			partials[chunk] = new Partial(entries, from, to);
+		});
+
+		// merge the partial term dictionaries, in chunk order
+		TermDictionary terms = new TermDictionary();
+		int[][] globalIds = new int[partials.length][];
+		int[] df = new int[16];
+		for (int c = 0; c < partials.length; c++) {
+			Partial partial = partials[c];
+			globalIds[c] = new int[partial.terms.size()];
+			for (int local = 0; local < globalIds[c].length; local++) {
+				globalIds[c][local] = terms.add(partial.terms.term(local));
+			}
+			if (terms.size() > df.length) {
+				df = Arrays.copyOf(df, Math.max(df.length * 2, terms.size()));
+			}
+			for (int local = 0; local < globalIds[c].length; local++) {
+				df[globalIds[c][local]] += partial.df[local];
+			}
+		}
+
+		// move each document's counts over to the merged term ids
+		parallelFor(pool, n, partials.length, (chunk, from, to) -> {
+			Partial partial = partials[chunk];
+			int[] toGlobal = globalIds[chunk];
+			for (int doc = from; doc < to; doc++) {
+				int[] localIds = partial.termIds[doc - from];
+				int[] localCounts = partial.counts[doc - from];
+				// sort by the new ids, carrying the counts along
+				long[] pairs = new long[localIds.length];
+				for (int slot = 0; slot < pairs.length; slot++) {
+					pairs[slot] = ((long) toGlobal[localIds[slot]] << 32) | localCounts[slot];
+				}
+				splitPairs(pairs, termIds, counts, doc);
+				urls[doc] = entries.get(doc).getKey();
+				lengths[doc] = partial.lengths[doc - from];
+			}
+		});
+		return new ForwardIndex(terms, urls, lengths, termIds, counts, Arrays.copyOf(df, terms.size()));
+	}
+
+	/**
+	 * Term counts of a range of documents, against a term dictionary of their own
+	 */
+	private static class Partial {
+		private final TermDictionary terms = new TermDictionary();
+		private final int[] lengths;
+		private final int[][] termIds;
+		private final int[][] counts;
+		private int[] df = new int[16];
+
+		private Partial(List<Entry<String, List<String>>> entries, int from, int to) {
+			lengths = new int[to - from];
+			termIds = new int[to - from][];
+			counts = new int[to - from][];
+			for (int doc = 0; doc < to - from; doc++) {
+				List<String> words = entries.get(from + doc).getValue();
+				lengths[doc] = words.size();
+				// look up the id of each word, then sort so equal ids are next to each other
+				int[] ids = new int[words.size()];
+				for (int i = 0; i < ids.length; i++) {
+					ids[i] = terms.add(words.get(i));
+				}
+				if (terms.size() > df.length) {
+					df = Arrays.copyOf(df, Math.max(df.length * 2, terms.size()));
+				}
+				countRuns(ids, termIds, counts, doc);
+				for (int id : termIds[doc]) {
+					df[id]++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Work on a range of items
+	 */
+	private interface RangeTask {
+		void run(int chunk, int from, int to);
+	}
+
+	/**
+	 * @return number of chunks to split n items into, a few per thread so uneven
+	 *         chunks even out
+	 */
+	private static int chunks(ForkJoinPool pool, int n) {
+		return Math.max(1, Math.min(n, pool.getParallelism() * 4));
+	}
+
+	/**
+	 * Splits 0..n into chunks ranges and runs task on each of them in pool,
+	 * returning once all are done
+	 */
+	private static void parallelFor(ForkJoinPool pool, int n, int chunks, RangeTask task) {
+		List<Callable<Void>> tasks = new ArrayList<>(chunks);
+		for (int c = 0; c < chunks; c++) {
+			int chunk = c;
+			int from = (int) ((long) n * c / chunks);
+			int to = (int) ((long) n * (c + 1) / chunks);
+			tasks.add(() -> {
+				task.run(chunk, from, to);
+				return null;
+			});
+		}
+		for (Future<Void> f : pool.invokeAll(tasks)) {
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Collapses sorted term ids into distinct ids and their counts, stored at
+	 * position doc of termIds and counts
+	 */
+	static void countRuns(int[] ids, int[][] termIds, int[][] counts, int doc) {
+		Arrays.sort(ids);
+		int distinct = 0;
+		for (int i = 0; i < ids.length; i++) {
+			if (i == 0 || ids[i] != ids[i - 1]) {
+				distinct++;
+			}
+		}
+		int[] docTerms = new int[distinct];
+		int[] docCounts = new int[distinct];
+		int slot = -1;
+		for (int i = 0; i < ids.length; i++) {
+			if (i == 0 || ids[i] != ids[i - 1]) {
+				docTerms[++slot] = ids[i];
+			}
+			docCounts[slot]++;
+		}
+		termIds[doc] = docTerms;
+		counts[doc] = docCounts;
+	}
+
+	/**
+	 * Sorts pairs of a term id (high 32 bits) and its count (low 32 bits) by term
+	 * id and stores them at position doc of termIds and counts
+	 */
+	static void splitPairs(long[] pairs, int[][] termIds, int[][] counts, int doc) {
+		Arrays.sort(pairs);
+		int[] docTerms = new int[pairs.length];
+		int[] docCounts = new int[pairs.length];
+		for (int slot = 0; slot < pairs.length; slot++) {
+			docTerms[slot] = (int) (pairs[slot] >>> 32);
+			docCounts[slot] = (int) pairs[slot];
+		}
+		termIds[doc] = docTerms;
+		counts[doc] = docCounts;
+	}
+
+	/**
+	 * @return number of documents
+	 */
+	public int numDocuments() {
+		return urls.length;
+	}
+
+	/**
+	 * @return number of distinct terms
+	 */
+	public int numTerms() {
+		return terms.size();
+	}
+
+	/**
+	 * @param termId
+	 * @return the term
+	 */
+	public String term(int termId) {
+		return terms.term(termId);
+	}
+
+	/**
+	 * @param docId
+	 * @return url of the document
+	 */
+	public String url(int docId) {
+		return urls[docId];
+	}
+
+	/**
+	 * @param docId
+	 * @return number of words in the document
+	 */
+	public int length(int docId) {
+		return lengths[docId];
+	}
+
+	/**
+	 * @param term
+	 * @return number of documents containing term
+	 */
+	public int documentFrequency(String term) {
+		int id = terms.get(term);
+		return id < 0 ? 0 : documentFrequencies[id];
+	}
+
+	/**
+	 * @param docId
+	 * @return distinct term ids of the document, ascending. Not to be modified
+	 */
+	public int[] termIds(int docId) {
+		return termIds[docId];
+	}
+
+	/**
+	 * @param docId
+	 * @return count of each term in termIds(docId). Not to be modified
+	 */
+	public int[] counts(int docId) {
+		return counts[docId];
+	}
+
+	/**
+	 * @param docId
+	 * @param slot  position of the term in termIds(docId)
+	 * @return TFIDF of the term in the document
+	 */
+	public double tfidf(int docId, int slot) {
+		double TF = (double) counts[docId][slot] / lengths[docId];
+		double IDF = Math.log((double) urls.length / documentFrequencies[termIds[docId][slot]]);
+		return TF * IDF;
+	}
+
+	/**
+	 * @return the forward index in the shape returned by buildIndex
+	 */
+	public Map<String, Map<String, Double>> toForwardMap() {
+		Map<String, Map<String, Double>> indexMap = new TreeMap<String, Map<String, Double>>();
+		for (int doc = 0; doc < urls.length; doc++) {
+			indexMap.put(urls[doc], documentMap(doc));
+		}
+		return indexMap;
+	}
+
+	/**
+	 * Same as toForwardMap, with each document's TFIDF values computed in pool
+	 *
+	 * @param pool
+	 * @return the forward index in the shape returned by buildIndex
+	 */
+	public Map<String, Map<String, Double>> toForwardMap(ForkJoinPool pool) {
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Map<String, Double>[] maps = new Map[urls.length];
+		parallelFor(pool, urls.length, chunks(pool, urls.length), (chunk, from, to) -> {
+			for (int doc = from; doc < to; doc++) {
+				maps[doc] = documentMap(doc);
+			}
+		});
+		Map<String, Map<String, Double>> indexMap = new TreeMap<String, Map<String, Double>>();
+		for (int doc = 0; doc < urls.length; doc++) {
+			indexMap.put(urls[doc], maps[doc]);
+		}
+		return indexMap;
+	}
+
+	private Map<String, Double> documentMap(int doc) {
+		Map<String, Double> wordTFIDFPairs = new TreeMap<String, Double>();
+		for (int slot = 0; slot < termIds[doc].length; slot++) {
+			wordTFIDFPairs.put(terms.term(termIds[doc][slot]), tfidf(doc, slot));
+		}
+		return wordTFIDFPairs;
+	}
+
+	/**
+	 * @param comparator order of the postings of each term
+	 * @return the inverted index in the shape returned by buildInvertedIndex
+	 */
+	public HashMap<String, TreeSet<Entry<String, Double>>> toInvertedMap(
+			Comparator<Entry<String, Double>> comparator) {
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		TreeSet<Entry<String, Double>>[] postings = new TreeSet[terms.size()];
+		for (int doc = 0; doc < urls.length; doc++) {
+			for (int slot = 0; slot < termIds[doc].length; slot++) {
+				int id = termIds[doc][slot];
+				if (postings[id] == null) {
+					postings[id] = new TreeSet<Entry<String, Double>>(comparator);
+				}
+				postings[id].add(new AbstractMap.SimpleEntry<>(urls[doc], tfidf(doc, slot)));
+			}
+		}
+		return toMap(postings);
+	}
+
+	/**
+	 * Same as toInvertedMap, with the postings of each term sorted in pool
+	 *
+	 * @param comparator order of the postings of each term
+	 * @param pool
+	 * @return the inverted index in the shape returned by buildInvertedIndex
+	 */
+	public HashMap<String, TreeSet<Entry<String, Double>>> toInvertedMap(
+			Comparator<Entry<String, Double>> comparator, ForkJoinPool pool) {
+		// lay the postings out term by term, each term's run df long
+		int[] start = new int[terms.size() + 1];
+		for (int id = 0; id < terms.size(); id++) {
+			start[id + 1] = start[id] + documentFrequencies[id];
+		}
+		int[] fill = Arrays.copyOf(start, terms.size());
+		int[] docs = new int[start[terms.size()]];
+		double[] scores = new double[docs.length];
+		for (int doc = 0; doc < urls.length; doc++) {
+			for (int slot = 0; slot < termIds[doc].length; slot++) {
+				int at = fill[termIds[doc][slot]]++;
+				docs[at] = doc;
+				scores[at] = tfidf(doc, slot);
+			}
+		}
+
+		// then build each term's TreeSet on its own
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		TreeSet<Entry<String, Double>>[] postings = new TreeSet[terms.size()];
+		parallelFor(pool, terms.size(), chunks(pool, terms.size()), (chunk, from, to) -> {
+			for (int id = from; id < to; id++) {
+				TreeSet<Entry<String, Double>> set = new TreeSet<Entry<String, Double>>(comparator);
+				for (int at = start[id]; at < start[id + 1]; at++) {
+					set.add(new AbstractMap.SimpleEntry<>(urls[docs[at]], scores[at]));
+				}
+				postings[id] = set;
+			}
+		});
+		return toMap(postings);
+	}
+
+	private HashMap<String, TreeSet<Entry<String, Double>>> toMap(TreeSet<Entry<String, Double>>[] postings) {
+		HashMap<String, TreeSet<Entry<String, Double>>> invertedIndex = new HashMap<>();
+		for (int id = 0; id < postings.length; id++) {
+			if (postings[id] != null) {
+				invertedIndex.put(terms.term(id), postings[id]);
+			}
+		}
+		return invertedIndex;
+	}
+}
@@ -81,6 +81,20 @@ public interface IIndexBuilder
      */
     public Collection<?> createAutocompleteFile(Collection<Entry<String, List<String>>> homepage); 
 
+
+    /**
+     * Create autocomplete.txt straight from the inverted index, in the same
+     * format as createAutocompleteFile(homepage) and without building the
+     * homepage collection first. Each word is weighted by weighting, with a
+     * weight of at least 1, and stop words are left out
+     * 
+     * @param invertedIndex the index returned by buildInvertedIndex
+     * @param weighting computes each word's weight from its postings
+     * @return the words written into the file, in lexicographic order
+     */
+    public List<String> createAutocompleteFile(Map<?, ?> invertedIndex,
+        TermWeighting weighting);
+
     /**
      * @param queryTerm
      * @param invertedIndex
@@ -90,6 +104,26 @@ public interface IIndexBuilder
         String queryTerm,
         Map<?, ?> invertedIndex);
 
+
+    /**
+     * Returns one page of the articles containing a term, in the order of the
+     * term's postings in the inverted index (highest TFIDF first). Only the
+     * requested page is copied out of the postings.
+     * 
+     * @param queryTerm
+     * @param invertedIndex the index computed by {@buildInvertedIndex}
+     * @param offset number of articles to skip
+     * @param limit largest number of articles to return
+     * @return up to limit articles, starting at position offset
+     * @throws IllegalArgumentException if offset or limit is negative
+     */
+    public List<String> searchArticles(
+        String queryTerm,
+        Map<?, ?> invertedIndex,
+        int offset,
+        int limit)
+        throws IllegalArgumentException;
+
     // Stop words
     public static String[] STOPW = { "a", "about", "above", "across",
         "after", "afterwards", "again", "against", "all", "almost", "alone",
@@ -0,0 +1,584 @@
+package indexing;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A forward and inverted index that can be updated one document at a time.
+ *
+ * Only term counts, document lengths and document frequencies are stored. TFIDF
+ * values are computed from them when they are read, so adding, replacing or
+ * removing a document touches only that document's terms even though the
+ * number of documents, and with it every IDF, changes.
+ *
+ * Terms and documents are identified internally by the dense int ids of a
+ * TermDictionary and a DocumentTable, so each term and url string is stored
+ * once however many postings refer to it. Strings are only resolved when the
+ * index is read through the String based methods and views. Neither hands out
+ * an id twice, so the ids of removed documents and of terms no longer in any
+ * document are dead. Once there are more dead ids of either kind than live
+ * ones, and at least MIN_DEAD_IDS, both are rebuilt by indexing the live
+ * documents again, so their size follows the documents currently indexed
+ * rather than every document ever seen, at a constant share of a rebuild per
+ * removal.
+ *
+ * The inverted index has the same shape as the one built by
+ * IndexBuilder.buildInvertedIndex: a map of each term to a set of document/TFIDF
+ * entries with the highest TFIDF first, ties broken by document name. For a
+ * single term the IDF is the same for every document, so postings are kept
+ * ordered by term frequency, which gives the TFIDF order without having to
+ * reorder anything when the IDF changes. A term found in every document has
+ * all its TFIDF values at 0, so its postings are sorted by document name when
+ * they are read.
+ *
+ * @author clairewalker
+ *
+ */
+public class IncrementalIndex {
+	/**
+	 * fewest dead ids that make the dictionaries worth rebuilding
+	 */
+	public static final int MIN_DEAD_IDS = 1024;
+
+	private TermDictionary terms = new TermDictionary();
+	private DocumentTable documents = new DocumentTable();
+	// postings of each term by term id, null if no document contains the term
+	private final ArrayList<PostingSet> postingsByTerm = new ArrayList<>();
+	// postings of each document by doc id, sorted by term id. null for removed
+	// documents
+	private final ArrayList<Posting[]> postingsByDoc = new ArrayList<>();
+	// words each document was indexed from by doc id, to tell if it changed
+	private final ArrayList<List<String>> wordsByDoc = new ArrayList<>();
+	// number of terms contained in at least one document
+	private int numTerms;
+	private long numPostings;
+
+	/**
+	 * @return the dictionary of term ids. Terms no longer in any document keep
+	 *         their id until the dictionaries are rebuilt, which replaces it
+	 */
+	public TermDictionary getTermDictionary() {
+		return terms;
+	}
+
+	/**
+	 * @return the table of document ids and lengths. Replaced when the
+	 *         dictionaries are rebuilt
+	 */
+	public DocumentTable getDocumentTable() {
+		return documents;
+	}
+
+	/**
+	 * @return the number of documents in the index
+	 */
+	public int numDocuments() {
+		return documents.size();
+	}
+
+	/**
+	 * @return the number of distinct terms in the index
+	 */
+	public int numTerms() {
+		return numTerms;
+	}
+
+	/**
+	 * @return the number of (term, document) postings in the index
+	 */
+	public long numPostings() {
+		return numPostings;
+	}
+
+	/**
+	 * @param url
+	 * @return true if the document is in the index
+	 */
+	public boolean containsDocument(String url) {
+		return documents.id(url) >= 0;
+	}
+
+	/**
+	 * @param term
+	 * @return the number of documents containing term
+	 */
+	public int documentFrequency(String term) {
+		PostingSet set = postingSet(terms.get(term));
+		return set == null ? 0 : set.df;
+	}
+
+	/**
+	 * Adds a document, replacing the document with the same url if there is one.
+	 * Does nothing if the words are the same as the ones already indexed. Passing
+	 * the same list again, as parseFeed does for an article its FetchCache found
+	 * unchanged, is recognised without looking at the words
+	 *
+	 * @param url
+	 * @param words the words in the document, as returned by parseFeed. Kept by
+	 *              the index, so they must not be changed afterwards
+	 * @return true if the index changed
+	 */
+	public boolean addDocument(String url, List<String> words) {
+		int existing = documents.id(url);
+		if (existing >= 0) {
+			List<String> indexed = wordsByDoc.get(existing);
+			// a list fetched again is compared word by word, stopping at the first
+			// difference
+			if (indexed == words || (indexed.size() == words.size() && indexed.equals(words))) {
+				return false;
+			}
+			removeDocument(url);
+		}
+
+		// look up the id of each word, then sort so equal ids are next to each other
+		int[] ids = new int[words.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = terms.add(words.get(i));
+		}
+		Arrays.sort(ids);
+		int docId = documents.add(url, ids.length);
+
+		// one posting per run of equal term ids
+		List<Posting> postings = new ArrayList<>();
+		int i = 0;
+		while (i < ids.length) {
+			int termId = ids[i];
+			int j = i;
+			while (j < ids.length && ids[j] == termId) {
+				j++;
+			}
+			PostingSet set = postingSet(termId);
+			if (set == null) {
+				set = new PostingSet(termId);
+				while (postingsByTerm.size() <= termId) {
+					postingsByTerm.add(null);
+				}
+				postingsByTerm.set(termId, set);
+				numTerms++;
+			}
+			set.df++;
+			Posting p = new Posting(docId, set, j - i);
+			set.byTf.add(p);
+			postings.add(p);
+			i = j;
+		}
+		while (postingsByDoc.size() <= docId) {
+			postingsByDoc.add(null);
+		}
+		postingsByDoc.set(docId, postings.toArray(new Posting[postings.size()]));
+		while (wordsByDoc.size() <= docId) {
+			wordsByDoc.add(null);
+		}
+		wordsByDoc.set(docId, words);
+		numPostings += postings.size();
+		return true;
+	}
+
+	/**
+	 * @param url
+	 * @return true if the document was in the index
+	 */
+	public boolean removeDocument(String url) {
+		int docId = documents.id(url);
+		if (docId < 0) {
+			return false;
+		}
+		for (Posting p : postingsByDoc.get(docId)) {
+			PostingSet set = p.set;
+			set.byTf.remove(p);
+			set.df--;
+			// the last document containing the term is gone
+			if (set.df == 0) {
+				postingsByTerm.set(set.termId, null);
+				numTerms--;
+			}
+		}
+		numPostings -= postingsByDoc.get(docId).length;
+		postingsByDoc.set(docId, null);
+		wordsByDoc.set(docId, null);
+		documents.remove(docId);
+		compactIfNeeded();
+		return true;
+	}
+
+	/**
+	 * Rebuilds the dictionaries once they hold more dead ids than live ones
+	 */
+	private void compactIfNeeded() {
+		int deadDocs = documents.maxId() - documents.size();
+		int deadTerms = terms.size() - numTerms;
+		if (deadDocs <= Math.max(MIN_DEAD_IDS, documents.size())
+				&& deadTerms <= Math.max(MIN_DEAD_IDS, numTerms)) {
+			return;
+		}
+		// index the live documents again, in doc id order, with fresh ids
+		List<String> urls = new ArrayList<>();
+		List<List<String>> words = new ArrayList<>();
+		for (int docId = 0; docId < documents.maxId(); docId++) {
+			if (documents.contains(docId)) {
+				urls.add(documents.url(docId));
+				words.add(wordsByDoc.get(docId));
+			}
+		}
+		terms = new TermDictionary();
+		documents = new DocumentTable();
+		postingsByTerm.clear();
+		postingsByDoc.clear();
+		wordsByDoc.clear();
+		numTerms = 0;
+		numPostings = 0;
+		for (int i = 0; i < urls.size(); i++) {
+			addDocument(urls.get(i), words.get(i));
+		}
+	}
+
+	/**
+	 * Brings the index in line with a freshly parsed set of documents: documents
+	 * not in the index are added, documents whose words changed are replaced and
+	 * documents no longer present are removed. Unchanged documents are not
+	 * touched.
+	 *
+	 * @param current a map computed by parseFeed
+	 * @return Set<String> urls of the documents that were added, replaced or
+	 *         removed
+	 */
+	public Set<String> refresh(Map<String, List<String>> current) {
+		Set<String> changed = new HashSet<>();
+		List<String> gone = new ArrayList<>();
+		for (String url : documents()) {
+			if (!current.containsKey(url)) {
+				gone.add(url);
+			}
+		}
+		for (String url : gone) {
+			removeDocument(url);
+			changed.add(url);
+		}
+		for (Entry<String, List<String>> e : current.entrySet()) {
+			if (addDocument(e.getKey(), e.getValue())) {
+				changed.add(e.getKey());
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * @param term
+	 * @param url
+	 * @return TFIDF of term in the document, 0 if the term isn't in it
+	 */
+	public double score(String term, String url) {
+		int docId = documents.id(url);
+		int termId = terms.get(term);
+		if (docId < 0 || termId < 0) {
+			return 0;
+		}
+		// postings of a document are sorted by term id
+		Posting[] postings = postingsByDoc.get(docId);
+		int lo = 0;
+		int hi = postings.length - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int id = postings[mid].set.termId;
+			if (id < termId) {
+				lo = mid + 1;
+			} else if (id > termId) {
+				hi = mid - 1;
+			} else {
+				return postings[mid].getValue();
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @param url
+	 * @return the document's terms and their TFIDF values, sorted by term, or null
+	 *         if the document isn't in the index
+	 */
+	public Map<String, Double> forwardIndex(String url) {
+		int docId = documents.id(url);
+		if (docId < 0) {
+			return null;
+		}
+		Map<String, Double> index = new TreeMap<>();
+		for (Posting p : postingsByDoc.get(docId)) {
+			index.put(terms.term(p.set.termId), p.getValue());
+		}
+		return index;
+	}
+
+	/**
+	 * Computes the whole forward index, as returned by buildIndex. This walks every
+	 * document, so prefer forwardIndex(url) where possible
+	 *
+	 * @return the forward index
+	 */
+	public Map<String, Map<String, Double>> forwardIndex() {
+		Map<String, Map<String, Double>> index = new TreeMap<>();
+		for (String url : documents()) {
+			index.put(url, forwardIndex(url));
+		}
+		return index;
+	}
+
+	/**
+	 * Copies the term counts of the documents currently in the index, for
+	 * instance to write them to an IndexSegment. Term ids are renumbered so no id
+	 * is left unused
+	 *
+	 * @return ForwardIndex the counts
+	 */
+	public ForwardIndex snapshot() {
+		TermDictionary dense = new TermDictionary();
+		int n = documents.size();
+		String[] urls = new String[n];
+		int[] lengths = new int[n];
+		int[][] termIds = new int[n][];
+		int[][] counts = new int[n][];
+		int[] df = new int[Math.max(16, numTerms)];
+		int doc = 0;
+		for (int docId = 0; docId < postingsByDoc.size(); docId++) {
+			Posting[] postings = postingsByDoc.get(docId);
+			if (postings == null) {
+				continue;
+			}
+			urls[doc] = documents.url(docId);
+			lengths[doc] = documents.length(docId);
+			long[] pairs = new long[postings.length];
+			for (int slot = 0; slot < postings.length; slot++) {
+				int id = dense.add(terms.term(postings[slot].set.termId));
+				pairs[slot] = ((long) id << 32) | postings[slot].count;
+				df[id]++;
+			}
+			ForwardIndex.splitPairs(pairs, termIds, counts, doc);
+			doc++;
+		}
+		return new ForwardIndex(dense, urls, lengths, termIds, counts, Arrays.copyOf(df, dense.size()));
+	}
+
+	/**
+	 * @return read-only view of the inverted index, in the shape returned by
+	 *         buildInvertedIndex. The view reflects later updates
+	 */
+	public Map<String, Set<Entry<String, Double>>> invertedIndex() {
+		return invertedIndexView;
+	}
+
+	/**
+	 * @return read-only view of the urls of the documents in the index
+	 */
+	public Collection<String> documents() {
+		return documentsView;
+	}
+
+	/**
+	 * @return the postings of a term, or null if no document contains it
+	 */
+	private PostingSet postingSet(int termId) {
+		if (termId < 0 || termId >= postingsByTerm.size()) {
+			return null;
+		}
+		return postingsByTerm.get(termId);
+	}
+
+	/**
+	 * Orders postings by term frequency, highest first, then by document name.
+	 * Since every posting of a term shares the same IDF this is also TFIDF order
+	 */
+	private final Comparator<Posting> postingOrder = new Comparator<Posting>() {
+		@Override
+		public int compare(Posting p1, Posting p2) {
+			int byTf = Double.compare(p2.tf(), p1.tf());
+			if (byTf != 0) {
+				return byTf;
+			}
+			return p1.getKey().compareTo(p2.getKey());
+		}
+	};
+
+	/**
+	 * The urls of the documents in the index
+	 */
+	private final Collection<String> documentsView = new AbstractCollection<String>() {
+		@Override
+		public Iterator<String> iterator() {
+			return new Iterator<String>() {
+				private int next = advance(0);
+
+				private int advance(int from) {
+					while (from < documents.maxId() && !documents.contains(from)) {
+						from++;
+					}
+					return from;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return next < documents.maxId();
+				}
+
+				@Override
+				public String next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					String url = documents.url(next);
+					next = advance(next + 1);
+					return url;
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return documents.size();
+		}
+	};
+
+	/**
+	 * The inverted index keyed by term string
+	 */
+	private final Map<String, Set<Entry<String, Double>>> invertedIndexView = new AbstractMap<String, Set<Entry<String, Double>>>() {
+		@Override
+		public Set<Entry<String, Double>> get(Object term) {
+			return term instanceof String ? postingSet(terms.get((String) term)) : null;
+		}
+
+		@Override
+		public boolean containsKey(Object term) {
+			return get(term) != null;
+		}
+
+		@Override
+		public int size() {
+			return numTerms;
+		}
+
+		@Override
+		public Set<Entry<String, Set<Entry<String, Double>>>> entrySet() {
+			return new AbstractSet<Entry<String, Set<Entry<String, Double>>>>() {
+				@Override
+				public Iterator<Entry<String, Set<Entry<String, Double>>>> iterator() {
+					return new Iterator<Entry<String, Set<Entry<String, Double>>>>() {
+						private int next = advance(0);
+
+						private int advance(int from) {
+							while (from < postingsByTerm.size() && postingsByTerm.get(from) == null) {
+								from++;
+							}
+							return from;
+						}
+
+						@Override
+						public boolean hasNext() {
+							return next < postingsByTerm.size();
+						}
+
+						@Override
+						public Entry<String, Set<Entry<String, Double>>> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							PostingSet set = postingsByTerm.get(next);
+							next = advance(next + 1);
+							return new AbstractMap.SimpleImmutableEntry<String, Set<Entry<String, Double>>>(
+									terms.term(set.termId), set);
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return numTerms;
+				}
+			};
+		}
+	};
+
+	/**
+	 * Read-only view of the postings of one term
+	 */
+	private class PostingSet extends AbstractSet<Entry<String, Double>> {
+		private final int termId;
+		private final TreeSet<Posting> byTf = new TreeSet<>(postingOrder);
+		// number of documents containing the term
+		private int df;
+
+		private PostingSet(int termId) {
+			this.termId = termId;
+		}
+
+		@Override
+		public Iterator<Entry<String, Double>> iterator() {
+			// every TFIDF is 0, so only the document names order the postings
+			if (df == documents.size()) {
+				List<Entry<String, Double>> byName = new ArrayList<Entry<String, Double>>(byTf);
+				byName.sort(Entry.comparingByKey());
+				return Collections.unmodifiableList(byName).iterator();
+			}
+			return Collections.<Entry<String, Double>>unmodifiableSet(byTf).iterator();
+		}
+
+		@Override
+		public int size() {
+			return byTf.size();
+		}
+	}
+
+	/**
+	 * The count of one term in one document. Its value is the term's TFIDF,
+	 * computed from the current document frequency and number of documents
+	 */
+	private class Posting implements Entry<String, Double> {
+		private final int docId;
+		private final PostingSet set;
+		private final int count;
+
+		private Posting(int docId, PostingSet set, int count) {
+			this.docId = docId;
+			this.set = set;
+			this.count = count;
+		}
+
+		private double tf() {
+			return (double) count / documents.length(docId);
+		}
+
+		@Override
+		public String getKey() {
+			return documents.url(docId);
+		}
+
+		@Override
+		public Double getValue() {
+			double IDF = Math.log((double) documents.size() / set.df);
+			return tf() * IDF;
+		}
+
+		@Override
+		public Double setValue(Double value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+}
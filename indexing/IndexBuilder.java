@@ -4,7 +4,10 @@ import java.io.*;
 import java.io.IOException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
+import org.jsoup.Connection;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -17,6 +20,122 @@ import org.jsoup.select.Elements;
 public class IndexBuilder implements IIndexBuilder {
 	private Map<String, List<String>> task2map;
 	private HashMap<String, Map<String, Integer>> mapOfWordsToDocCountPairs;
+	private ConcurrentFetcher fetcher;
+	private FetchCache cache;
+	private final IncrementalIndex incrementalIndex = new IncrementalIndex();
+	private ForwardIndex forwardIndex;
+	private Map<String, Map<String, Double>> forwardIndexMap;
+	private int parallelism = 1;
+	private boolean positional;
+	private PositionalIndex positionalIndex;
+	// true if positionalIndex is kept in step with incrementalIndex by updateIndex
+	private boolean positionsUpdated;
+	// words last parsed from each article fetched through the cache. An article
+	// the cache finds unchanged gets the same list back, so updateIndex can tell
+	// it is unchanged without looking at its words
+	private final Map<String, List<String>> lastWords = new ConcurrentHashMap<>();
+	private ForkJoinPool pool;
+	private IndexMetrics metrics;
+
+	/**
+	 * @return the fetcher used by parseFeed, or null if feeds are fetched one after
+	 *         another
+	 */
+	public ConcurrentFetcher getConcurrentFetcher() {
+		return this.fetcher;
+	}
+
+	/**
+	 * @param f fetcher parseFeed uses to fetch feeds and articles concurrently.
+	 *          null restores sequential fetching
+	 */
+	public void setConcurrentFetcher(ConcurrentFetcher f) {
+		this.fetcher = f;
+	}
+
+	/**
+	 * @return the cache feeds and articles are fetched through, or null if there
+	 *         is none
+	 */
+	public FetchCache getFetchCache() {
+		return this.cache;
+	}
+
+	/**
+	 * @param c cache to fetch feeds and articles through. null fetches everything
+	 *          from the network
+	 */
+	public void setFetchCache(FetchCache c) {
+		this.cache = c;
+		lastWords.clear();
+	}
+
+	/**
+	 * @return number of threads buildIndex and buildInvertedIndex use
+	 */
+	public int getParallelism() {
+		return this.parallelism;
+	}
+
+	/**
+	 * @param n number of threads buildIndex and buildInvertedIndex split the
+	 *          documents between. 1, the default, builds on the calling thread
+	 * @throws IllegalArgumentException if n is less than 1
+	 */
+	public void setParallelism(int n) throws IllegalArgumentException {
+		if (n < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		if (pool != null) {
+			pool.shutdown();
+		}
+		this.parallelism = n;
+		this.pool = n > 1 ? new ForkJoinPool(n) : null;
+	}
+
+	/**
+	 * @return true if buildIndex and updateIndex also build a positional index
+	 */
+	public boolean isPositional() {
+		return this.positional;
+	}
+
+	/**
+	 * @param p true to also build a positional index, for phrase queries, in
+	 *          buildIndex and updateIndex. buildIndex builds it from all the
+	 *          documents; updateIndex only adds and removes the documents that
+	 *          changed
+	 */
+	public void setPositional(boolean p) {
+		this.positional = p;
+		if (!p) {
+			this.positionalIndex = null;
+		}
+	}
+
+	/**
+	 * @return the positional index of the documents last indexed, or null if
+	 *         positions aren't being kept
+	 */
+	public PositionalIndex getPositionalIndex() {
+		return this.positionalIndex;
+	}
+
+	/**
+	 * @return the metrics the stages of building are recorded in, or null if they
+	 *         aren't being recorded
+	 */
+	public IndexMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * @param m metrics to record fetches, parsing, tokenizing and index building
+	 *          in. null, the default, records nothing and doesn't read the clock
+	 */
+	public void setMetrics(IndexMetrics m) {
+		this.metrics = m;
+	}
 
 	/**
 	 * Helper method used in ParseFeed Used to parse individual RSS feeds from list
@@ -27,20 +146,53 @@ public class IndexBuilder implements IIndexBuilder {
 	 */
 	private List<String> parseRSS(String rss) {
 		List<String> htmlDocs = new LinkedList<>();
+		IndexMetrics m = metrics;
 		try {
-			Document doc = Jsoup.connect(rss).get();
+			long start = m != null ? System.nanoTime() : 0;
+			Document doc;
+			if (cache != null) {
+				FetchCache.Page page = cache.fetch(rss);
+				if (m != null) {
+					start = fetched(m, start, page.isNotModified() ? 0 : page.getBody().length);
+				}
+				doc = page.parse();
+			} else if (m != null) {
+				// read the body before parsing it so its size can be counted
+				Connection.Response res = Jsoup.connect(rss).execute();
+				start = fetched(m, start, res.bodyAsBytes().length);
+				doc = res.parse();
+			} else {
+				doc = Jsoup.connect(rss).get();
+			}
 			Elements links = doc.getElementsByTag("link");
 			for (Element link : links) {
 				String linkText = link.text();
 				htmlDocs.add(linkText);
 			}
+			if (m != null) {
+				m.record(IndexMetrics.Stage.PARSE, start);
+				m.addFeeds(1);
+			}
 
 		} catch (IOException e) {
+			if (m != null) {
+				m.fetchFailed(ConcurrentFetcher.hostOf(rss));
+			}
 			e.printStackTrace();
 		}
 		return htmlDocs;
 	}
 
+	/**
+	 * Records a fetch that started at start and downloaded bytes
+	 *
+	 * @return the time now, to time parsing from
+	 */
+	private static long fetched(IndexMetrics m, long start, long bytes) {
+		m.addBytesFetched(bytes);
+		return m.record(IndexMetrics.Stage.FETCH, start);
+	}
+
 	/**
 	 * Helper method used to parse words from individual html doc
 	 * 
@@ -50,13 +202,59 @@ public class IndexBuilder implements IIndexBuilder {
 	private List<String> parseIndividualHTMLContent(String url) {
 		Document doc;
 		List<String> words = new ArrayList<>();
+		IndexMetrics m = metrics;
 		try {
-			doc = Jsoup.connect(url).get();
-			String body = doc.body().text();
-			String bodyNoPunctuationLowercase = body.replaceAll("\\p{Punct}", "").toLowerCase();
-			words = Arrays.asList(bodyNoPunctuationLowercase.split(" "));
+			long start = m != null ? System.nanoTime() : 0;
+			FetchCache.Page page = null;
+			if (cache != null) {
+				page = cache.fetch(url);
+				if (m != null) {
+					start = fetched(m, start, page.isNotModified() ? 0 : page.getBody().length);
+				}
+				// an unchanged article doesn't need parsing again
+				if (page.isNotModified()) {
+					List<String> cached = lastWords.get(url);
+					if (cached == null) {
+						cached = cache.getWords(url);
+					}
+					if (cached != null) {
+						lastWords.put(url, cached);
+						if (m != null) {
+							m.addDocuments(1);
+							m.addTokens(cached.size());
+						}
+						return cached;
+					}
+				}
+				doc = page.parse();
+			} else if (m != null) {
+				// read the body before parsing it so its size can be counted
+				Connection.Response res = Jsoup.connect(url).execute();
+				start = fetched(m, start, res.bodyAsBytes().length);
+				doc = res.parse();
+			} else {
+				doc = Jsoup.connect(url).get();
+			}
+			String text = doc.body().text();
+			if (m != null) {
+				start = m.record(IndexMetrics.Stage.PARSE, start);
+			}
+			// split the body into lowercase words with punctuation removed
+			words = new Tokenizer().tokenize(text);
+			if (m != null) {
+				m.record(IndexMetrics.Stage.TOKENIZE, start);
+				m.addDocuments(1);
+				m.addTokens(words.size());
+			}
+			if (page != null) {
+				cache.putWords(url, words);
+				lastWords.put(url, words);
+			}
 
 		} catch (IOException e) {
+			if (m != null) {
+				m.fetchFailed(ConcurrentFetcher.hostOf(url));
+			}
 			e.printStackTrace();
 		}
 
@@ -65,6 +263,15 @@ public class IndexBuilder implements IIndexBuilder {
 
 	@Override
 	public Map<String, List<String>> parseFeed(List<String> feeds) {
+		// fetch concurrently if a fetcher has been set
+		if (fetcher != null) {
+			Map<String, List<String>> mapOfDocsAndWords = fetcher.fetch(feeds, this::parseRSS,
+					this::parseIndividualHTMLContent);
+			lastWords.keySet().retainAll(mapOfDocsAndWords.keySet());
+			this.task2map = mapOfDocsAndWords;
+			return mapOfDocsAndWords;
+		}
+
 		Map<String, List<String>> mapOfDocsAndWords = new HashMap<>();
 
 		// for each rss feed
@@ -80,6 +287,8 @@ public class IndexBuilder implements IIndexBuilder {
 			}
 		}
 
+		// forget the articles no longer in any feed
+		lastWords.keySet().retainAll(mapOfDocsAndWords.keySet());
 		this.task2map = mapOfDocsAndWords;
 		return mapOfDocsAndWords;
 	}
@@ -124,81 +333,131 @@ public class IndexBuilder implements IIndexBuilder {
 		return countsOfWordPerDoc;
 	}
 
-	@Override
-	public Map<String, Map<String, Double>> buildIndex(Map<String, List<String>> docs) {
-		int numDocs = docs.size();
-
-		// create new map
-		Map<String, Map<String, Double>> indexMap = new TreeMap<String, Map<String, Double>>();
-		// get interim map mapping words to doc/TDIFT pairs
-		HashMap<String, Map<String, Integer>> mapA = buildMapOfWordsToDocCountPairs();
-		// iterate through the task2map for each document
-		for (Entry doc : docs.entrySet()) {
-			String docname = (String) doc.getKey();
-			// make new map
-			Map<String, Double> wordTFIDFPairs = new TreeMap<String, Double>();
-			// get the documents list of words
-			List<String> wordsInThisDoc = (List<String>) doc.getValue();
-			int numWordsInDoc = wordsInThisDoc.size();
-
-			// iterate through list of words
-			for (String word : wordsInThisDoc) {
-				// check if word is a key in hte wordTFIDFPairs map
-				if (wordTFIDFPairs.containsKey(word)) {
-					// if yes, continue
-					continue;
-				}
-				// else calculate TFIDF and add it to the treemap for this document
-				else {
-					Integer thisDocCount = mapA.get(word).get(docname);
-					int numDocsWithThisWord = mapA.get(word).size();
-					double TF = (double) thisDocCount / numWordsInDoc;
-					double IDF = Math.log((double) numDocs / numDocsWithThisWord);
-					double TFIDF = TF * IDF;
-					wordTFIDFPairs.put(word, TFIDF);
+	/**
+	 * Brings the incremental index kept by this builder in line with a freshly
+	 * parsed set of documents. Only documents that were added, changed or removed
+	 * since the last update are reindexed, so a refresh costs time proportional to
+	 * the change rather than to the size of the corpus
+	 * 
+	 * @param docs a map computed by parseFeed
+	 * @return IncrementalIndex the updated index
+	 */
+	public IncrementalIndex updateIndex(Map<String, List<String>> docs) {
+		this.task2map = docs;
+		IndexMetrics m = metrics;
+		long start = m != null ? System.nanoTime() : 0;
+		Set<String> changed = incrementalIndex.refresh(docs);
+		if (positional) {
+			if (positionalIndex == null || !positionsUpdated) {
+				positionalIndex = PositionalIndex.build(docs);
+				positionsUpdated = true;
+			} else {
+				// make the same changes to the positions
+				for (String url : changed) {
+					List<String> words = docs.get(url);
+					if (words != null) {
+						positionalIndex.addDocument(url, words);
+					} else {
+						positionalIndex.removeDocument(url);
+					}
 				}
 			}
-			// add mapping for this document and its new map of word/TDIDF pairs
-			indexMap.put(docname, wordTFIDFPairs);
-
 		}
+		if (m != null) {
+			m.record(IndexMetrics.Stage.UPDATE, start);
+			m.setUniqueTerms(incrementalIndex.numTerms());
+			m.setPostings(incrementalIndex.numPostings());
+		}
+		return incrementalIndex;
+	}
+
+	/**
+	 * @return IncrementalIndex the index kept up to date by updateIndex
+	 */
+	public IncrementalIndex getIncrementalIndex() {
+		return incrementalIndex;
+	}
 
+	/**
+	 * @return ForwardIndex the term counts behind the last call to buildIndex, or
+	 *         null if it hasn't been called
+	 */
+	public ForwardIndex getForwardIndex() {
+		return forwardIndex;
+	}
+
+	@Override
+	public Map<String, Map<String, Double>> buildIndex(Map<String, List<String>> docs) {
+		this.task2map = docs;
+		IndexMetrics m = metrics;
+		long start = m != null ? System.nanoTime() : 0;
+		// count every term in every document in a single pass over the words, and
+		// derive the TFIDF of each document's terms from the counts
+		ForwardIndex counts;
+		Map<String, Map<String, Double>> indexMap;
+		if (pool != null) {
+			counts = ForwardIndex.build(docs, pool);
+			indexMap = counts.toForwardMap(pool);
+		} else {
+			counts = ForwardIndex.build(docs);
+			indexMap = counts.toForwardMap();
+		}
+		this.forwardIndex = counts;
+		this.forwardIndexMap = indexMap;
+		if (m != null) {
+			m.record(IndexMetrics.Stage.COUNT, start);
+			long postings = 0;
+			for (Map<String, Double> terms : indexMap.values()) {
+				postings += terms.size();
+			}
+			m.setPostings(postings);
+		}
+		if (positional) {
+			positionalIndex = PositionalIndex.build(docs);
+			positionsUpdated = false;
+		}
 		return indexMap;
 	}
 
 	@Override
 	public Map<?, ?> buildInvertedIndex(Map<String, Map<String, Double>> index) {
+		IndexMetrics m = metrics;
+		long start = m != null ? System.nanoTime() : 0;
+		Map<?, ?> invertedIndex = invert(index);
+		if (m != null) {
+			m.record(IndexMetrics.Stage.INVERT, start);
+			m.setUniqueTerms(invertedIndex.size());
+		}
+		return invertedIndex;
+	}
+
+	/**
+	 * Helper method for buildInvertedIndex
+	 *
+	 * @param index
+	 * @return the inverted index of index
+	 */
+	private Map<?, ?> invert(Map<String, Map<String, Double>> index) {
+		// the index just built can be inverted straight from its counts
+		if (index == forwardIndexMap) {
+			return pool != null ? forwardIndex.toInvertedMap(createComparator(), pool)
+					: forwardIndex.toInvertedMap(createComparator());
+		}
+
 		HashMap<String, TreeSet<Entry<String, Double>>> invertedIndex = new HashMap<>();
-		// iterate through all words in the interim map of words to their document/TDIFT pairs
-		for (Entry mapAEntry : mapOfWordsToDocCountPairs.entrySet()) {
-			String word = (String) mapAEntry.getKey();
-			HashMap<String, Integer> pairsDocCount = (HashMap<String, Integer>) mapAEntry.getValue();
-
-			// for each map entry for this word (aka for each document containing the word)
-			for (Entry docPair : pairsDocCount.entrySet()) {
-				//get the document name
-				String docname = (String) docPair.getKey();
-				//get the map that is the value for that document key in the forward index
-				TreeMap<String, Double> indexPairsMap = (TreeMap<String, Double>) index.get(docname);
-				//in that map, get the value associated with key of the word we are looking at
-				double TDIFT = indexPairsMap.get(word);
-				//if the word is already in the inverted index
-				if (invertedIndex.containsKey(word)) {
-					//create a new entry, and add it to that word's treeset in the inverted index
-					Entry<String, Double> e = new AbstractMap.SimpleEntry<>(docname, TDIFT);
-					invertedIndex.get(word).add(e);
-				} else {
-					//else, create a new treeset for the word
-					TreeSet<Entry<String, Double>> setForThisWord = new TreeSet<Entry<String, Double>>(
-							createComparator());
-					//add this new entry to that treeset
-					Entry<String, Double> e = new AbstractMap.SimpleEntry<>(docname, TDIFT);
-					//and add the <word, treeset> pair to the inverted index
-					setForThisWord.add(e);
+		// otherwise go through each document's word/TFIDF pairs once
+		for (Entry<String, Map<String, Double>> doc : index.entrySet()) {
+			String docname = doc.getKey();
+			for (Entry<String, Double> pair : doc.getValue().entrySet()) {
+				String word = pair.getKey();
+				TreeSet<Entry<String, Double>> setForThisWord = invertedIndex.get(word);
+				// create a treeset the first time the word is seen
+				if (setForThisWord == null) {
+					setForThisWord = new TreeSet<Entry<String, Double>>(createComparator());
 					invertedIndex.put(word, setForThisWord);
 				}
+				setForThisWord.add(new AbstractMap.SimpleEntry<>(docname, pair.getValue()));
 			}
-
 		}
 		return invertedIndex;
 	}
@@ -286,14 +545,15 @@ public class IndexBuilder implements IIndexBuilder {
 			// write the number of words to the file
 			bw.write(numWordsAsAString);
 			bw.newLine();
-			// go through the homepage collection
+			// collect the words from the homepage collection
 			for (Entry<?, ?> e : homepage) {
-				String word = (String) e.getKey();
-				// for each word, write a line to the file
+				wordsWritten.add((String) e.getKey());
+			}
+			// and write a line for each, in lexicographic order so the file can be
+			// bulk loaded
+			for (String word : wordsWritten) {
 				bw.write("  1 " + word);
 				bw.newLine();
-				// and save it to the collection
-				wordsWritten.add(word);
 			}
 
 			bw.close();
@@ -303,20 +563,83 @@ public class IndexBuilder implements IIndexBuilder {
 		return wordsWritten;
 	}
 
+	@Override
+	public List<String> createAutocompleteFile(Map<?, ?> invertedIndex, TermWeighting weighting) {
+		// the words to write, without stop words, in lexicographic order. The
+		// compressed index already lists its terms in order, so the sort is only
+		// needed for a HashMap
+		String[] words = new String[invertedIndex.size()];
+		int numWords = 0;
+		boolean sorted = true;
+		for (Object key : invertedIndex.keySet()) {
+			String word = (String) key;
+			if (STOPWORDS.contains(word)) {
+				continue;
+			}
+			sorted &= numWords == 0 || words[numWords - 1].compareTo(word) < 0;
+			words[numWords++] = word;
+		}
+		words = Arrays.copyOf(words, numWords);
+		if (!sorted) {
+			Arrays.sort(words);
+		}
+
+		// create new file
+		try {
+			BufferedWriter bw = new BufferedWriter(new FileWriter("autocomplete.txt"));
+			// write the number of words to the file
+			bw.write(String.valueOf(numWords));
+			bw.newLine();
+			// and a line for each word with its weight, read straight from its postings.
+			// Every word keeps a weight of at least 1 so it can still be suggested
+			for (String word : words) {
+				long weight = Math.max(1, weighting.weight(word, (Collection<?>) invertedIndex.get(word)));
+				bw.write("  " + weight + " " + word);
+				bw.newLine();
+			}
+			bw.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return Arrays.asList(words);
+	}
+
 	@Override
 	public List<String> searchArticles(String queryTerm, Map<?, ?> invertedIndex) {
-		List<String> docsList = new LinkedList<String>();
+		return searchArticles(queryTerm, invertedIndex, 0, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public List<String> searchArticles(String queryTerm, Map<?, ?> invertedIndex, int offset, int limit)
+			throws IllegalArgumentException {
+		if (offset < 0 || limit < 0) {
+			throw new IllegalArgumentException("offset and limit must not be negative");
+		}
+		// find the word as a key in the inverted index
+		Collection<?> wordSet = (Collection<?>) invertedIndex.get(queryTerm);
 		// if the key is not in the inverted index, return an empty list
-		if (!invertedIndex.containsKey(queryTerm)) {
+		if (wordSet == null || offset >= wordSet.size()) {
+			return new ArrayList<String>(0);
+		}
+		int end = (int) Math.min((long) offset + limit, wordSet.size());
+		List<String> docsList = new ArrayList<String>(end - offset);
+
+		// postings that can be read at any rank are read from offset directly
+		if (wordSet instanceof RankedPostings) {
+			RankedPostings ranked = (RankedPostings) wordSet;
+			for (int rank = offset; rank < end; rank++) {
+				docsList.add(ranked.documentAt(rank));
+			}
 			return docsList;
 		}
 
-		// find the word as a key in the inverted index
-		Set<Entry> wordSet = (Set) invertedIndex.get(queryTerm);
-		// iterate through all entries in this map, storing its key into a new list
-		for (Entry<?, ?> docPair : wordSet) {
-			String docname = (String) docPair.getKey();
-			docsList.add(docname);
+		// otherwise walk the postings in order, stopping at the end of the page
+		Iterator<?> it = wordSet.iterator();
+		for (int rank = 0; rank < end; rank++) {
+			Entry<?, ?> docPair = (Entry<?, ?>) it.next();
+			if (rank >= offset) {
+				docsList.add((String) docPair.getKey());
+			}
 		}
 		return docsList;
 	}
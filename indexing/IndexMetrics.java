@@ -0,0 +1,534 @@
+package indexing;
+
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and per-stage timings of an IndexBuilder, to find out which stage a
+ * slow build spends its time in. Set with IndexBuilder.setMetrics; a builder
+ * without metrics does not read the clock or count anything.
+ *
+ * Each stage keeps the number of times it ran, the total and the longest time,
+ * and a histogram of its times from which percentiles are estimated. The
+ * histogram has four buckets per power of two nanoseconds, so a percentile is
+ * within 25% of the true value. Everything can be updated from any number of
+ * threads, as the concurrent fetcher does, and is read without stopping them,
+ * so a snapshot taken during a build may be slightly inconsistent.
+ *
+ * The metrics can be registered with the platform MBean server and watched in
+ * jconsole, or read with snapshot.
+ *
+ * @author clairewalker
+ *
+ */
+public class IndexMetrics implements IndexMetricsMXBean {
+	private static final int BUCKETS = 256;
+
+	/**
+	 * The stages of building an index that are timed
+	 */
+	public enum Stage {
+		/** downloading a feed or an article, or revalidating it in the cache */
+		FETCH,
+		/** parsing a feed's XML or an article's HTML */
+		PARSE,
+		/** splitting an article's text into words */
+		TOKENIZE,
+		/** counting terms and computing TFIDF in buildIndex */
+		COUNT,
+		/** building the inverted index in buildInvertedIndex */
+		INVERT,
+		/** adding changed documents to the incremental index in updateIndex */
+		UPDATE
+	}
+
+	private final EnumMap<Stage, Timer> timers = new EnumMap<>(Stage.class);
+	private final LongAdder feeds = new LongAdder();
+	private final LongAdder documents = new LongAdder();
+	private final LongAdder bytesFetched = new LongAdder();
+	private final LongAdder tokens = new LongAdder();
+	private final LongAdder fetchFailures = new LongAdder();
+	private final ConcurrentHashMap<String, LongAdder> fetchFailuresByHost = new ConcurrentHashMap<>();
+	private volatile long uniqueTerms;
+	private volatile long postings;
+	private ObjectName objectName;
+
+	/**
+	 * Creates metrics with every counter and timer at zero
+	 */
+	public IndexMetrics() {
+		for (Stage stage : Stage.values()) {
+			timers.put(stage, new Timer());
+		}
+	}
+
+	/**
+	 * Records one run of stage that started at startNanos
+	 *
+	 * @param stage
+	 * @param startNanos System.nanoTime() when the stage started
+	 * @return System.nanoTime() now, for timing the next stage from
+	 */
+	public long record(Stage stage, long startNanos) {
+		long now = System.nanoTime();
+		timers.get(stage).add(now - startNanos);
+		return now;
+	}
+
+	/**
+	 * @param n number of feeds read
+	 */
+	public void addFeeds(long n) {
+		feeds.add(n);
+	}
+
+	/**
+	 * @param n number of articles split into words
+	 */
+	public void addDocuments(long n) {
+		documents.add(n);
+	}
+
+	/**
+	 * @param n number of bytes downloaded
+	 */
+	public void addBytesFetched(long n) {
+		bytesFetched.add(n);
+	}
+
+	/**
+	 * @param n number of words split from articles
+	 */
+	public void addTokens(long n) {
+		tokens.add(n);
+	}
+
+	/**
+	 * Counts a feed or article that could not be fetched or parsed
+	 *
+	 * @param host host of its url
+	 */
+	public void fetchFailed(String host) {
+		fetchFailures.increment();
+		fetchFailuresByHost.computeIfAbsent(host, h -> new LongAdder()).increment();
+	}
+
+	/**
+	 * @param n number of distinct terms in the index just built
+	 */
+	public void setUniqueTerms(long n) {
+		uniqueTerms = n;
+	}
+
+	/**
+	 * @param n number of postings in the index just built
+	 */
+	public void setPostings(long n) {
+		postings = n;
+	}
+
+	@Override
+	public long getFeeds() {
+		return feeds.sum();
+	}
+
+	@Override
+	public long getDocuments() {
+		return documents.sum();
+	}
+
+	@Override
+	public long getBytesFetched() {
+		return bytesFetched.sum();
+	}
+
+	@Override
+	public long getTokens() {
+		return tokens.sum();
+	}
+
+	@Override
+	public long getUniqueTerms() {
+		return uniqueTerms;
+	}
+
+	@Override
+	public long getPostings() {
+		return postings;
+	}
+
+	@Override
+	public long getFetchFailures() {
+		return fetchFailures.sum();
+	}
+
+	@Override
+	public Map<String, Long> getFetchFailuresByHost() {
+		Map<String, Long> byHost = new TreeMap<>();
+		for (Map.Entry<String, LongAdder> e : fetchFailuresByHost.entrySet()) {
+			byHost.put(e.getKey(), e.getValue().sum());
+		}
+		return byHost;
+	}
+
+	@Override
+	public List<StageSnapshot> getStages() {
+		List<StageSnapshot> stages = new ArrayList<>();
+		for (Stage stage : Stage.values()) {
+			stages.add(timers.get(stage).snapshot(stage));
+		}
+		return stages;
+	}
+
+	/**
+	 * @param stage
+	 * @return timings of stage so far
+	 */
+	public StageSnapshot getStage(Stage stage) {
+		return timers.get(stage).snapshot(stage);
+	}
+
+	@Override
+	public void reset() {
+		feeds.reset();
+		documents.reset();
+		bytesFetched.reset();
+		tokens.reset();
+		fetchFailures.reset();
+		fetchFailuresByHost.clear();
+		uniqueTerms = 0;
+		postings = 0;
+		for (Timer timer : timers.values()) {
+			timer.reset();
+		}
+	}
+
+	/**
+	 * @return a copy of every counter and timer as they are now
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server as
+	 * newsAggregator:type=IndexMetrics,name=name
+	 *
+	 * @param name
+	 * @return the name they were registered under
+	 * @throws JMException if the name is invalid or already taken
+	 */
+	public synchronized ObjectName register(String name) throws JMException {
+		ObjectName on = new ObjectName("newsAggregator:type=IndexMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+		objectName = on;
+		return on;
+	}
+
+	/**
+	 * Removes the metrics from the platform MBean server, if they were registered
+	 *
+	 * @throws JMException
+	 */
+	public synchronized void unregister() throws JMException {
+		if (objectName != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			objectName = null;
+		}
+	}
+
+	/**
+	 * @return bucket of the histogram that nanos falls in
+	 */
+	static int bucket(long nanos) {
+		if (nanos < 4) {
+			return (int) Math.max(0, nanos);
+		}
+		// the power of two, then the next two bits below it
+		int log = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int) (nanos >>> (log - 2)) & 3;
+		return log * 4 + sub;
+	}
+
+	/**
+	 * @return the largest time in nanoseconds that falls in bucket
+	 */
+	static long upperBound(int bucket) {
+		if (bucket < 4) {
+			return bucket;
+		}
+		int log = bucket / 4;
+		int sub = bucket % 4;
+		return ((5L + sub) << (log - 2)) - 1;
+	}
+
+	/**
+	 * Count, total, maximum and histogram of the times of one stage
+	 */
+	private static class Timer {
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+		private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+		private void add(long nanos) {
+			count.increment();
+			totalNanos.add(nanos);
+			maxNanos.accumulate(nanos);
+			histogram.incrementAndGet(bucket(nanos));
+		}
+
+		private void reset() {
+			count.reset();
+			totalNanos.reset();
+			maxNanos.reset();
+			for (int i = 0; i < BUCKETS; i++) {
+				histogram.set(i, 0);
+			}
+		}
+
+		private StageSnapshot snapshot(Stage stage) {
+			long[] counts = new long[BUCKETS];
+			long n = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] = histogram.get(i);
+				n += counts[i];
+			}
+			long max = maxNanos.get();
+			return new StageSnapshot(stage.name(), n, totalNanos.sum() / 1e6, percentile(counts, n, 0.5, max) / 1e6,
+					percentile(counts, n, 0.9, max) / 1e6, percentile(counts, n, 0.99, max) / 1e6, max / 1e6);
+		}
+
+		/**
+		 * @return upper bound in nanoseconds of the bucket holding the p-th fraction
+		 *         of the n times, but no more than the longest time
+		 */
+		private static long percentile(long[] counts, long n, double p, long max) {
+			if (n == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(p * n);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(upperBound(i), max);
+				}
+			}
+			return max;
+		}
+	}
+
+	/**
+	 * Timings of one stage, in milliseconds
+	 */
+	public static class StageSnapshot {
+		private final String stage;
+		private final long count;
+		private final double totalMillis;
+		private final double p50Millis;
+		private final double p90Millis;
+		private final double p99Millis;
+		private final double maxMillis;
+
+		/**
+		 * @param stage       name of the stage
+		 * @param count       number of times it ran
+		 * @param totalMillis total time
+		 * @param p50Millis   median time
+		 * @param p90Millis   90th percentile
+		 * @param p99Millis   99th percentile
+		 * @param maxMillis   longest time
+		 */
+		@ConstructorProperties({ "stage", "count", "totalMillis", "p50Millis", "p90Millis", "p99Millis",
+				"maxMillis" })
+		public StageSnapshot(String stage, long count, double totalMillis, double p50Millis, double p90Millis,
+				double p99Millis, double maxMillis) {
+			this.stage = stage;
+			this.count = count;
+			this.totalMillis = totalMillis;
+			this.p50Millis = p50Millis;
+			this.p90Millis = p90Millis;
+			this.p99Millis = p99Millis;
+			this.maxMillis = maxMillis;
+		}
+
+		/**
+		 * @return name of the stage
+		 */
+		public String getStage() {
+			return stage;
+		}
+
+		/**
+		 * @return number of times the stage ran
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return total time spent in the stage
+		 */
+		public double getTotalMillis() {
+			return totalMillis;
+		}
+
+		/**
+		 * @return median time of the stage
+		 */
+		public double getP50Millis() {
+			return p50Millis;
+		}
+
+		/**
+		 * @return 90th percentile time of the stage
+		 */
+		public double getP90Millis() {
+			return p90Millis;
+		}
+
+		/**
+		 * @return 99th percentile time of the stage
+		 */
+		public double getP99Millis() {
+			return p99Millis;
+		}
+
+		/**
+		 * @return longest time of the stage
+		 */
+		public double getMaxMillis() {
+			return maxMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-8s %8d runs %10.1f ms total %8.2f p50 %8.2f p90 %8.2f p99 %8.2f max", stage,
+					count, totalMillis, p50Millis, p90Millis, p99Millis, maxMillis);
+		}
+	}
+
+	/**
+	 * Every counter and timer of an IndexMetrics at one moment
+	 */
+	public static class Snapshot {
+		private final long feeds;
+		private final long documents;
+		private final long bytesFetched;
+		private final long tokens;
+		private final long uniqueTerms;
+		private final long postings;
+		private final long fetchFailures;
+		private final Map<String, Long> fetchFailuresByHost;
+		private final List<StageSnapshot> stages;
+
+		private Snapshot(IndexMetrics metrics) {
+			this.feeds = metrics.getFeeds();
+			this.documents = metrics.getDocuments();
+			this.bytesFetched = metrics.getBytesFetched();
+			this.tokens = metrics.getTokens();
+			this.uniqueTerms = metrics.getUniqueTerms();
+			this.postings = metrics.getPostings();
+			this.fetchFailures = metrics.getFetchFailures();
+			this.fetchFailuresByHost = Collections.unmodifiableMap(metrics.getFetchFailuresByHost());
+			this.stages = Collections.unmodifiableList(metrics.getStages());
+		}
+
+		/**
+		 * @return number of feeds read
+		 */
+		public long getFeeds() {
+			return feeds;
+		}
+
+		/**
+		 * @return number of articles split into words
+		 */
+		public long getDocuments() {
+			return documents;
+		}
+
+		/**
+		 * @return number of body bytes downloaded
+		 */
+		public long getBytesFetched() {
+			return bytesFetched;
+		}
+
+		/**
+		 * @return number of words split from articles
+		 */
+		public long getTokens() {
+			return tokens;
+		}
+
+		/**
+		 * @return number of distinct terms in the index built last
+		 */
+		public long getUniqueTerms() {
+			return uniqueTerms;
+		}
+
+		/**
+		 * @return number of postings in the index built last
+		 */
+		public long getPostings() {
+			return postings;
+		}
+
+		/**
+		 * @return number of feeds and articles that could not be fetched or parsed
+		 */
+		public long getFetchFailures() {
+			return fetchFailures;
+		}
+
+		/**
+		 * @return number of fetch failures for each host that has had one
+		 */
+		public Map<String, Long> getFetchFailuresByHost() {
+			return fetchFailuresByHost;
+		}
+
+		/**
+		 * @return timings of each stage
+		 */
+		public List<StageSnapshot> getStages() {
+			return stages;
+		}
+
+		/**
+		 * @param stage
+		 * @return timings of stage
+		 */
+		public StageSnapshot getStage(Stage stage) {
+			return stages.get(stage.ordinal());
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format("%d feeds, %d documents, %.1f MB fetched, %d tokens, %d terms, %d postings%n",
+					feeds, documents, bytesFetched / 1e6, tokens, uniqueTerms, postings));
+			sb.append(String.format("%d fetch failures %s%n", fetchFailures, fetchFailuresByHost));
+			for (StageSnapshot stage : stages) {
+				sb.append(stage).append(String.format("%n"));
+			}
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package indexing;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The attributes IndexMetrics exposes over JMX, for jconsole or any other JMX
+ * client. Counters are totals since the metrics were created or last reset;
+ * uniqueTerms and postings describe the index built last.
+ *
+ * @author clairewalker
+ *
+ */
+public interface IndexMetricsMXBean {
+
+	/**
+	 * @return number of feeds fetched and read
+	 */
+	public long getFeeds();
+
+	/**
+	 * @return number of articles fetched and split into words
+	 */
+	public long getDocuments();
+
+	/**
+	 * @return number of body bytes downloaded, not counting pages the server
+	 *         answered with a 304
+	 */
+	public long getBytesFetched();
+
+	/**
+	 * @return number of words split from articles
+	 */
+	public long getTokens();
+
+	/**
+	 * @return number of distinct terms in the index built last
+	 */
+	public long getUniqueTerms();
+
+	/**
+	 * @return number of (term, document) postings in the index built last
+	 */
+	public long getPostings();
+
+	/**
+	 * @return number of feeds and articles that could not be fetched or parsed
+	 */
+	public long getFetchFailures();
+
+	/**
+	 * @return number of fetch failures for each host that has had one
+	 */
+	public Map<String, Long> getFetchFailuresByHost();
+
+	/**
+	 * @return timings of each stage of building the index
+	 */
+	public List<IndexMetrics.StageSnapshot> getStages();
+
+	/**
+	 * Sets every counter and timer back to zero
+	 */
+	public void reset();
+}
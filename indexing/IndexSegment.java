@@ -0,0 +1,470 @@
+package indexing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * An index saved to a single file: the inverted index as PostingsLists, the
+ * forward index as each document's term counts and the document table of urls
+ * and lengths.
+ *
+ * A segment is opened by memory-mapping the file, so only the term and url
+ * strings are read up front and the postings are paged in as they are used.
+ *
+ * The file starts with a magic number, a format version and the offset, length
+ * and CRC32 of each section, followed by a CRC32 of the header itself. A
+ * segment is written to a temporary file and moved into place once complete,
+ * and open checks every checksum, so a partly written or damaged segment is
+ * rejected rather than read.
+ *
+ * Layout:
+ *
+ * <pre>
+ * int    magic
+ * int    version
+ * int    numTerms
+ * int    numDocs
+ * int[3] sections     (5) offset, length and CRC32 of each section
+ * int    headerCrc    CRC32 of everything above
+ * terms    string table of the terms in lexicographic order
+ * urls     string table of the document urls in lexicographic order
+ * lengths  int number of words of each document
+ * forward  int[numDocs + 1] offsets, then for each document its term ids as
+ *          variable-byte gaps, each followed by the term's variable-byte count
+ * postings int[numTerms] offsets, then each term's PostingsList
+ * </pre>
+ *
+ * A string table is an int[n + 1] of offsets followed by the UTF-8 bytes of the
+ * strings.
+ *
+ * @author clairewalker
+ *
+ */
+public class IndexSegment {
+	/**
+	 * format version written by this class
+	 */
+	public static final int VERSION = 1;
+
+	private static final int MAGIC = 0x4E415347;
+	private static final int TERMS = 0;
+	private static final int URLS = 1;
+	private static final int LENGTHS = 2;
+	private static final int FORWARD = 3;
+	private static final int POSTINGS = 4;
+	private static final int NUM_SECTIONS = 5;
+	private static final int HEADER = 16 + NUM_SECTIONS * 12 + 4;
+
+	private final ByteBuffer buf;
+	private final String[] urls;
+	private final int lengthsStart;
+	private final int forwardStart;
+	private final CompressedInvertedIndex invertedIndex;
+
+	private IndexSegment(ByteBuffer buf, String[] terms, String[] urls, int[] sectionStarts) {
+		this.buf = buf;
+		this.urls = urls;
+		this.lengthsStart = sectionStarts[LENGTHS];
+		this.forwardStart = sectionStarts[FORWARD];
+		// the postings lists are read in place from the mapped file
+		int postingsStart = sectionStarts[POSTINGS];
+		int[] offsets = new int[terms.length];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = buf.getInt(postingsStart + i * 4);
+		}
+		ByteBuffer postings = buf.duplicate();
+		postings.position(postingsStart + terms.length * 4);
+		postings.limit(sectionStarts[POSTINGS + 1]);
+		this.invertedIndex = new CompressedInvertedIndex(terms, urls, offsets, postings.slice());
+	}
+
+	/**
+	 * Opens a segment by memory-mapping it
+	 *
+	 * @param file
+	 * @return the segment
+	 * @throws IOException if the file cannot be read, is not a segment, has a
+	 *                     different version or fails a checksum
+	 */
+	public static IndexSegment open(Path file) throws IOException {
+		MappedByteBuffer buf;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("segment too large: " + file);
+			}
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		// check the header before trusting any offset in it
+		if (buf.limit() < HEADER || buf.getInt(0) != MAGIC) {
+			throw new IOException("not an index segment: " + file);
+		}
+		if (buf.getInt(4) != VERSION) {
+			throw new IOException("unsupported segment version " + buf.getInt(4) + ": " + file);
+		}
+		if (crc(buf, 0, HEADER - 4) != buf.getInt(HEADER - 4)) {
+			throw new IOException("corrupt segment header: " + file);
+		}
+		int numTerms = buf.getInt(8);
+		int numDocs = buf.getInt(12);
+		int[] starts = new int[NUM_SECTIONS + 1];
+		for (int s = 0; s < NUM_SECTIONS; s++) {
+			int offset = buf.getInt(16 + s * 12);
+			int length = buf.getInt(16 + s * 12 + 4);
+			int expected = buf.getInt(16 + s * 12 + 8);
+			if (offset < HEADER || length < 0 || (long) offset + length > buf.limit()) {
+				throw new IOException("truncated segment: " + file);
+			}
+			if (crc(buf, offset, length) != expected) {
+				throw new IOException("corrupt segment section " + s + ": " + file);
+			}
+			starts[s] = offset;
+			starts[s + 1] = offset + length;
+		}
+
+		String[] terms = readStrings(buf, starts[TERMS]);
+		String[] urls = readStrings(buf, starts[URLS]);
+		if (terms.length != numTerms || urls.length != numDocs) {
+			throw new IOException("corrupt segment: " + file);
+		}
+		return new IndexSegment(buf, terms, urls, starts);
+	}
+
+	/**
+	 * Writes an index to a segment, replacing any segment already at file. The
+	 * file is only replaced once the new segment is completely written
+	 *
+	 * @param file
+	 * @param index
+	 * @throws IOException if the segment cannot be written
+	 */
+	public static void write(Path file, ForwardIndex index) throws IOException {
+		int numTerms = index.numTerms();
+		int numDocs = index.numDocuments();
+
+		// give terms and documents ids in lexicographic order, like
+		// CompressedInvertedIndex
+		String[] terms = new String[numTerms];
+		Integer[] termOrder = new Integer[numTerms];
+		for (int id = 0; id < numTerms; id++) {
+			terms[id] = index.term(id);
+			termOrder[id] = id;
+		}
+		Arrays.sort(termOrder, Comparator.comparing(id -> terms[id]));
+		int[] termRank = new int[numTerms];
+		for (int rank = 0; rank < numTerms; rank++) {
+			termRank[termOrder[rank]] = rank;
+		}
+		Integer[] docOrder = new Integer[numDocs];
+		for (int doc = 0; doc < numDocs; doc++) {
+			docOrder[doc] = doc;
+		}
+		Arrays.sort(docOrder, Comparator.comparing(index::url));
+		int[] docRank = new int[numDocs];
+		for (int rank = 0; rank < numDocs; rank++) {
+			docRank[docOrder[rank]] = rank;
+		}
+
+		byte[][] sections = new byte[NUM_SECTIONS][];
+		String[] sortedTerms = new String[numTerms];
+		for (int rank = 0; rank < numTerms; rank++) {
+			sortedTerms[rank] = terms[termOrder[rank]];
+		}
+		sections[TERMS] = writeStrings(sortedTerms);
+		String[] sortedUrls = new String[numDocs];
+		ByteBuffer lengths = ByteBuffer.allocate(numDocs * 4);
+		for (int rank = 0; rank < numDocs; rank++) {
+			sortedUrls[rank] = index.url(docOrder[rank]);
+			lengths.putInt(index.length(docOrder[rank]));
+		}
+		sections[URLS] = writeStrings(sortedUrls);
+		sections[LENGTHS] = lengths.array();
+
+		// forward index: each document's counts, by the new term ids
+		int[] df = new int[numTerms];
+		ByteArrayOutputStream forward = new ByteArrayOutputStream();
+		int[] forwardOffsets = new int[numDocs + 1];
+		for (int rank = 0; rank < numDocs; rank++) {
+			int doc = docOrder[rank];
+			int[] ids = index.termIds(doc);
+			int[] counts = index.counts(doc);
+			long[] pairs = new long[ids.length];
+			for (int slot = 0; slot < ids.length; slot++) {
+				pairs[slot] = ((long) termRank[ids[slot]] << 32) | counts[slot];
+				df[termRank[ids[slot]]]++;
+			}
+			Arrays.sort(pairs);
+			forwardOffsets[rank] = forward.size();
+			int prev = -1;
+			for (long pair : pairs) {
+				int id = (int) (pair >>> 32);
+				writeVInt(forward, id - prev);
+				writeVInt(forward, (int) pair);
+				prev = id;
+			}
+		}
+		forwardOffsets[numDocs] = forward.size();
+		sections[FORWARD] = concat(ints(forwardOffsets), forward.toByteArray());
+
+		// inverted index: lay the postings out term by term, then rank each term's
+		int[] start = new int[numTerms + 1];
+		for (int t = 0; t < numTerms; t++) {
+			start[t + 1] = start[t] + df[t];
+		}
+		int[] fill = Arrays.copyOf(start, numTerms);
+		int[] docs = new int[start[numTerms]];
+		double[] scores = new double[docs.length];
+		for (int doc = 0; doc < numDocs; doc++) {
+			int[] ids = index.termIds(doc);
+			for (int slot = 0; slot < ids.length; slot++) {
+				int at = fill[termRank[ids[slot]]]++;
+				docs[at] = docRank[doc];
+				scores[at] = index.tfidf(doc, slot);
+			}
+		}
+		ByteArrayOutputStream postings = new ByteArrayOutputStream();
+		int[] postingsOffsets = new int[numTerms];
+		for (int t = 0; t < numTerms; t++) {
+			// highest TFIDF first, ties broken by document name
+			Integer[] ranked = new Integer[df[t]];
+			for (int k = 0; k < ranked.length; k++) {
+				ranked[k] = start[t] + k;
+			}
+			Arrays.sort(ranked, (a, b) -> scores[a] != scores[b] ? Double.compare(scores[b], scores[a])
+					: Integer.compare(docs[a], docs[b]));
+			int[] termDocs = new int[ranked.length];
+			double[] termScores = new double[ranked.length];
+			for (int k = 0; k < ranked.length; k++) {
+				termDocs[k] = docs[ranked[k]];
+				termScores[k] = scores[ranked[k]];
+			}
+			postingsOffsets[t] = postings.size();
+			byte[] encoded = PostingsList.encode(termDocs, termScores);
+			postings.write(encoded, 0, encoded.length);
+		}
+		sections[POSTINGS] = concat(ints(postingsOffsets), postings.toByteArray());
+
+		// header, with each section's position and checksum
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(numTerms);
+		header.putInt(numDocs);
+		long offset = HEADER;
+		for (byte[] section : sections) {
+			CRC32 crc = new CRC32();
+			crc.update(section);
+			header.putInt((int) offset);
+			header.putInt(section.length);
+			header.putInt((int) crc.getValue());
+			offset += section.length;
+		}
+		if (offset > Integer.MAX_VALUE) {
+			throw new IOException("index too large for one segment");
+		}
+		header.putInt(crc(header, 0, HEADER - 4));
+
+		// write everything to a temporary file, then move it into place
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			header.flip();
+			writeFully(channel, header);
+			for (byte[] section : sections) {
+				writeFully(channel, ByteBuffer.wrap(section));
+			}
+			channel.force(true);
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return number of documents
+	 */
+	public int numDocuments() {
+		return urls.length;
+	}
+
+	/**
+	 * @return number of terms
+	 */
+	public int numTerms() {
+		return invertedIndex.numTerms();
+	}
+
+	/**
+	 * @return the inverted index, read from the mapped file. Its invertedIndex()
+	 *         view has the shape returned by buildInvertedIndex
+	 */
+	public CompressedInvertedIndex getInvertedIndex() {
+		return invertedIndex;
+	}
+
+	/**
+	 * @param url
+	 * @return id of the document, or -1 if it isn't in the segment
+	 */
+	public int docId(String url) {
+		int id = Arrays.binarySearch(urls, url);
+		return id >= 0 ? id : -1;
+	}
+
+	/**
+	 * @param docId
+	 * @return url of the document
+	 */
+	public String url(int docId) {
+		return urls[docId];
+	}
+
+	/**
+	 * @param docId
+	 * @return number of words in the document
+	 */
+	public int length(int docId) {
+		return buf.getInt(lengthsStart + docId * 4);
+	}
+
+	/**
+	 * @param url
+	 * @return the document's terms and their TFIDF values, as in the map returned
+	 *         by buildIndex, or null if the document isn't in the segment
+	 */
+	public Map<String, Double> forwardIndex(String url) {
+		int docId = docId(url);
+		if (docId < 0) {
+			return null;
+		}
+		Map<String, Double> wordTFIDFPairs = new TreeMap<String, Double>();
+		int pos = forwardStart + (urls.length + 1) * 4 + buf.getInt(forwardStart + docId * 4);
+		int end = forwardStart + (urls.length + 1) * 4 + buf.getInt(forwardStart + (docId + 1) * 4);
+		int length = length(docId);
+		int termId = -1;
+		int[] value = new int[1];
+		while (pos < end) {
+			pos = readVInt(buf, pos, value);
+			termId += value[0];
+			pos = readVInt(buf, pos, value);
+			// document frequency is the length of the term's postings
+			double TF = (double) value[0] / length;
+			double IDF = Math.log((double) urls.length / invertedIndex.postings(termId).size());
+			wordTFIDFPairs.put(invertedIndex.term(termId), TF * IDF);
+		}
+		return wordTFIDFPairs;
+	}
+
+	/**
+	 * Computes the whole forward index, as returned by buildIndex. This walks every
+	 * document, so prefer forwardIndex(url) where possible
+	 *
+	 * @return the forward index
+	 */
+	public Map<String, Map<String, Double>> forwardIndex() {
+		Map<String, Map<String, Double>> indexMap = new TreeMap<String, Map<String, Double>>();
+		for (String url : urls) {
+			indexMap.put(url, forwardIndex(url));
+		}
+		return indexMap;
+	}
+
+	private static String[] readStrings(ByteBuffer buf, int start) {
+		int n = buf.getInt(start);
+		int bytesStart = start + 4 + (n + 1) * 4;
+		byte[] bytes = new byte[buf.getInt(start + 4 + n * 4)];
+		ByteBuffer in = buf.duplicate();
+		in.position(bytesStart);
+		in.get(bytes);
+		String[] strings = new String[n];
+		for (int i = 0; i < n; i++) {
+			int from = buf.getInt(start + 4 + i * 4);
+			int to = buf.getInt(start + 4 + (i + 1) * 4);
+			strings[i] = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+		}
+		return strings;
+	}
+
+	private static byte[] writeStrings(String[] strings) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int[] offsets = new int[strings.length + 1];
+		for (int i = 0; i < strings.length; i++) {
+			offsets[i] = bytes.size();
+			bytes.write(strings[i].getBytes(StandardCharsets.UTF_8));
+		}
+		offsets[strings.length] = bytes.size();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(strings.length);
+		data.write(ints(offsets));
+		data.write(bytes.toByteArray());
+		return out.toByteArray();
+	}
+
+	private static byte[] ints(int[] values) {
+		ByteBuffer out = ByteBuffer.allocate(values.length * 4);
+		for (int v : values) {
+			out.putInt(v);
+		}
+		return out.array();
+	}
+
+	private static byte[] concat(byte[] a, byte[] b) {
+		byte[] out = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, out, a.length, b.length);
+		return out;
+	}
+
+	private static int crc(ByteBuffer buf, int offset, int length) {
+		ByteBuffer range = buf.duplicate();
+		range.limit(offset + length);
+		range.position(offset);
+		CRC32 crc = new CRC32();
+		crc.update(range);
+		return (int) crc.getValue();
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+	}
+
+	private static void writeVInt(ByteArrayOutputStream out, int v) {
+		while ((v & ~0x7F) != 0) {
+			out.write((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.write(v);
+	}
+
+	/**
+	 * Reads a variable-byte int at pos into value[0]
+	 *
+	 * @return position after it
+	 */
+	private static int readVInt(ByteBuffer buf, int pos, int[] value) {
+		int v = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buf.get(pos++);
+			v |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		value[0] = v;
+		return pos;
+	}
+}
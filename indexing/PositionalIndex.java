@@ -0,0 +1,718 @@
+package indexing;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * The positions of every word in every document, for phrase queries.
+ *
+ * Terms get ids in lexicographic order and documents in url order, as in
+ * CompressedInvertedIndex. Each term's postings are kept in one byte buffer:
+ * documents as variable-byte doc id gaps, each followed by the number of times
+ * the term occurs in it and the variable-byte gaps between its positions. A
+ * skip entry every BLOCK documents lets a cursor jump ahead to a target
+ * document.
+ *
+ * Layout of a term's postings, starting at its offset:
+ *
+ * <pre>
+ * int    n            number of documents
+ * int    dataBytes    length of the data section
+ * int[2] skips        (numBlocks) pairs of: doc id before the block, offset of
+ *                     the block in the data section
+ * byte[] data         for each document: doc id gap, number of positions,
+ *                     position gaps, all variable-byte
+ * </pre>
+ *
+ * A phrase is found by walking the postings of its words together until they
+ * are all at the same document, as QueryEngine does, and only then decoding
+ * their positions to check that the words follow one another.
+ *
+ * Documents can be added and removed one at a time. A removed document is only
+ * marked as removed, and an added one gets the next doc id after every other
+ * and keeps its positions in small per-term lists next to the encoded
+ * postings. Once the documents changed since the postings were laid out are
+ * more than a quarter of the index, the postings are laid out again from
+ * every live document, so each change costs a constant share of a rebuild.
+ * Until then doc ids are no longer in url order.
+ *
+ * An index must not be updated while another thread is searching it.
+ *
+ * @author clairewalker
+ *
+ */
+public class PositionalIndex {
+	/**
+	 * number of documents between skip entries
+	 */
+	public static final int BLOCK = 64;
+
+	private String[] terms;
+	private String[] urls;
+	private int[] offsets;
+	private ByteBuffer postings;
+	// documents added since the postings were laid out, by doc id - urls.length.
+	// words are null for a document removed again
+	private final List<String> addedUrls = new ArrayList<>();
+	private final List<List<String>> addedWords = new ArrayList<>();
+	private final Map<String, Integer> addedIds = new HashMap<>();
+	// positions of the words of the added documents, by word
+	private final Map<String, AddedPostings> addedPostings = new HashMap<>();
+	// doc ids of removed documents
+	private final BitSet removed = new BitSet();
+	private int live;
+
+	/**
+	 * @param terms    terms in lexicographic order
+	 * @param urls     document urls in lexicographic order
+	 * @param offsets  offset of each term's postings in postings
+	 * @param postings the encoded postings
+	 */
+	public PositionalIndex(String[] terms, String[] urls, int[] offsets, ByteBuffer postings) {
+		this.terms = terms;
+		this.urls = urls;
+		this.offsets = offsets;
+		this.postings = postings;
+		this.live = urls.length;
+	}
+
+	/**
+	 * Builds the index from the words of each document, in the order they appear
+	 *
+	 * @param docs a map computed by parseFeed
+	 * @return the positional index
+	 */
+	public static PositionalIndex build(Map<String, List<String>> docs) {
+		// documents in url order
+		List<Entry<String, List<String>>> entries = new ArrayList<>(docs.entrySet());
+		entries.sort(Comparator.comparing(Entry::getKey));
+		String[] urls = new String[entries.size()];
+		for (int doc = 0; doc < urls.length; doc++) {
+			urls[doc] = entries.get(doc).getKey();
+		}
+
+		TermDictionary dictionary = new TermDictionary();
+		Postings[] byTerm = new Postings[16];
+		for (int doc = 0; doc < urls.length; doc++) {
+			List<String> words = entries.get(doc).getValue();
+			// sort the (term id, position) pairs of the document so each term's
+			// positions are together and ascending
+			long[] pairs = new long[words.size()];
+			for (int pos = 0; pos < pairs.length; pos++) {
+				pairs[pos] = ((long) dictionary.add(words.get(pos)) << 32) | pos;
+			}
+			Arrays.sort(pairs);
+			if (dictionary.size() > byTerm.length) {
+				byTerm = Arrays.copyOf(byTerm, Math.max(byTerm.length * 2, dictionary.size()));
+			}
+			int i = 0;
+			while (i < pairs.length) {
+				int termId = (int) (pairs[i] >>> 32);
+				int j = i;
+				while (j < pairs.length && (int) (pairs[j] >>> 32) == termId) {
+					j++;
+				}
+				if (byTerm[termId] == null) {
+					byTerm[termId] = new Postings();
+				}
+				byTerm[termId].add(doc, pairs, i, j);
+				i = j;
+			}
+		}
+
+		// lay the terms out in lexicographic order
+		String[] terms = new String[dictionary.size()];
+		Integer[] order = new Integer[terms.length];
+		for (int id = 0; id < terms.length; id++) {
+			order[id] = id;
+		}
+		Arrays.sort(order, Comparator.comparing(dictionary::term));
+		long total = 0;
+		for (int id = 0; id < terms.length; id++) {
+			total += byTerm[id].byteSize();
+		}
+		if (total > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("too many positions for one index");
+		}
+		ByteBuffer out = ByteBuffer.allocate((int) total);
+		int[] offsets = new int[terms.length];
+		for (int rank = 0; rank < terms.length; rank++) {
+			terms[rank] = dictionary.term(order[rank]);
+			offsets[rank] = out.position();
+			byTerm[order[rank]].writeTo(out);
+		}
+		out.flip();
+		return new PositionalIndex(terms, urls, offsets, out);
+	}
+
+	/**
+	 * A term's postings while the index is being built
+	 */
+	private static class Postings {
+		private byte[] data = new byte[16];
+		private int length;
+		private int[] skips = new int[2];
+		private int n;
+		private int prev = -1;
+
+		private void add(int doc, long[] pairs, int from, int to) {
+			if (n % BLOCK == 0) {
+				int block = n / BLOCK;
+				if (skips.length < (block + 1) * 2) {
+					skips = Arrays.copyOf(skips, skips.length * 2);
+				}
+				skips[block * 2] = prev;
+				skips[block * 2 + 1] = length;
+			}
+			writeVInt(doc - prev);
+			writeVInt(to - from);
+			int last = -1;
+			for (int k = from; k < to; k++) {
+				int pos = (int) pairs[k];
+				writeVInt(pos - last);
+				last = pos;
+			}
+			prev = doc;
+			n++;
+		}
+
+		private void writeVInt(int v) {
+			if (length + 5 > data.length) {
+				data = Arrays.copyOf(data, data.length * 2);
+			}
+			while ((v & ~0x7F) != 0) {
+				data[length++] = (byte) ((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			data[length++] = (byte) v;
+		}
+
+		private long byteSize() {
+			return 8 + ((n + BLOCK - 1) / BLOCK) * 8L + length;
+		}
+
+		private void writeTo(ByteBuffer out) {
+			out.putInt(n);
+			out.putInt(length);
+			for (int i = 0; i < ((n + BLOCK - 1) / BLOCK) * 2; i++) {
+				out.putInt(skips[i]);
+			}
+			out.put(data, 0, length);
+		}
+	}
+
+	/**
+	 * The positions of a word in the documents added since the postings were laid
+	 * out, in doc id order
+	 */
+	private static class AddedPostings {
+		private int[] docs = new int[4];
+		private int[][] positions = new int[4][];
+		private int n;
+
+		private void add(int doc, int[] docPositions) {
+			if (n == docs.length) {
+				docs = Arrays.copyOf(docs, n * 2);
+				positions = Arrays.copyOf(positions, n * 2);
+			}
+			docs[n] = doc;
+			positions[n] = docPositions;
+			n++;
+		}
+
+		/**
+		 * @return positions of the word in doc, or null if it isn't in it
+		 */
+		private int[] positions(int doc) {
+			int i = Arrays.binarySearch(docs, 0, n, doc);
+			return i < 0 ? null : positions[i];
+		}
+	}
+
+	/**
+	 * Adds a document, replacing the document with the same url if there is one
+	 *
+	 * @param url
+	 * @param words the words in the document, in the order they appear. Kept by
+	 *              the index, so they must not be changed afterwards
+	 */
+	public void addDocument(String url, List<String> words) {
+		removeDocument(url);
+		int doc = maxDocId();
+		addedUrls.add(url);
+		addedWords.add(words);
+		addedIds.put(url, doc);
+		live++;
+		// sort the (term id, position) pairs so each word's positions are together
+		// and ascending, as in build
+		TermDictionary dictionary = new TermDictionary();
+		long[] pairs = new long[words.size()];
+		for (int pos = 0; pos < pairs.length; pos++) {
+			pairs[pos] = ((long) dictionary.add(words.get(pos)) << 32) | pos;
+		}
+		Arrays.sort(pairs);
+		int i = 0;
+		while (i < pairs.length) {
+			int termId = (int) (pairs[i] >>> 32);
+			int j = i;
+			while (j < pairs.length && (int) (pairs[j] >>> 32) == termId) {
+				j++;
+			}
+			int[] docPositions = new int[j - i];
+			for (int k = i; k < j; k++) {
+				docPositions[k - i] = (int) pairs[k];
+			}
+			addedPostings.computeIfAbsent(dictionary.term(termId), w -> new AddedPostings()).add(doc, docPositions);
+			i = j;
+		}
+		compactIfNeeded();
+	}
+
+	/**
+	 * @param url
+	 * @return true if the document was in the index
+	 */
+	public boolean removeDocument(String url) {
+		int doc = docId(url);
+		if (doc < 0) {
+			return false;
+		}
+		removed.set(doc);
+		live--;
+		if (doc >= urls.length) {
+			addedIds.remove(url);
+			addedWords.set(doc - urls.length, null);
+		}
+		compactIfNeeded();
+		return true;
+	}
+
+	/**
+	 * @param url
+	 * @return doc id of the document, or -1 if it isn't in the index
+	 */
+	public int docId(String url) {
+		int doc = Arrays.binarySearch(urls, url);
+		if (doc >= 0 && !removed.get(doc)) {
+			return doc;
+		}
+		Integer added = addedIds.get(url);
+		return added == null ? -1 : added;
+	}
+
+	/**
+	 * Lays the postings out again from every live document once enough of them
+	 * have changed
+	 */
+	private void compactIfNeeded() {
+		int changed = addedUrls.size() + removed.cardinality();
+		if (changed <= Math.max(BLOCK, live / 4)) {
+			return;
+		}
+		PositionalIndex rebuilt = build(documents());
+		terms = rebuilt.terms;
+		urls = rebuilt.urls;
+		offsets = rebuilt.offsets;
+		postings = rebuilt.postings;
+		addedUrls.clear();
+		addedWords.clear();
+		addedIds.clear();
+		addedPostings.clear();
+		removed.clear();
+		live = urls.length;
+	}
+
+	/**
+	 * Recovers the words of every live document from the postings and the added
+	 * documents
+	 *
+	 * @return the words of each document, by url
+	 */
+	private Map<String, List<String>> documents() {
+		Map<String, List<String>> docs = new TreeMap<>();
+		// put each term back at its positions
+		String[][] words = new String[urls.length][];
+		int[] lengths = new int[urls.length];
+		for (int rank = 0; rank < terms.length; rank++) {
+			Cursor c = new Cursor(offsets[rank]);
+			for (int doc = c.next(); doc != PostingsList.NO_MORE_DOCS; doc = c.next()) {
+				if (removed.get(doc)) {
+					continue;
+				}
+				for (int pos : c.positions()) {
+					if (words[doc] == null || pos >= words[doc].length) {
+						words[doc] = Arrays.copyOf(words[doc] == null ? new String[0] : words[doc],
+								Math.max(pos + 1, lengths[doc] * 2));
+					}
+					words[doc][pos] = terms[rank];
+					lengths[doc] = Math.max(lengths[doc], pos + 1);
+				}
+			}
+		}
+		for (int doc = 0; doc < urls.length; doc++) {
+			if (!removed.get(doc)) {
+				docs.put(urls[doc], words[doc] == null ? new ArrayList<String>()
+						: Arrays.asList(Arrays.copyOf(words[doc], lengths[doc])));
+			}
+		}
+		for (int i = 0; i < addedUrls.size(); i++) {
+			if (addedWords.get(i) != null) {
+				docs.put(addedUrls.get(i), addedWords.get(i));
+			}
+		}
+		return docs;
+	}
+
+	/**
+	 * @return number of terms in the laid out postings
+	 */
+	public int numTerms() {
+		return terms.length;
+	}
+
+	/**
+	 * @return number of documents
+	 */
+	public int numDocuments() {
+		return live;
+	}
+
+	/**
+	 * @return one more than the largest doc id. Equal to numDocuments when no
+	 *         document has been removed since the postings were laid out
+	 */
+	public int maxDocId() {
+		return urls.length + addedUrls.size();
+	}
+
+	/**
+	 * @param docId
+	 * @return url of the document
+	 */
+	public String url(int docId) {
+		return docId < urls.length ? urls[docId] : addedUrls.get(docId - urls.length);
+	}
+
+	/**
+	 * @return total size in bytes of the encoded postings and positions
+	 */
+	public long postingsBytes() {
+		return postings.limit();
+	}
+
+	/**
+	 * @param term
+	 * @return a cursor over the term's documents and positions in the laid out
+	 *         postings, or null if the term isn't in them. Documents added or
+	 *         removed since are not reflected
+	 */
+	public Cursor cursor(String term) {
+		int id = Arrays.binarySearch(terms, term);
+		return id < 0 ? null : new Cursor(offsets[id]);
+	}
+
+	/**
+	 * Finds the documents containing a phrase
+	 *
+	 * @param words the words of the phrase, as produced by the Tokenizer
+	 * @return doc ids of the documents containing the words one after another,
+	 *         ascending
+	 */
+	public int[] phraseDocs(List<String> words) {
+		if (words.isEmpty()) {
+			return new int[0];
+		}
+		int[] docs = encodedPhraseDocs(words);
+		if (maxDocId() == urls.length && removed.isEmpty()) {
+			return docs;
+		}
+		// drop the removed documents, then add the matching added ones, whose doc
+		// ids are all higher
+		int n = 0;
+		for (int doc : docs) {
+			if (!removed.get(doc)) {
+				docs[n++] = doc;
+			}
+		}
+		int[] added = addedPhraseDocs(words);
+		int[] out = Arrays.copyOf(docs, n + added.length);
+		System.arraycopy(added, 0, out, n, added.length);
+		return out;
+	}
+
+	/**
+	 * @return doc ids of the documents in the laid out postings containing the
+	 *         words one after another, ascending
+	 */
+	private int[] encodedPhraseDocs(List<String> words) {
+		Cursor[] cursors = new Cursor[words.size()];
+		for (int i = 0; i < cursors.length; i++) {
+			cursors[i] = cursor(words.get(i));
+			// a word found nowhere matches nothing
+			if (cursors[i] == null) {
+				return new int[0];
+			}
+		}
+		// the word in the fewest documents leads the walk
+		int lead = 0;
+		for (int i = 1; i < cursors.length; i++) {
+			if (cursors[i].size() < cursors[lead].size()) {
+				lead = i;
+			}
+		}
+
+		int[] out = new int[16];
+		int n = 0;
+		int doc = cursors[lead].next();
+		while (doc != PostingsList.NO_MORE_DOCS) {
+			int behind = -1;
+			for (int i = 0; i < cursors.length && behind < 0; i++) {
+				if (cursors[i].advance(doc) != doc) {
+					behind = i;
+				}
+			}
+			if (behind >= 0) {
+				doc = cursors[lead].advance(cursors[behind].docId());
+				continue;
+			}
+			int[][] positions = new int[cursors.length][];
+			for (int i = 0; i < cursors.length; i++) {
+				positions[i] = cursors[i].positions();
+			}
+			if (adjacent(positions)) {
+				if (n == out.length) {
+					out = Arrays.copyOf(out, n * 2);
+				}
+				out[n++] = doc;
+			}
+			doc = cursors[lead].next();
+		}
+		return Arrays.copyOf(out, n);
+	}
+
+	/**
+	 * @return doc ids of the live added documents containing the words one after
+	 *         another, ascending
+	 */
+	private int[] addedPhraseDocs(List<String> words) {
+		AddedPostings[] lists = new AddedPostings[words.size()];
+		int lead = 0;
+		for (int i = 0; i < lists.length; i++) {
+			lists[i] = addedPostings.get(words.get(i));
+			if (lists[i] == null) {
+				return new int[0];
+			}
+			if (lists[i].n < lists[lead].n) {
+				lead = i;
+			}
+		}
+		// the added documents are few, so look each document of the rarest word up
+		// in the other lists
+		int[] out = new int[lists[lead].n];
+		int n = 0;
+		int[][] positions = new int[lists.length][];
+		for (int k = 0; k < lists[lead].n; k++) {
+			int doc = lists[lead].docs[k];
+			boolean all = !removed.get(doc);
+			for (int i = 0; i < lists.length && all; i++) {
+				positions[i] = lists[i].positions(doc);
+				all = positions[i] != null;
+			}
+			if (all && adjacent(positions)) {
+				out[n++] = doc;
+			}
+		}
+		return Arrays.copyOf(out, n);
+	}
+
+	/**
+	 * Finds the documents containing a phrase
+	 *
+	 * @param phrase
+	 * @return urls of the documents containing the phrase, in doc id order
+	 */
+	public List<String> phraseSearch(String phrase) {
+		List<String> found = new ArrayList<>();
+		for (int doc : phraseDocs(new Tokenizer().tokenize(phrase))) {
+			found.add(url(doc));
+		}
+		return found;
+	}
+
+	/**
+	 * @param positions the ascending positions of each word of a phrase in one
+	 *                  document
+	 * @return true if the words occur one after another somewhere in the document
+	 */
+	private static boolean adjacent(int[][] positions) {
+		// for each position of the first word, look for the next word one further
+		// on; every list is ascending so each is walked once
+		int[] at = new int[positions.length];
+		for (int start : positions[0]) {
+			boolean found = true;
+			for (int i = 1; i < positions.length && found; i++) {
+				int want = start + i;
+				while (at[i] < positions[i].length && positions[i][at[i]] < want) {
+					at[i]++;
+				}
+				if (at[i] == positions[i].length) {
+					return false;
+				}
+				found = positions[i][at[i]] == want;
+			}
+			if (found) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Walks a term's documents in doc id order, decoding positions only when they
+	 * are asked for. A new cursor is positioned before the first document
+	 */
+	public class Cursor {
+		private final int size;
+		private final int numBlocks;
+		private final int skipsStart;
+		private final int dataStart;
+		private int ordinal = -1;
+		private int doc = -1;
+		private int pos;
+		// number of positions of the current document, and where they start
+		private int freq;
+		private int positionsStart;
+		// true while pos is at the start of the current document's positions
+		private boolean atPositions;
+
+		private Cursor(int offset) {
+			this.size = postings.getInt(offset);
+			this.numBlocks = (size + BLOCK - 1) / BLOCK;
+			this.skipsStart = offset + 8;
+			this.dataStart = skipsStart + numBlocks * 8;
+			this.pos = dataStart;
+		}
+
+		/**
+		 * @return number of documents containing the term
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * @return current doc id, -1 before the first call to next or advance, or
+		 *         NO_MORE_DOCS once past the end
+		 */
+		public int docId() {
+			return doc;
+		}
+
+		/**
+		 * @return number of times the term occurs in the current document
+		 */
+		public int frequency() {
+			return freq;
+		}
+
+		/**
+		 * @return next doc id, or NO_MORE_DOCS
+		 */
+		public int next() {
+			if (atPositions) {
+				skipPositions();
+			}
+			if (ordinal + 1 >= size) {
+				ordinal = size;
+				doc = PostingsList.NO_MORE_DOCS;
+				freq = 0;
+				return doc;
+			}
+			doc += readVInt();
+			freq = readVInt();
+			positionsStart = pos;
+			atPositions = true;
+			ordinal++;
+			return doc;
+		}
+
+		/**
+		 * Moves to the first document whose doc id is at least target, skipping
+		 * whole blocks where possible. Never moves backwards
+		 *
+		 * @param target
+		 * @return the doc id reached, or NO_MORE_DOCS
+		 */
+		public int advance(int target) {
+			if (doc >= target) {
+				return doc;
+			}
+			int block = Math.max(0, ordinal / BLOCK);
+			int lo = block + 1;
+			int hi = numBlocks - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (postings.getInt(skipsStart + mid * 8) < target) {
+					block = mid;
+					lo = mid + 1;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			if (block * BLOCK > ordinal) {
+				doc = postings.getInt(skipsStart + block * 8);
+				pos = dataStart + postings.getInt(skipsStart + block * 8 + 4);
+				ordinal = block * BLOCK - 1;
+				atPositions = false;
+			}
+			while (doc < target) {
+				next();
+			}
+			return doc;
+		}
+
+		/**
+		 * @return positions of the term in the current document, ascending
+		 */
+		public int[] positions() {
+			int saved = pos;
+			pos = positionsStart;
+			int[] positions = new int[freq];
+			int last = -1;
+			for (int i = 0; i < freq; i++) {
+				last += readVInt();
+				positions[i] = last;
+			}
+			pos = saved;
+			return positions;
+		}
+
+		private void skipPositions() {
+			for (int i = 0; i < freq; i++) {
+				while (postings.get(pos++) < 0) {
+				}
+			}
+			atPositions = false;
+		}
+
+		private int readVInt() {
+			int v = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = postings.get(pos++);
+				v |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			return v;
+		}
+	}
+}
@@ -0,0 +1,319 @@
+package indexing;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A compact, read-only postings list for one term.
+ *
+ * Postings are stored sorted by document id as variable-byte encoded gaps,
+ * with a skip entry every BLOCK postings so a cursor can jump ahead to a target
+ * document without decoding everything before it. Each posting's TFIDF is
+ * quantized to 16 bits relative to the largest score in the list. The order in
+ * which the postings were given, highest TFIDF first, is kept as a packed array
+ * of document ids and their scores so the ranked view can be read from any
+ * position.
+ *
+ * Layout, starting at the list's offset in its buffer:
+ *
+ * <pre>
+ * int    n            number of postings
+ * float  maxScore     largest TFIDF in the list
+ * byte   width        bytes per document id in the ranked view
+ * int    docBytes     length of the gap section
+ * int[2] skips        (numBlocks) pairs of: doc id before the block, offset of
+ *                     the block in the gap section
+ * byte[] gaps         variable-byte doc id gaps, doc id order
+ * char[] scores       quantized TFIDF, doc id order
+ * byte[] ranked       n entries of a doc id (width bytes) and its quantized
+ *                     TFIDF (2 bytes), highest TFIDF first
+ * </pre>
+ *
+ * The list only reads its buffer with absolute gets, so it works the same over
+ * a heap array or a memory-mapped file.
+ *
+ * @author clairewalker
+ *
+ */
+public class PostingsList {
+	/**
+	 * number of postings between skip entries
+	 */
+	public static final int BLOCK = 64;
+	/**
+	 * returned by a cursor once it has gone past the last posting
+	 */
+	public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+	private static final int HEADER = 4 + 4 + 1 + 4;
+	private static final int QUANTUM = 0xFFFF;
+
+	private final ByteBuffer buf;
+	private final int size;
+	private final float maxScore;
+	private final int width;
+	private final int numBlocks;
+	private final int skipsStart;
+	private final int gapsStart;
+	private final int scoresStart;
+	private final int rankedStart;
+	private final int end;
+
+	/**
+	 * Reads the list at offset in buf
+	 *
+	 * @param buf
+	 * @param offset
+	 */
+	public PostingsList(ByteBuffer buf, int offset) {
+		this.buf = buf;
+		this.size = buf.getInt(offset);
+		this.maxScore = buf.getFloat(offset + 4);
+		this.width = buf.get(offset + 8);
+		int docBytes = buf.getInt(offset + 9);
+		this.numBlocks = (size + BLOCK - 1) / BLOCK;
+		this.skipsStart = offset + HEADER;
+		this.gapsStart = skipsStart + numBlocks * 8;
+		this.scoresStart = gapsStart + docBytes;
+		this.rankedStart = scoresStart + size * 2;
+		this.end = rankedStart + size * (width + 2);
+	}
+
+	/**
+	 * Encodes a postings list
+	 *
+	 * @param docIds doc ids, highest TFIDF first
+	 * @param scores TFIDF of each doc id
+	 * @return the encoded list
+	 * @throws IllegalArgumentException if the arrays differ in length or a doc id
+	 *                                  appears twice
+	 */
+	public static byte[] encode(int[] docIds, double[] scores) throws IllegalArgumentException {
+		int n = docIds.length;
+		if (scores.length != n) {
+			throw new IllegalArgumentException();
+		}
+		double max = 0;
+		int maxDoc = 0;
+		for (int i = 0; i < n; i++) {
+			max = Math.max(max, scores[i]);
+			maxDoc = Math.max(maxDoc, docIds[i]);
+		}
+		int width = maxDoc < (1 << 8) ? 1 : maxDoc < (1 << 16) ? 2 : maxDoc < (1 << 24) ? 3 : 4;
+
+		// sort the postings by doc id, remembering where each came from
+		long[] byDoc = new long[n];
+		for (int i = 0; i < n; i++) {
+			byDoc[i] = ((long) docIds[i] << 32) | i;
+		}
+		Arrays.sort(byDoc);
+
+		int numBlocks = (n + BLOCK - 1) / BLOCK;
+		ByteBuffer skips = ByteBuffer.allocate(numBlocks * 8);
+		ByteArrayOutputStream gaps = new ByteArrayOutputStream();
+		ByteBuffer quantized = ByteBuffer.allocate(n * 2);
+		int prev = -1;
+		for (int k = 0; k < n; k++) {
+			int doc = (int) (byDoc[k] >>> 32);
+			int from = (int) byDoc[k];
+			if (doc <= prev) {
+				throw new IllegalArgumentException("duplicate doc id " + doc);
+			}
+			if (k % BLOCK == 0) {
+				skips.putInt(prev);
+				skips.putInt(gaps.size());
+			}
+			writeVInt(gaps, doc - prev);
+			quantized.putChar((char) quantize(scores[from], max));
+			prev = doc;
+		}
+
+		ByteBuffer out = ByteBuffer.allocate(HEADER + numBlocks * 8 + gaps.size() + n * 2 + n * (width + 2));
+		out.putInt(n);
+		out.putFloat((float) max);
+		out.put((byte) width);
+		out.putInt(gaps.size());
+		out.put(skips.array());
+		out.put(gaps.toByteArray());
+		out.put(quantized.array());
+		for (int i = 0; i < n; i++) {
+			for (int b = width - 1; b >= 0; b--) {
+				out.put((byte) (docIds[i] >>> (8 * b)));
+			}
+			out.putChar((char) quantize(scores[i], max));
+		}
+		return out.array();
+	}
+
+	/**
+	 * @return number of postings
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return number of bytes the list takes in its buffer
+	 */
+	public int byteSize() {
+		return end - (skipsStart - HEADER);
+	}
+
+	/**
+	 * @return largest TFIDF in the list
+	 */
+	public double maxScore() {
+		return maxScore;
+	}
+
+	/**
+	 * @param rank position in the ranked view, 0 being the highest TFIDF
+	 * @return doc id at that position
+	 */
+	public int rankedDoc(int rank) {
+		if (rank < 0 || rank >= size) {
+			throw new IndexOutOfBoundsException(String.valueOf(rank));
+		}
+		int pos = rankedStart + rank * (width + 2);
+		int doc = 0;
+		for (int b = 0; b < width; b++) {
+			doc = (doc << 8) | (buf.get(pos + b) & 0xFF);
+		}
+		return doc;
+	}
+
+	/**
+	 * @param rank position in the ranked view, 0 being the highest TFIDF
+	 * @return TFIDF at that position, to 16 bits of precision
+	 */
+	public double rankedScore(int rank) {
+		if (rank < 0 || rank >= size) {
+			throw new IndexOutOfBoundsException(String.valueOf(rank));
+		}
+		return dequantize(buf.getChar(rankedStart + rank * (width + 2) + width), maxScore);
+	}
+
+	/**
+	 * @return a cursor over the postings in doc id order
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Walks the postings in doc id order. A new cursor is positioned before the
+	 * first posting
+	 */
+	public class Cursor {
+		private int ordinal = -1;
+		private int doc = -1;
+		private int pos = gapsStart;
+
+		/**
+		 * @return current doc id, -1 before the first call to next or advance, or
+		 *         NO_MORE_DOCS once past the end
+		 */
+		public int docId() {
+			return doc;
+		}
+
+		/**
+		 * @return position of the current posting in doc id order
+		 */
+		public int ordinal() {
+			return ordinal;
+		}
+
+		/**
+		 * @return TFIDF of the current posting, to 16 bits of precision
+		 */
+		public double score() {
+			return dequantize(buf.getChar(scoresStart + ordinal * 2), maxScore);
+		}
+
+		/**
+		 * @return next doc id, or NO_MORE_DOCS
+		 */
+		public int next() {
+			if (ordinal + 1 >= size) {
+				ordinal = size;
+				doc = NO_MORE_DOCS;
+				return doc;
+			}
+			// read one variable-byte gap
+			int gap = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = buf.get(pos++);
+				gap |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			ordinal++;
+			doc += gap;
+			return doc;
+		}
+
+		/**
+		 * Moves to the first posting whose doc id is at least target, skipping whole
+		 * blocks where possible. Never moves backwards
+		 *
+		 * @param target
+		 * @return the doc id reached, or NO_MORE_DOCS
+		 */
+		public int advance(int target) {
+			if (doc >= target) {
+				return doc;
+			}
+			// find the last block whose preceding doc id is below target, starting
+			// with the common case of a target in the current block
+			int block = Math.max(0, ordinal / BLOCK);
+			if (block + 1 >= numBlocks || buf.getInt(skipsStart + (block + 1) * 8) >= target) {
+				while (doc < target) {
+					next();
+				}
+				return doc;
+			}
+			int lo = block + 1;
+			int hi = numBlocks - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (buf.getInt(skipsStart + mid * 8) < target) {
+					block = mid;
+					lo = mid + 1;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			if (block * BLOCK > ordinal) {
+				doc = buf.getInt(skipsStart + block * 8);
+				pos = gapsStart + buf.getInt(skipsStart + block * 8 + 4);
+				ordinal = block * BLOCK - 1;
+			}
+			while (doc < target) {
+				next();
+			}
+			return doc;
+		}
+	}
+
+	static int quantize(double score, double max) {
+		if (max <= 0) {
+			return 0;
+		}
+		return (int) Math.round(score / max * QUANTUM);
+	}
+
+	static double dequantize(int q, double max) {
+		return q * max / QUANTUM;
+	}
+
+	private static void writeVInt(ByteArrayOutputStream out, int v) {
+		while ((v & ~0x7F) != 0) {
+			out.write((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.write(v);
+	}
+}
@@ -0,0 +1,453 @@
+package indexing;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Answers multi-term queries against a CompressedInvertedIndex.
+ *
+ * A query is a list of words. Words are ANDed together, OR separates
+ * alternatives, and a word preceded by NOT or written with a leading - must not
+ * be in the document. "supreme court OR tribunal -sports" matches documents
+ * containing both supreme and court, or tribunal, and not sports. AND may be
+ * written out but is the default. Words are normalised with the Tokenizer, so
+ * they match the way the articles were indexed. An alternative with only
+ * excluded words matches nothing.
+ *
+ * Matching documents are ranked by the sum of the TFIDF values of the query
+ * words they contain, highest first, ties broken by document name. The
+ * documents of an alternative are found by walking the postings of its words
+ * in doc id order together: the shortest list leads and the others advance to
+ * its doc id with their skip tables, so no set of urls is built.
+ *
+ * Words in double quotes are a phrase: with a PositionalIndex the words must
+ * also appear one after another, so "federal reserve" does not match a
+ * document that only has the two words apart. Documents are found with the
+ * phrase's words like any others and only then checked for the phrase. A
+ * phrase can be excluded like a word. Without a PositionalIndex a phrase's
+ * words are just ANDed and excluded phrases are ignored.
+ *
+ * TFIDF values come from the index and are quantized to 16 bits, so documents
+ * whose sums differ by less than that are ranked as ties.
+ *
+ * @author clairewalker
+ *
+ */
+public class QueryEngine {
+	private static final Pattern PIECE = Pattern.compile("-?\"[^\"]*\"?|\\S+");
+
+	private final CompressedInvertedIndex index;
+	private final PositionalIndex positions;
+	// true if both indexes give the same documents the same ids
+	private final boolean sameDocIds;
+
+	/**
+	 * @param index the index to search
+	 */
+	public QueryEngine(CompressedInvertedIndex index) {
+		this(index, null);
+	}
+
+	/**
+	 * @param index     the index to search
+	 * @param positions positions of the words of the same documents, for phrase
+	 *                  queries. null to treat phrases as words ANDed together.
+	 *                  Make a new engine after adding or removing documents
+	 */
+	public QueryEngine(CompressedInvertedIndex index, PositionalIndex positions) {
+		this.index = index;
+		this.positions = positions;
+		// ids only line up while no document has been removed from the positions
+		boolean same = positions != null && positions.numDocuments() == index.numDocuments()
+				&& positions.maxDocId() == index.numDocuments();
+		for (int doc = 0; same && doc < index.numDocuments(); doc++) {
+			same = positions.url(doc).equals(index.url(doc));
+		}
+		this.sameDocIds = same;
+	}
+
+	/**
+	 * @param query
+	 * @param offset number of documents to skip
+	 * @param limit  largest number of documents to return
+	 * @return up to limit matching documents and their summed TFIDF, starting at
+	 *         position offset in rank order
+	 * @throws IllegalArgumentException if offset or limit is negative
+	 */
+	public List<Entry<String, Double>> search(String query, int offset, int limit)
+			throws IllegalArgumentException {
+		if (offset < 0 || limit < 0) {
+			throw new IllegalArgumentException("offset and limit must not be negative");
+		}
+		List<Clause> clauses = parse(query);
+		List<Entry<String, Double>> page = new ArrayList<>();
+
+		// a single word is already in rank order in its postings
+		Clause only = clauses.size() == 1 ? clauses.get(0) : null;
+		if (only != null && only.required.size() == 1 && only.excluded.isEmpty() && only.excludedPhrases.isEmpty()) {
+			PostingsList list = index.postings(clauses.get(0).required.get(0));
+			if (list == null) {
+				return page;
+			}
+			int end = (int) Math.min((long) offset + limit, list.size());
+			for (int rank = offset; rank < end; rank++) {
+				page.add(new AbstractMap.SimpleImmutableEntry<>(index.url(list.rankedDoc(rank)),
+						list.rankedScore(rank)));
+			}
+			return page;
+		}
+
+		int[] docs = matches(clauses);
+		double[] scores = score(clauses, docs);
+
+		// keep the best offset + limit documents in a heap, worst at the root
+		int k = (int) Math.min((long) offset + limit, docs.length);
+		int[] heap = new int[k];
+		int size = 0;
+		for (int i = 0; i < docs.length && k > 0; i++) {
+			if (size < k) {
+				heap[size++] = i;
+				siftUp(heap, size - 1, docs, scores);
+			} else if (better(i, heap[0], docs, scores)) {
+				heap[0] = i;
+				siftDown(heap, size, docs, scores);
+			}
+		}
+		// take the worst off the heap until it is empty, filling the page backwards
+		int[] ranked = new int[size];
+		for (int i = size - 1; i >= 0; i--) {
+			ranked[i] = heap[0];
+			heap[0] = heap[--size];
+			siftDown(heap, size, docs, scores);
+		}
+		for (int rank = offset; rank < ranked.length; rank++) {
+			page.add(new AbstractMap.SimpleImmutableEntry<>(index.url(docs[ranked[rank]]), scores[ranked[rank]]));
+		}
+		return page;
+	}
+
+	/**
+	 * @param query
+	 * @return number of documents matching the query
+	 */
+	public int count(String query) {
+		return matches(parse(query)).length;
+	}
+
+	/**
+	 * @return true if match a ranks above match b: higher score, or the same score
+	 *         and a lower doc id
+	 */
+	private static boolean better(int a, int b, int[] docs, double[] scores) {
+		return scores[a] != scores[b] ? scores[a] > scores[b] : docs[a] < docs[b];
+	}
+
+	private static void siftUp(int[] heap, int i, int[] docs, double[] scores) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!better(heap[parent], heap[i], docs, scores)) {
+				return;
+			}
+			int tmp = heap[parent];
+			heap[parent] = heap[i];
+			heap[i] = tmp;
+			i = parent;
+		}
+	}
+
+	private static void siftDown(int[] heap, int size, int[] docs, double[] scores) {
+		int i = 0;
+		while (true) {
+			int worst = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if (left < size && better(heap[worst], heap[left], docs, scores)) {
+				worst = left;
+			}
+			if (right < size && better(heap[worst], heap[right], docs, scores)) {
+				worst = right;
+			}
+			if (worst == i) {
+				return;
+			}
+			int tmp = heap[worst];
+			heap[worst] = heap[i];
+			heap[i] = tmp;
+			i = worst;
+		}
+	}
+
+	/**
+	 * One alternative of a query: words that must all be in a document and words
+	 * that must not
+	 */
+	private static class Clause {
+		private final List<String> required = new ArrayList<>();
+		private final List<String> excluded = new ArrayList<>();
+		private final List<List<String>> phrases = new ArrayList<>();
+		private final List<List<String>> excludedPhrases = new ArrayList<>();
+
+		private boolean isEmpty() {
+			return required.isEmpty() && excluded.isEmpty() && excludedPhrases.isEmpty();
+		}
+	}
+
+	/**
+	 * Splits a query into its alternatives
+	 */
+	private static List<Clause> parse(String query) {
+		Tokenizer tokenizer = new Tokenizer();
+		List<Clause> clauses = new ArrayList<>();
+		Clause clause = new Clause();
+		boolean not = false;
+		// a quoted phrase, or a run of anything but whitespace
+		Matcher m = PIECE.matcher(query);
+		while (m.find()) {
+			String word = m.group();
+			if (word.equals("OR")) {
+				if (!clause.isEmpty()) {
+					clauses.add(clause);
+					clause = new Clause();
+				}
+				not = false;
+				continue;
+			}
+			if (word.equals("AND")) {
+				continue;
+			}
+			if (word.equals("NOT")) {
+				not = true;
+				continue;
+			}
+			if (word.startsWith("-") && word.length() > 1) {
+				not = true;
+				word = word.substring(1);
+			}
+			// normalise the words the way article text is
+			List<String> terms = tokenizer.tokenize(word);
+			if (word.startsWith("\"") && terms.size() > 1) {
+				(not ? clause.excludedPhrases : clause.phrases).add(terms);
+				if (!not) {
+					clause.required.addAll(terms);
+				}
+			} else {
+				(not ? clause.excluded : clause.required).addAll(terms);
+			}
+			not = false;
+		}
+		if (!clause.isEmpty()) {
+			clauses.add(clause);
+		}
+		return clauses;
+	}
+
+	/**
+	 * @return doc ids matching any of the clauses, ascending
+	 */
+	private int[] matches(List<Clause> clauses) {
+		int[] docs = new int[0];
+		for (Clause clause : clauses) {
+			docs = union(docs, matches(clause));
+		}
+		return docs;
+	}
+
+	/**
+	 * @return doc ids containing every required word of the clause and none of the
+	 *         excluded ones, ascending
+	 */
+	private int[] matches(Clause clause) {
+		if (clause.required.isEmpty()) {
+			return new int[0];
+		}
+		PostingsList[] lists = new PostingsList[clause.required.size()];
+		for (int i = 0; i < lists.length; i++) {
+			lists[i] = index.postings(clause.required.get(i));
+			// a word found nowhere matches nothing
+			if (lists[i] == null) {
+				return new int[0];
+			}
+		}
+		// the shortest list leads
+		Arrays.sort(lists, Comparator.comparingInt(PostingsList::size));
+		PostingsList.Cursor[] cursors = new PostingsList.Cursor[lists.length];
+		for (int i = 0; i < lists.length; i++) {
+			cursors[i] = lists[i].cursor();
+		}
+		List<PostingsList.Cursor> excluded = new ArrayList<>();
+		for (String word : clause.excluded) {
+			PostingsList list = index.postings(word);
+			if (list != null) {
+				excluded.add(list.cursor());
+			}
+		}
+
+		int[] out = new int[Math.min(lists[0].size(), 16)];
+		int n = 0;
+		int doc = cursors[0].next();
+		while (doc != PostingsList.NO_MORE_DOCS) {
+			// move every other list up to the lead's doc id
+			int i = 1;
+			while (i < cursors.length && cursors[i].advance(doc) == doc) {
+				i++;
+			}
+			if (i < cursors.length) {
+				// list i has nothing at doc, so the lead can skip to where it is
+				doc = cursors[0].advance(cursors[i].docId());
+				continue;
+			}
+			if (!containedIn(excluded, doc)) {
+				if (n == out.length) {
+					out = Arrays.copyOf(out, out.length * 2);
+				}
+				out[n++] = doc;
+			}
+			doc = cursors[0].next();
+		}
+		int[] docs = Arrays.copyOf(out, n);
+
+		// then keep only the documents with the phrases in them
+		if (positions != null) {
+			for (List<String> phrase : clause.phrases) {
+				docs = intersect(docs, phraseDocs(phrase));
+			}
+			for (List<String> phrase : clause.excludedPhrases) {
+				docs = subtract(docs, phraseDocs(phrase));
+			}
+		}
+		return docs;
+	}
+
+	/**
+	 * @return ids in the inverted index of the documents containing a phrase,
+	 *         ascending
+	 */
+	private int[] phraseDocs(List<String> phrase) {
+		int[] docs = positions.phraseDocs(phrase);
+		if (sameDocIds) {
+			return docs;
+		}
+		// look the documents up by url
+		int n = 0;
+		for (int doc : docs) {
+			int id = index.docId(positions.url(doc));
+			if (id >= 0) {
+				docs[n++] = id;
+			}
+		}
+		docs = Arrays.copyOf(docs, n);
+		Arrays.sort(docs);
+		return docs;
+	}
+
+	/**
+	 * @return the doc ids in both of two ascending arrays, ascending
+	 */
+	private static int[] intersect(int[] a, int[] b) {
+		int[] out = new int[Math.min(a.length, b.length)];
+		int i = 0;
+		int j = 0;
+		int n = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (b[j] < a[i]) {
+				j++;
+			} else {
+				out[n++] = a[i++];
+				j++;
+			}
+		}
+		return Arrays.copyOf(out, n);
+	}
+
+	/**
+	 * @return the doc ids in a but not in b, both ascending, ascending
+	 */
+	private static int[] subtract(int[] a, int[] b) {
+		int[] out = new int[a.length];
+		int j = 0;
+		int n = 0;
+		for (int doc : a) {
+			while (j < b.length && b[j] < doc) {
+				j++;
+			}
+			if (j == b.length || b[j] != doc) {
+				out[n++] = doc;
+			}
+		}
+		return Arrays.copyOf(out, n);
+	}
+
+	private static boolean containedIn(List<PostingsList.Cursor> cursors, int doc) {
+		for (PostingsList.Cursor c : cursors) {
+			if (c.advance(doc) == doc) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return summed TFIDF of the query's words in each of docs
+	 */
+	private double[] score(List<Clause> clauses, int[] docs) {
+		Set<String> words = new LinkedHashSet<>();
+		for (Clause clause : clauses) {
+			words.addAll(clause.required);
+		}
+		double[] scores = new double[docs.length];
+		for (String word : words) {
+			PostingsList list = index.postings(word);
+			if (list == null) {
+				continue;
+			}
+			PostingsList.Cursor cursor = list.cursor();
+			for (int i = 0; i < docs.length; i++) {
+				int doc = cursor.advance(docs[i]);
+				if (doc == PostingsList.NO_MORE_DOCS) {
+					break;
+				}
+				if (doc == docs[i]) {
+					scores[i] += cursor.score();
+				}
+			}
+		}
+		return scores;
+	}
+
+	/**
+	 * @return the doc ids in either of two ascending arrays, ascending
+	 */
+	private static int[] union(int[] a, int[] b) {
+		if (a.length == 0) {
+			return b;
+		}
+		if (b.length == 0) {
+			return a;
+		}
+		int[] out = new int[a.length + b.length];
+		int i = 0;
+		int j = 0;
+		int n = 0;
+		while (i < a.length || j < b.length) {
+			if (j == b.length || (i < a.length && a[i] < b[j])) {
+				out[n++] = a[i++];
+			} else if (i == a.length || b[j] < a[i]) {
+				out[n++] = b[j++];
+			} else {
+				out[n++] = a[i++];
+				j++;
+			}
+		}
+		return Arrays.copyOf(out, n);
+	}
+}
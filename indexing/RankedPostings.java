@@ -0,0 +1,23 @@
+package indexing;
+
+/**
+ * Postings of one term that can be read at any rank without walking the
+ * postings before it. searchArticles uses it to return a page of results in
+ * time proportional to the page size.
+ *
+ * @author clairewalker
+ *
+ */
+public interface RankedPostings {
+
+	/**
+	 * @return number of postings
+	 */
+	public int size();
+
+	/**
+	 * @param rank position in TFIDF order, 0 being the highest
+	 * @return the document at that position
+	 */
+	public String documentAt(int rank);
+}
@@ -0,0 +1,108 @@
+package indexing;
+
+import java.util.Arrays;
+
+/**
+ * Assigns dense int ids to strings, in the order they are first added. Ids
+ * start at 0 and are never reused, so they can index plain arrays.
+ *
+ * The strings are kept in an array indexed by id and looked up through an open
+ * addressing table of ids, so the dictionary holds one reference and one int
+ * per string instead of a boxed map entry.
+ *
+ * @author clairewalker
+ *
+ */
+public class TermDictionary {
+	private String[] terms = new String[16];
+	private int[] table = newTable(32);
+	private int size;
+
+	/**
+	 * @return the number of strings in the dictionary
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param term
+	 * @return the id of term, adding it if it isn't in the dictionary yet
+	 */
+	public int add(String term) {
+		int slot = slotOf(term);
+		if (table[slot] >= 0) {
+			return table[slot];
+		}
+		if (size == terms.length) {
+			terms = Arrays.copyOf(terms, size * 2);
+		}
+		int id = size++;
+		terms[id] = term;
+		table[slot] = id;
+		// keep the table at most half full
+		if (size * 2 > table.length) {
+			rehash();
+		}
+		return id;
+	}
+
+	/**
+	 * @param term
+	 * @return the id of term, or -1 if it isn't in the dictionary
+	 */
+	public int get(String term) {
+		return table[slotOf(term)];
+	}
+
+	/**
+	 * @param id
+	 * @return the string with the given id
+	 * @throws IndexOutOfBoundsException if no string has that id
+	 */
+	public String term(int id) throws IndexOutOfBoundsException {
+		if (id < 0 || id >= size) {
+			throw new IndexOutOfBoundsException(String.valueOf(id));
+		}
+		return terms[id];
+	}
+
+	/**
+	 * @return the slot holding term, or the empty slot where it would go
+	 */
+	private int slotOf(String term) {
+		int mask = table.length - 1;
+		int slot = mix(term.hashCode()) & mask;
+		while (table[slot] >= 0 && !terms[table[slot]].equals(term)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void rehash() {
+		table = newTable(table.length * 2);
+		int mask = table.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = mix(terms[id].hashCode()) & mask;
+			while (table[slot] >= 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = id;
+		}
+	}
+
+	private static int[] newTable(int capacity) {
+		int[] t = new int[capacity];
+		Arrays.fill(t, -1);
+		return t;
+	}
+
+	/**
+	 * Spreads the bits of a String hash code, which are poor in the low bits used
+	 * to pick a slot
+	 */
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,45 @@
+package indexing;
+
+import java.util.Collection;
+import java.util.Map.Entry;
+
+/**
+ * Computes the weight a term is given in the autocomplete file from its
+ * postings in the inverted index. Suggestions are ranked by weight, and the
+ * autocomplete tries skip every subtree whose best weight can't make the top
+ * k, so the more weights differ the less of the trie a lookup visits.
+ *
+ * @author clairewalker
+ *
+ */
+@FunctionalInterface
+public interface TermWeighting {
+
+	/**
+	 * @param term
+	 * @param postings the term's document/TFIDF entries from the inverted index
+	 * @return the term's weight, higher ranking first
+	 */
+	public long weight(String term, Collection<?> postings);
+
+	/**
+	 * @return a weighting by the number of documents containing the term
+	 */
+	public static TermWeighting documentFrequency() {
+		return (term, postings) -> postings.size();
+	}
+
+	/**
+	 * @return a weighting by the term's TFIDF summed over its documents, in
+	 *         millionths
+	 */
+	public static TermWeighting summedTfidf() {
+		return (term, postings) -> {
+			double sum = 0;
+			for (Object posting : postings) {
+				sum += ((Number) ((Entry<?, ?>) posting).getValue()).doubleValue();
+			}
+			return Math.round(sum * 1e6);
+		};
+	}
+}
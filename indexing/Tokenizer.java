@@ -0,0 +1,113 @@
+package indexing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits text into lowercase words in a single pass over its characters.
+ * Punctuation is dropped without splitting the word it appears in, so "don't"
+ * becomes "dont", and any run of Unicode whitespace separates words. Empty
+ * words are never produced. Each word is built in a reusable buffer and handed
+ * to a TokenSink, so no intermediate copy of the whole text is made.
+ *
+ * A Tokenizer keeps its buffer between calls and must not be shared between
+ * threads.
+ *
+ * @author clairewalker
+ *
+ */
+public class Tokenizer {
+	private char[] buffer = new char[32];
+
+	/**
+	 * Receives the words found by tokenize
+	 */
+	public interface TokenSink {
+		/**
+		 * @param chars buffer holding the word. Only valid until this method returns
+		 * @param len   number of chars of the word, starting at index 0
+		 */
+		public void token(char[] chars, int len);
+	}
+
+	/**
+	 * Passes each word in text to sink
+	 *
+	 * @param text
+	 * @param sink
+	 * @return the number of words found
+	 */
+	public int tokenize(CharSequence text, TokenSink sink) {
+		int count = 0;
+		int len = 0;
+		int n = text.length();
+		int i = 0;
+		while (i < n) {
+			int cp = Character.codePointAt(text, i);
+			i += Character.charCount(cp);
+			if (isSeparator(cp)) {
+				// end of a word
+				if (len > 0) {
+					sink.token(buffer, len);
+					count++;
+					len = 0;
+				}
+			} else if (!isPunctuation(cp)) {
+				int lower = Character.toLowerCase(cp);
+				if (len + 2 > buffer.length) {
+					char[] bigger = new char[buffer.length * 2];
+					System.arraycopy(buffer, 0, bigger, 0, len);
+					buffer = bigger;
+				}
+				len += Character.toChars(lower, buffer, len);
+			}
+		}
+		if (len > 0) {
+			sink.token(buffer, len);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @param text
+	 * @return List<String> the words in text
+	 */
+	public List<String> tokenize(CharSequence text) {
+		List<String> words = new ArrayList<>();
+		tokenize(text, (chars, len) -> words.add(new String(chars, 0, len)));
+		return words;
+	}
+
+	/**
+	 * @param cp code point
+	 * @return true if cp is any kind of Unicode whitespace
+	 */
+	static boolean isSeparator(int cp) {
+		return Character.isWhitespace(cp) || Character.isSpaceChar(cp);
+	}
+
+	/**
+	 * @param cp code point
+	 * @return true if cp is ASCII punctuation (the \p{Punct} class) or belongs to
+	 *         one of the Unicode punctuation categories
+	 */
+	static boolean isPunctuation(int cp) {
+		if (cp < 128) {
+			return (cp >= '!' && cp <= '/') || (cp >= ':' && cp <= '@') || (cp >= '[' && cp <= '`')
+					|| (cp >= '{' && cp <= '~');
+		}
+		switch (Character.getType(cp)) {
+		case Character.CONNECTOR_PUNCTUATION:
+		case Character.DASH_PUNCTUATION:
+		case Character.START_PUNCTUATION:
+		case Character.END_PUNCTUATION:
+		case Character.INITIAL_QUOTE_PUNCTUATION:
+		case Character.FINAL_QUOTE_PUNCTUATION:
+		case Character.OTHER_PUNCTUATION:
+			return true;
+		default:
+			return false;
+		}
+	}
+}
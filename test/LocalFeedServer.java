@@ -0,0 +1,447 @@
+package test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for the news sites, serving generated RSS feeds and
+ * article pages over HTTP so parseFeed can be tested and load tested without a
+ * network or a hand-started web server.
+ *
+ * Feed f lists articlesPerFeed articles, and its articles are served from the
+ * same host. Feeds are spread round robin over numHosts hosts, 127.0.0.1,
+ * 127.0.0.2 and so on, which all reach this machine but count as different
+ * hosts for per-host limits such as ConcurrentFetcher's. Each host can be given
+ * a latency, added before every response, and a bandwidth shared by every
+ * response from that host, to reproduce slow or busy sites.
+ *
+ * Pages are generated from a SyntheticCorpus when they are requested, so
+ * millions of articles cost no memory, and the same seed always serves the same
+ * pages. Every response has an ETag, and a request sending it back in
+ * If-None-Match gets a 304 with no body, as FetchCache expects from a site
+ * whose pages have not changed.
+ *
+ * <pre>
+ * /feeds/{f}.xml              the RSS feed f
+ * /articles/{f}/{a}.html      article a of feed f
+ * </pre>
+ *
+ * @author clairewalker
+ *
+ */
+public class LocalFeedServer {
+	private static final int CHUNK = 8192;
+	private static final int MAX_HOSTS = 254;
+
+	private final SyntheticCorpus corpus;
+	private final int numFeeds;
+	private final int articlesPerFeed;
+	private final int wordsPerArticle;
+	private Host[] hosts = { new Host(1) };
+	private ExecutorService executor;
+	private int port = -1;
+
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder notModified = new LongAdder();
+	private final LongAdder bytesSent = new LongAdder();
+
+	/**
+	 * @param seed            seed of the generated pages
+	 * @param numFeeds        number of RSS feeds
+	 * @param articlesPerFeed number of articles listed in each feed
+	 * @param wordsPerArticle number of words in the body of each article
+	 * @throws IllegalArgumentException if any count is less than 1
+	 */
+	public LocalFeedServer(long seed, int numFeeds, int articlesPerFeed, int wordsPerArticle)
+			throws IllegalArgumentException {
+		if (numFeeds < 1 || articlesPerFeed < 1 || wordsPerArticle < 1) {
+			throw new IllegalArgumentException();
+		}
+		this.corpus = new SyntheticCorpus(seed, 50000, 1.0);
+		this.numFeeds = numFeeds;
+		this.articlesPerFeed = articlesPerFeed;
+		this.wordsPerArticle = wordsPerArticle;
+	}
+
+	/**
+	 * Spreads the feeds over numHosts hosts. Must be called before start
+	 *
+	 * @param numHosts
+	 * @throws IllegalArgumentException if numHosts is not between 1 and 254
+	 * @throws IllegalStateException    if the server has started
+	 */
+	public void setHosts(int numHosts) throws IllegalArgumentException, IllegalStateException {
+		if (numHosts < 1 || numHosts > MAX_HOSTS) {
+			throw new IllegalArgumentException();
+		}
+		if (executor != null) {
+			throw new IllegalStateException("hosts cannot change once the server has started");
+		}
+		Host[] newHosts = new Host[numHosts];
+		for (int h = 0; h < numHosts; h++) {
+			newHosts[h] = h < hosts.length ? hosts[h] : new Host(h + 1);
+		}
+		hosts = newHosts;
+	}
+
+	/**
+	 * @return number of hosts the feeds are spread over
+	 */
+	public int getHosts() {
+		return hosts.length;
+	}
+
+	/**
+	 * @param millis delay before every response from every host
+	 * @throws IllegalArgumentException if millis is negative
+	 */
+	public void setLatency(long millis) throws IllegalArgumentException {
+		for (int h = 0; h < hosts.length; h++) {
+			setLatency(h, millis);
+		}
+	}
+
+	/**
+	 * @param host   index of the host, from 0
+	 * @param millis delay before every response from the host
+	 * @throws IllegalArgumentException if host is out of range or millis is
+	 *                                  negative
+	 */
+	public void setLatency(int host, long millis) throws IllegalArgumentException {
+		if (host < 0 || host >= hosts.length || millis < 0) {
+			throw new IllegalArgumentException();
+		}
+		hosts[host].latencyMillis = millis;
+	}
+
+	/**
+	 * @param bytesPerSecond bandwidth of every host, or 0 for no limit
+	 * @throws IllegalArgumentException if bytesPerSecond is negative
+	 */
+	public void setBandwidth(long bytesPerSecond) throws IllegalArgumentException {
+		for (int h = 0; h < hosts.length; h++) {
+			setBandwidth(h, bytesPerSecond);
+		}
+	}
+
+	/**
+	 * @param host           index of the host, from 0
+	 * @param bytesPerSecond bandwidth shared by all responses from the host, or 0
+	 *                       for no limit
+	 * @throws IllegalArgumentException if host is out of range or bytesPerSecond
+	 *                                  is negative
+	 */
+	public void setBandwidth(int host, long bytesPerSecond) throws IllegalArgumentException {
+		if (host < 0 || host >= hosts.length || bytesPerSecond < 0) {
+			throw new IllegalArgumentException();
+		}
+		hosts[host].bytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * Starts serving on a free port
+	 *
+	 * @throws IOException if a host's address cannot be bound
+	 */
+	public void start() throws IOException {
+		start(0);
+	}
+
+	/**
+	 * Starts serving on port, 0 for a free one, with every host listening on the
+	 * same port
+	 *
+	 * @param port
+	 * @throws IOException           if a host's address cannot be bound
+	 * @throws IllegalStateException if the server has started
+	 */
+	public void start(int port) throws IOException, IllegalStateException {
+		if (executor != null) {
+			throw new IllegalStateException("already started");
+		}
+		// send small responses straight away rather than waiting on the client's
+		// delayed ack, which would add about 40 ms to every request. Read when the
+		// first server is created
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		// one thread per request in progress, so latency on one response doesn't
+		// hold up the others
+		AtomicInteger threads = new AtomicInteger();
+		executor = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "local-feed-server-" + threads.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			for (Host host : hosts) {
+				InetAddress address = InetAddress.getByName(host.name);
+				host.server = HttpServer.create(new InetSocketAddress(address, port), 0);
+				port = host.server.getAddress().getPort();
+				host.server.createContext("/", exchange -> handle(host, exchange));
+				host.server.setExecutor(executor);
+				host.server.start();
+			}
+		} catch (IOException e) {
+			stop();
+			throw e;
+		}
+		this.port = port;
+	}
+
+	/**
+	 * Stops every host, without waiting for responses in progress
+	 */
+	public void stop() {
+		for (Host host : hosts) {
+			if (host.server != null) {
+				host.server.stop(0);
+				host.server = null;
+			}
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * @return the port every host listens on, or -1 before start
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return number of feeds
+	 */
+	public int getNumFeeds() {
+		return numFeeds;
+	}
+
+	/**
+	 * @return number of articles in all feeds
+	 */
+	public long getNumArticles() {
+		return (long) numFeeds * articlesPerFeed;
+	}
+
+	/**
+	 * @param feed
+	 * @return url of the feed, as served once the server has started
+	 * @throws IllegalArgumentException if there is no such feed
+	 */
+	public String getFeedUrl(int feed) throws IllegalArgumentException {
+		if (feed < 0 || feed >= numFeeds) {
+			throw new IllegalArgumentException();
+		}
+		return base(feed) + "/feeds/" + feed + ".xml";
+	}
+
+	/**
+	 * @return urls of every feed
+	 */
+	public List<String> getFeedUrls() {
+		List<String> urls = new ArrayList<>(numFeeds);
+		for (int feed = 0; feed < numFeeds; feed++) {
+			urls.add(getFeedUrl(feed));
+		}
+		return urls;
+	}
+
+	/**
+	 * @param feed
+	 * @param article
+	 * @return url of the article of the feed
+	 * @throws IllegalArgumentException if there is no such article
+	 */
+	public String getArticleUrl(int feed, int article) throws IllegalArgumentException {
+		if (feed < 0 || feed >= numFeeds || article < 0 || article >= articlesPerFeed) {
+			throw new IllegalArgumentException();
+		}
+		return base(feed) + "/articles/" + feed + "/" + article + ".html";
+	}
+
+	/**
+	 * @return number of requests answered, including 304s and 404s
+	 */
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	/**
+	 * @return number of requests answered with a 304
+	 */
+	public long getNotModified() {
+		return notModified.sum();
+	}
+
+	/**
+	 * @return number of body bytes sent
+	 */
+	public long getBytesSent() {
+		return bytesSent.sum();
+	}
+
+	/**
+	 * @return scheme, host and port of the host serving feed
+	 */
+	private String base(int feed) {
+		return "http://" + hosts[feed % hosts.length].name + ":" + port;
+	}
+
+	/**
+	 * Answers one request for a feed or an article served by host
+	 */
+	private void handle(Host host, HttpExchange exchange) throws IOException {
+		requests.increment();
+		try {
+			sleep(host.latencyMillis);
+			String path = exchange.getRequestURI().getPath();
+			String[] parts = path.split("/");
+			byte[] body = null;
+			String contentType = null;
+			String etag = null;
+			// feeds and articles are only answered by the host they belong to
+			if (parts.length == 3 && parts[1].equals("feeds") && parts[2].endsWith(".xml")) {
+				int feed = parse(parts[2].substring(0, parts[2].length() - 4));
+				if (feed >= 0 && feed < numFeeds && hosts[feed % hosts.length] == host) {
+					etag = "\"f" + feed + "-" + corpus.getSeed() + "\"";
+					contentType = "application/rss+xml; charset=UTF-8";
+					body = feed(feed).getBytes(StandardCharsets.UTF_8);
+				}
+			} else if (parts.length == 4 && parts[1].equals("articles") && parts[3].endsWith(".html")) {
+				int feed = parse(parts[2]);
+				int article = parse(parts[3].substring(0, parts[3].length() - 5));
+				if (feed >= 0 && feed < numFeeds && article >= 0 && article < articlesPerFeed
+						&& hosts[feed % hosts.length] == host) {
+					etag = "\"a" + feed + "-" + article + "-" + corpus.getSeed() + "\"";
+					contentType = "text/html; charset=UTF-8";
+					body = article(feed, article).getBytes(StandardCharsets.UTF_8);
+				}
+			}
+
+			if (body == null) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			exchange.getResponseHeaders().set("ETag", etag);
+			if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				notModified.increment();
+				exchange.sendResponseHeaders(304, -1);
+				return;
+			}
+			exchange.getResponseHeaders().set("Content-Type", contentType);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				for (int off = 0; off < body.length; off += CHUNK) {
+					int len = Math.min(CHUNK, body.length - off);
+					host.transmit(len);
+					os.write(body, off, len);
+					bytesSent.add(len);
+				}
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * @return the RSS of feed, listing a link to each of its articles
+	 */
+	private String feed(int feed) {
+		StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		sb.append("<rss version=\"2.0\"><channel><title>Feed ").append(feed).append("</title>\n");
+		for (int article = 0; article < articlesPerFeed; article++) {
+			String url = getArticleUrl(feed, article);
+			sb.append("<item><title>Article ").append(article).append("</title><link>").append(url)
+					.append("</link><guid>").append(url).append("</guid></item>\n");
+		}
+		return sb.append("</channel></rss>\n").toString();
+	}
+
+	/**
+	 * @return the page of article a of feed, the same every time it is asked for
+	 */
+	private String article(int feed, int article) {
+		long id = (long) feed * articlesPerFeed + article;
+		return corpus.withSeed(corpus.getSeed() * 1000003 + id).page(wordsPerArticle);
+	}
+
+	/**
+	 * @return s as a non-negative int, or -1 if it is not one
+	 */
+	private static int parse(String s) {
+		try {
+			return Integer.parseInt(s);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static void sleep(long millis) {
+		if (millis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * One of the addresses the server listens on, with its latency and the
+	 * bandwidth its responses share
+	 */
+	private static class Host {
+		private final String name;
+		private volatile long latencyMillis;
+		private volatile long bytesPerSecond;
+		private HttpServer server;
+		// time at which the host's link is free again
+		private long linkFreeNanos;
+
+		private Host(int n) {
+			this.name = "127.0.0." + n;
+			this.linkFreeNanos = System.nanoTime();
+		}
+
+		/**
+		 * Waits until len bytes could have been sent over the host's link after
+		 * everything already sent over it
+		 */
+		private void transmit(int len) {
+			long rate = bytesPerSecond;
+			if (rate <= 0) {
+				return;
+			}
+			long done;
+			synchronized (this) {
+				long now = System.nanoTime();
+				if (linkFreeNanos - now < 0) {
+					linkFreeNanos = now;
+				}
+				linkFreeNanos += TimeUnit.SECONDS.toNanos(len) / rate;
+				done = linkFreeNanos;
+			}
+			long wait = done - System.nanoTime();
+			if (wait > 0) {
+				sleep(TimeUnit.NANOSECONDS.toMillis(wait));
+			}
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates a deterministic synthetic news corpus for tests and benchmarks.
+ * Word frequencies follow a Zipfian distribution over a fixed vocabulary, as
+ * they do in real text, and the same seed always produces the same corpus.
+ *
+ * Words are made of lowercase a-z syllables, one per digit of the word's rank
+ * in bijective base 20, so every rank maps to a distinct word and frequent
+ * words are short.
+ *
+ * @author clairewalker
+ *
+ */
+public class SyntheticCorpus {
+	private static final String[] SYLLABLES = { "ba", "ce", "di", "fo", "gu", "ha", "je", "ki", "lo", "mu", "na",
+			"pe", "ri", "so", "tu", "va", "we", "xi", "yo", "zu" };
+	private static final String[] PUNCTUATION = { ",", ".", ";", ":", "!", "?", "'s", "\u2019s", " -", " \u2014" };
+
+	/**
+	 * Standard corpus sizes for benchmarks, from a few feeds' worth of articles
+	 * to a large archive, so results can be compared from one change to the next
+	 */
+	public enum Scale {
+		SMALL(200, 10000), MEDIUM(2000, 50000), LARGE(20000, 200000);
+
+		private final int numDocs;
+		private final int vocabularySize;
+
+		Scale(int numDocs, int vocabularySize) {
+			this.numDocs = numDocs;
+			this.vocabularySize = vocabularySize;
+		}
+
+		/**
+		 * @return number of documents at this scale
+		 */
+		public int numDocs() {
+			return numDocs;
+		}
+
+		/**
+		 * @return number of distinct words at this scale
+		 */
+		public int vocabularySize() {
+			return vocabularySize;
+		}
+
+		/**
+		 * @param seed
+		 * @return a corpus over this scale's vocabulary with a Zipf exponent of 1.0
+		 */
+		public SyntheticCorpus corpus(long seed) {
+			return new SyntheticCorpus(seed, vocabularySize, 1.0);
+		}
+	}
+
+	private final long seed;
+	private final Random random;
+	private final double[] cumulative;
+	private final String[] vocabulary;
+
+	/**
+	 * @param seed           seed of the random sequence
+	 * @param vocabularySize number of distinct words
+	 * @param exponent       Zipf exponent, about 1.0 for natural language
+	 * @throws IllegalArgumentException
+	 */
+	public SyntheticCorpus(long seed, int vocabularySize, double exponent) throws IllegalArgumentException {
+		if (vocabularySize < 1 || exponent <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.seed = seed;
+		this.random = new Random(seed);
+		this.vocabulary = new String[vocabularySize];
+		this.cumulative = new double[vocabularySize];
+		double sum = 0;
+		for (int rank = 0; rank < vocabularySize; rank++) {
+			vocabulary[rank] = word(rank);
+			sum += 1.0 / Math.pow(rank + 1, exponent);
+			cumulative[rank] = sum;
+		}
+		for (int rank = 0; rank < vocabularySize; rank++) {
+			cumulative[rank] /= sum;
+		}
+	}
+
+	/**
+	 * A corpus sharing other's vocabulary and distribution, with its own random
+	 * sequence
+	 */
+	private SyntheticCorpus(SyntheticCorpus other, long seed) {
+		this.seed = seed;
+		this.random = new Random(seed);
+		this.vocabulary = other.vocabulary;
+		this.cumulative = other.cumulative;
+	}
+
+	/**
+	 * @param seed
+	 * @return a corpus over the same vocabulary and distribution whose random
+	 *         sequence starts from seed, without computing the distribution again.
+	 *         It can be used on another thread than this one
+	 */
+	public SyntheticCorpus withSeed(long seed) {
+		return new SyntheticCorpus(this, seed);
+	}
+
+	/**
+	 * @return seed of the random sequence
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * @return the vocabulary, most frequent word first
+	 */
+	public String[] vocabulary() {
+		return vocabulary.clone();
+	}
+
+	/**
+	 * @param rank
+	 * @return the word with the given frequency rank, 0 being the most frequent
+	 */
+	public static String word(int rank) {
+		StringBuilder sb = new StringBuilder();
+		int n = rank + 1;
+		while (n > 0) {
+			n--;
+			sb.append(SYLLABLES[n % SYLLABLES.length]);
+			n /= SYLLABLES.length;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the rank of a word drawn from the Zipfian distribution
+	 */
+	public int nextRank() {
+		double u = random.nextDouble();
+		int lo = 0;
+		int hi = cumulative.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (cumulative[mid] < u) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * @return a word drawn from the Zipfian distribution
+	 */
+	public String nextWord() {
+		return vocabulary[nextRank()];
+	}
+
+	/**
+	 * @param numWords
+	 * @return List<String> numWords words, already lowercase and without
+	 *         punctuation, as parseFeed produces them
+	 */
+	public List<String> tokens(int numWords) {
+		List<String> words = new ArrayList<>(numWords);
+		for (int i = 0; i < numWords; i++) {
+			words.add(nextWord());
+		}
+		return words;
+	}
+
+	/**
+	 * @param numWords
+	 * @return article text of numWords words with capitalised sentences,
+	 *         punctuation and the odd double space, as found in a page body
+	 */
+	public String article(int numWords) {
+		StringBuilder sb = new StringBuilder();
+		boolean sentenceStart = true;
+		for (int i = 0; i < numWords; i++) {
+			if (i > 0) {
+				sb.append(random.nextInt(20) == 0 ? "  " : " ");
+			}
+			String w = nextWord();
+			if (sentenceStart) {
+				sb.append(Character.toUpperCase(w.charAt(0))).append(w, 1, w.length());
+			} else {
+				sb.append(w);
+			}
+			sentenceStart = false;
+			int r = random.nextInt(12);
+			if (r == 0) {
+				sb.append('.');
+				sentenceStart = true;
+			} else if (r == 1) {
+				sb.append(PUNCTUATION[random.nextInt(PUNCTUATION.length)]);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @param numWords
+	 * @return an HTML page whose body holds a headline and an article of about
+	 *         numWords words split into paragraphs
+	 */
+	public String page(int numWords) {
+		StringBuilder sb = new StringBuilder("<html><head><title>");
+		sb.append(nextWord()).append(' ').append(nextWord()).append("</title></head><body><h1>");
+		sb.append(nextWord()).append(' ').append(nextWord()).append("</h1>");
+		for (int written = 0; written < numWords; written += 60) {
+			sb.append("<p>").append(article(Math.min(60, numWords - written))).append("</p>\n");
+		}
+		return sb.append("</body></html>").toString();
+	}
+
+	/**
+	 * @param numDocs
+	 * @param wordsPerDoc average number of words per document
+	 * @return Map<String, List<String>> numDocs documents keyed by url, in the
+	 *         shape returned by parseFeed
+	 */
+	public Map<String, List<String>> documents(int numDocs, int wordsPerDoc) {
+		Map<String, List<String>> docs = new HashMap<>();
+		for (int i = 0; i < numDocs; i++) {
+			int len = wordsPerDoc / 2 + random.nextInt(wordsPerDoc + 1);
+			docs.put(url(i), tokens(len));
+		}
+		return docs;
+	}
+
+	/**
+	 * @param doc
+	 * @return url of the doc-th synthetic document
+	 */
+	public static String url(int doc) {
+		return "http://localhost:8090/article" + doc + ".html";
+	}
+}
@@ -0,0 +1,601 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import autocomplete.Autocomplete;
+import autocomplete.CompactAutocomplete;
+import autocomplete.IAutocomplete;
+import autocomplete.ITerm;
+import autocomplete.Node;
+import autocomplete.PooledTrie;
+import autocomplete.Term;
+
+/**
+ * Checks the suggestions Autocomplete makes against a brute force search of
+ * the same words
+ *
+ * @author clairewalker
+ */
+public class TestAutocomplete {
+
+	/**
+	 * @return n words of the synthetic corpus, each with a weight no other word
+	 *         has, in lexicographic order
+	 */
+	static TreeMap<String, Long> vocabulary(long seed, int n) {
+		List<Long> weights = new ArrayList<>();
+		for (long w = 0; w < n; w++) {
+			weights.add(w * 7 + 3);
+		}
+		Collections.shuffle(weights, new Random(seed));
+		TreeMap<String, Long> words = new TreeMap<>();
+		for (int rank = 0; rank < n; rank++) {
+			words.put(SyntheticCorpus.word(rank), weights.get(rank));
+		}
+		return words;
+	}
+
+	/**
+	 * Writes words in the format of autocomplete.txt: a count line, then a weight
+	 * and a word on each line
+	 */
+	static void write(Path file, Map<String, Long> words) throws IOException {
+		List<String> lines = new ArrayList<>();
+		lines.add(String.valueOf(words.size()));
+		for (Entry<String, Long> e : words.entrySet()) {
+			lines.add("    " + e.getValue() + "\t" + e.getKey());
+		}
+		Files.write(file, lines, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the best k words starting with prefix, as "weight\tword", found by
+	 *         checking every word
+	 */
+	static List<String> bruteForceTop(Map<String, Long> words, String prefix, int k) {
+		List<Entry<String, Long>> matches = new ArrayList<>();
+		for (Entry<String, Long> e : words.entrySet()) {
+			if (e.getKey().startsWith(prefix)) {
+				matches.add(e);
+			}
+		}
+		matches.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+		List<String> out = new ArrayList<>();
+		for (Entry<String, Long> e : matches.subList(0, Math.min(k, matches.size()))) {
+			out.add(e.getValue() + "\t" + e.getKey());
+		}
+		return out;
+	}
+
+	/**
+	 * @return terms as "weight\tword"
+	 */
+	static List<String> strings(List<ITerm> terms) {
+		List<String> out = new ArrayList<>();
+		for (ITerm term : terms) {
+			out.add(term.toString());
+		}
+		return out;
+	}
+
+	/**
+	 * @return every prefix of one and two letters of the words, the empty prefix,
+	 *         some whole words and prefixes nothing starts with
+	 */
+	static List<String> prefixes(Map<String, Long> words) {
+		Set<String> out = new TreeSet<>();
+		out.add("");
+		int i = 0;
+		for (String word : words.keySet()) {
+			out.add(word.substring(0, 1));
+			out.add(word.substring(0, Math.min(2, word.length())));
+			if (i++ % 50 == 0) {
+				out.add(word);
+				out.add(word.substring(0, word.length() - 1));
+			}
+		}
+		out.addAll(Arrays.asList("x", "bax", "zzzz"));
+		return new ArrayList<>(out);
+	}
+
+	private static Autocomplete autocomplete(Map<String, Long> words) {
+		Autocomplete autocomplete = new Autocomplete();
+		for (Entry<String, Long> e : words.entrySet()) {
+			autocomplete.addWord(e.getKey(), e.getValue());
+		}
+		return autocomplete;
+	}
+
+	/**
+	 * Checks every prefix against brute force for several k
+	 */
+	static void assertTopMatchesBruteForce(Map<String, Long> words, IAutocomplete autocomplete) {
+		for (String prefix : prefixes(words)) {
+			for (int k : new int[] { 1, 3, 10, 50, Integer.MAX_VALUE }) {
+				assertEquals(prefix + " " + k, bruteForceTop(words, prefix, k),
+						strings(autocomplete.getTopSuggestions(prefix, k)));
+			}
+		}
+	}
+
+	/**
+	 * Test that the best-first search returns the same k words, in the same
+	 * order, as sorting every word with the prefix
+	 */
+	@Test
+	public void testTopSuggestionsMatchBruteForce() {
+		TreeMap<String, Long> words = vocabulary(1, 3000);
+		Autocomplete autocomplete = autocomplete(words);
+		assertTopMatchesBruteForce(words, autocomplete);
+		// prefixes are lowercased like the words
+		assertEquals(bruteForceTop(words, "ba", 5), strings(autocomplete.getTopSuggestions("BA", 5)));
+		assertTrue(autocomplete.getTopSuggestions("ba", 0).isEmpty());
+	}
+
+	/**
+	 * Test that every node knows the largest weight below it, and how many words
+	 * start with its prefix
+	 */
+	@Test
+	public void testMaxWeightAndCount() {
+		TreeMap<String, Long> words = vocabulary(2, 1000);
+		Autocomplete autocomplete = autocomplete(words);
+		for (String prefix : prefixes(words)) {
+			List<String> all = bruteForceTop(words, prefix, Integer.MAX_VALUE);
+			assertEquals(prefix, all.size(), autocomplete.countPrefixes(prefix));
+			if (all.isEmpty()) {
+				assertNull(prefix, autocomplete.getSubTrie(prefix));
+			} else {
+				long max = Long.parseLong(all.get(0).split("\t")[0]);
+				assertEquals(prefix, max, autocomplete.getSubTrie(prefix).getMaxWeight());
+			}
+		}
+	}
+
+	/**
+	 * Test that when words share weights the best k still have the best weights,
+	 * each word at most once
+	 */
+	@Test
+	public void testEqualWeights() {
+		Map<String, Long> words = new TreeMap<>();
+		Random random = new Random(4);
+		for (int rank = 0; rank < 2000; rank++) {
+			words.put(SyntheticCorpus.word(rank), (long) random.nextInt(5));
+		}
+		Autocomplete autocomplete = autocomplete(words);
+		for (String prefix : prefixes(words)) {
+			for (int k : new int[] { 1, 7, 40 }) {
+				List<ITerm> top = autocomplete.getTopSuggestions(prefix, k);
+				List<String> expected = bruteForceTop(words, prefix, k);
+				assertEquals(prefix, expected.size(), top.size());
+				Set<String> seen = new HashSet<>();
+				for (int i = 0; i < top.size(); i++) {
+					String[] term = top.get(i).toString().split("\t");
+					assertEquals(prefix, expected.get(i).split("\t")[0], term[0]);
+					assertTrue(term[1].startsWith(prefix));
+					assertEquals(Long.valueOf(term[0]), words.get(term[1]));
+					assertTrue(seen.add(term[1]));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test that lookups from several threads while another adds words never fail
+	 * or see a word half added: every word returned is complete with its own
+	 * weight, top suggestions are in weight order, counts only go up, and a word
+	 * added before a lookup starts is always found
+	 */
+	@Test
+	public void testConcurrentReadsDuringWrite() throws InterruptedException {
+		TreeMap<String, Long> words = vocabulary(3, 20000);
+		List<String> order = new ArrayList<>(words.keySet());
+		Collections.shuffle(order, new Random(8));
+		Autocomplete autocomplete = new Autocomplete();
+		AtomicInteger added = new AtomicInteger();
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		List<Thread> readers = new ArrayList<>();
+		for (int r = 0; r < 3; r++) {
+			long seed = r;
+			readers.add(new Thread(() -> {
+				Random random = new Random(seed);
+				Map<String, Integer> lastCounts = new HashMap<>();
+				try {
+					while (!done.get()) {
+						int visible = added.get();
+						if (visible == 0) {
+							continue;
+						}
+						String word = order.get(random.nextInt(visible));
+						String prefix = word.substring(0, 1 + random.nextInt(Math.min(3, word.length())));
+						assertNotNull(word, autocomplete.getSubTrie(word));
+						assertTrue(word, ((Term) autocomplete.getTopSuggestions(word, 1).get(0)).getWeight() >= words.get(word));
+
+						int count = autocomplete.countPrefixes(prefix);
+						assertTrue(prefix, count >= lastCounts.getOrDefault(prefix, 1));
+						lastCounts.put(prefix, count);
+
+						long previous = Long.MAX_VALUE;
+						for (ITerm term : autocomplete.getTopSuggestions(prefix, 10)) {
+							String[] t = term.toString().split("\t");
+							assertTrue(t[1], t[1].startsWith(prefix));
+							assertEquals(t[1], words.get(t[1]), Long.valueOf(t[0]));
+							assertTrue(Long.parseLong(t[0]) <= previous);
+							previous = Long.parseLong(t[0]);
+						}
+						for (ITerm term : autocomplete.getSuggestions(word)) {
+							String[] t = term.toString().split("\t");
+							assertEquals(t[1], words.get(t[1]), Long.valueOf(t[0]));
+						}
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			}));
+		}
+		for (Thread reader : readers) {
+			reader.start();
+		}
+		for (String word : order) {
+			autocomplete.addWord(word, words.get(word));
+			added.incrementAndGet();
+		}
+		done.set(true);
+		for (Thread reader : readers) {
+			reader.join(60000);
+			assertFalse(reader.isAlive());
+		}
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+		assertTopMatchesBruteForce(words, autocomplete);
+	}
+
+	/**
+	 * Checks that two tries have the same shape, and the same counts, maximum
+	 * weights and words in every node
+	 */
+	private static void assertSameTrie(String path, Node expected, Node actual) {
+		assertEquals(path, expected.getPrefixes(), actual.getPrefixes());
+		assertEquals(path, expected.getMaxWeight(), actual.getMaxWeight());
+		assertEquals(path, expected.getWords(), actual.getWords());
+		if (expected.getWords() == 1) {
+			assertEquals(path, expected.getTerm().toString(), actual.getTerm().toString());
+		}
+		for (int i = 0; i < 26; i++) {
+			String child = path + (char) ('a' + i);
+			if (expected.getReference(i) == null) {
+				assertNull(child, actual.getReference(i));
+			} else {
+				assertNotNull(child, actual.getReference(i));
+				assertSameTrie(child, expected.getReference(i), actual.getReference(i));
+			}
+		}
+	}
+
+	/**
+	 * Test that bulkLoad builds the same trie as buildTrie from a sorted file,
+	 * from the same file shuffled, and from lines buildTrie skips or reads oddly
+	 */
+	@Test
+	public void testBulkLoadMatchesBuildTrie() throws IOException {
+		Path directory = Files.createTempDirectory("bulk-load");
+		Path file = directory.resolve("autocomplete.txt");
+		try {
+			TreeMap<String, Long> words = vocabulary(9, 5000);
+			write(file, words);
+			List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+			List<List<String>> files = new ArrayList<>();
+			files.add(lines);
+
+			List<String> shuffled = new ArrayList<>(lines.subList(1, lines.size()));
+			Collections.shuffle(shuffled, new Random(10));
+			shuffled.add(0, lines.get(0));
+			files.add(shuffled);
+
+			// each of these is skipped, or read the same way, by both
+			List<String> messy = new ArrayList<>(lines);
+			messy.addAll(Arrays.asList("", "   ", "17", "word", "notanumber word", "-5 negative", "5- dash",
+					"99999999999999999999 overflow", "7 has-dash", "8 digits2", "+9 plus", "\t10\tTabbed",
+					"11 UPPER", "12 trailing\r", "13 extra columns here", "14 baba", "2 baba", "15\tca"));
+			files.add(messy);
+
+			for (List<String> content : files) {
+				Files.write(file, content, StandardCharsets.UTF_8);
+				Autocomplete built = new Autocomplete();
+				built.buildTrie(file.toString(), 10);
+				Autocomplete loaded = new Autocomplete();
+				assertSame(loaded.getRoot(), loaded.bulkLoad(file.toString(), 10));
+				assertEquals(10, loaded.numberSuggestions());
+				assertSameTrie("", built.getRoot(), loaded.getRoot());
+				for (String prefix : prefixes(words)) {
+					assertEquals(prefix, strings(built.getTopSuggestions(prefix, 10)),
+							strings(loaded.getTopSuggestions(prefix, 10)));
+				}
+			}
+			Files.write(file, lines, StandardCharsets.UTF_8);
+			Autocomplete sorted = new Autocomplete();
+			sorted.bulkLoad(file.toString(), 10);
+			assertTopMatchesBruteForce(words, sorted);
+
+			// a missing file leaves the trie empty
+			Autocomplete missing = new Autocomplete();
+			missing.bulkLoad(directory.resolve("missing.txt").toString(), 10);
+			assertEquals(0, missing.countPrefixes(""));
+		} finally {
+			Files.deleteIfExists(file);
+			Files.delete(directory);
+		}
+	}
+
+	/**
+	 * Test that typing a word one letter at a time is answered from the cache
+	 * after the first letter, with the same suggestions as walking the trie
+	 */
+	@Test
+	public void testCacheRefinesPrefixes() {
+		TreeMap<String, Long> words = vocabulary(11, 3000);
+		Autocomplete autocomplete = autocomplete(words);
+		String word = words.lastKey();
+		for (int length = 1; length <= word.length(); length++) {
+			String prefix = word.substring(0, length);
+			assertEquals(prefix, bruteForceTop(words, prefix, 10), strings(autocomplete.getTopSuggestions(prefix, 10)));
+		}
+		// the first letter walks the trie; later ones do too only when the cached
+		// candidates can't settle the answer
+		long hits = autocomplete.getCacheHits();
+		long misses = autocomplete.getCacheMisses();
+		assertEquals(word.length(), hits + misses);
+		assertTrue(misses >= 1 && hits >= 1);
+		assertEquals((double) hits / word.length(), autocomplete.getCacheHitRate(), 1e-9);
+
+		// asking again, or for fewer, is a hit; a prefix off the cached ones is not
+		assertEquals(bruteForceTop(words, word, 3), strings(autocomplete.getTopSuggestions(word, 3)));
+		assertEquals(hits + 1, autocomplete.getCacheHits());
+		String other = words.firstKey().substring(0, 2);
+		assertFalse(other.charAt(0) == word.charAt(0));
+		assertEquals(bruteForceTop(words, other, 10), strings(autocomplete.getTopSuggestions(other, 10)));
+		assertEquals(misses + 1, autocomplete.getCacheMisses());
+	}
+
+	/**
+	 * Test that adding a word, replacing the root or loading a file empties the
+	 * cache, so the next lookup sees the new words
+	 */
+	@Test
+	public void testCacheInvalidatedByAddWord() throws IOException {
+		TreeMap<String, Long> words = vocabulary(12, 500);
+		Autocomplete autocomplete = autocomplete(words);
+		assertEquals(bruteForceTop(words, "ba", 5), strings(autocomplete.getTopSuggestions("ba", 5)));
+		assertEquals(bruteForceTop(words, "bac", 5), strings(autocomplete.getTopSuggestions("bac", 5)));
+		long misses = autocomplete.getCacheMisses();
+
+		// heavier than anything, below a cached prefix
+		words.put("bacezz", 1000000L);
+		autocomplete.addWord("bacezz", 1000000L);
+		assertEquals(bruteForceTop(words, "bace", 5), strings(autocomplete.getTopSuggestions("bace", 5)));
+		assertEquals("1000000\tbacezz", strings(autocomplete.getTopSuggestions("ba", 1)).get(0));
+		assertEquals(misses + 2, autocomplete.getCacheMisses());
+
+		// a word from nowhere, after the only candidates for its prefix were cached
+		assertTrue(autocomplete.getTopSuggestions("zz", 5).isEmpty());
+		autocomplete.addWord("zzz", 1);
+		assertEquals(Arrays.asList("1\tzzz"), strings(autocomplete.getTopSuggestions("zz", 5)));
+
+		autocomplete.setRoot(new Autocomplete().getRoot());
+		assertTrue(autocomplete.getTopSuggestions("ba", 5).isEmpty());
+
+		Path directory = Files.createTempDirectory("cache");
+		Path file = directory.resolve("autocomplete.txt");
+		try {
+			write(file, words);
+			autocomplete.bulkLoad(file.toString(), 10);
+			assertEquals(bruteForceTop(words, "ba", 5), strings(autocomplete.getTopSuggestions("ba", 5)));
+		} finally {
+			Files.deleteIfExists(file);
+			Files.delete(directory);
+		}
+	}
+
+	/**
+	 * Test that random keystrokes interleaved with new words always get the
+	 * suggestions brute force gives for the words added so far
+	 */
+	@Test
+	public void testCacheMatchesBruteForceWhileAdding() {
+		TreeMap<String, Long> all = vocabulary(13, 4000);
+		List<String> order = new ArrayList<>(all.keySet());
+		Collections.shuffle(order, new Random(14));
+		Map<String, Long> words = new HashMap<>();
+		Autocomplete autocomplete = new Autocomplete();
+		Random random = new Random(15);
+		int next = 0;
+		for (int step = 0; step < 400; step++) {
+			for (int n = random.nextInt(8); n > 0 && next < order.size(); n--) {
+				String word = order.get(next++);
+				words.put(word, all.get(word));
+				autocomplete.addWord(word, all.get(word));
+			}
+			String word = order.get(random.nextInt(order.size()));
+			int k = 1 + random.nextInt(12);
+			for (int length = 0; length <= word.length(); length++) {
+				String prefix = word.substring(0, length);
+				assertEquals(prefix, bruteForceTop(words, prefix, k), strings(autocomplete.getTopSuggestions(prefix, k)));
+			}
+		}
+		assertTrue(autocomplete.getCacheHits() > autocomplete.getCacheMisses());
+	}
+
+	/**
+	 * @return edit distance between a and b, counting code points
+	 */
+	private static int distance(int[] a, int[] b) {
+		int[] row = new int[b.length + 1];
+		for (int j = 0; j <= b.length; j++) {
+			row[j] = j;
+		}
+		for (int i = 1; i <= a.length; i++) {
+			int diagonal = row[0];
+			row[0] = i;
+			for (int j = 1; j <= b.length; j++) {
+				int above = row[j];
+				row[j] = Math.min(Math.min(row[j] + 1, row[j - 1] + 1), diagonal + (a[i - 1] == b[j - 1] ? 0 : 1));
+				diagonal = above;
+			}
+		}
+		return row[b.length];
+	}
+
+	/**
+	 * @return the best k words starting within maxEdits of prefix, fewest edits
+	 *         then highest weight first, as "weight\tword", found by checking
+	 *         every prefix of every word
+	 */
+	static List<String> bruteForceFuzzy(Map<String, Long> words, String prefix, int maxEdits, int k) {
+		int[] target = prefix.codePoints().toArray();
+		Map<String, Integer> distances = new HashMap<>();
+		for (String word : words.keySet()) {
+			int[] codePoints = word.codePoints().toArray();
+			int best = Integer.MAX_VALUE;
+			for (int length = 0; length <= codePoints.length; length++) {
+				best = Math.min(best, distance(Arrays.copyOf(codePoints, length), target));
+			}
+			if (best <= maxEdits) {
+				distances.put(word, best);
+			}
+		}
+		List<String> matches = new ArrayList<>(distances.keySet());
+		matches.sort((a, b) -> !distances.get(a).equals(distances.get(b)) ? distances.get(a) - distances.get(b)
+				: Long.compare(words.get(b), words.get(a)));
+		List<String> out = new ArrayList<>();
+		for (String word : matches.subList(0, Math.min(k, matches.size()))) {
+			out.add(words.get(word) + "\t" + word);
+		}
+		return out;
+	}
+
+	/**
+	 * Checks fuzzy suggestions for misspelt prefixes of the words against brute
+	 * force
+	 */
+	static void assertFuzzyMatchesBruteForce(Map<String, Long> words, IAutocomplete autocomplete, long seed) {
+		List<String> list = new ArrayList<>(words.keySet());
+		Collections.sort(list);
+		Random random = new Random(seed);
+		for (int i = 0; i < 150; i++) {
+			// a prefix of a word with a letter changed, dropped or added, or not
+			int[] word = list.get(random.nextInt(list.size())).codePoints().toArray();
+			List<Integer> prefix = new ArrayList<>();
+			for (int c = 0; c < 1 + random.nextInt(Math.min(6, word.length)); c++) {
+				prefix.add(word[c]);
+			}
+			int at = random.nextInt(prefix.size());
+			int other = word[random.nextInt(word.length)];
+			switch (random.nextInt(4)) {
+			case 0:
+				prefix.set(at, other);
+				break;
+			case 1:
+				prefix.remove(at);
+				break;
+			case 2:
+				prefix.add(at, other);
+				break;
+			default:
+				break;
+			}
+			StringBuilder typed = new StringBuilder();
+			for (int codePoint : prefix) {
+				typed.appendCodePoint(codePoint);
+			}
+			int maxEdits = 1 + random.nextInt(2);
+			int k = 1 + random.nextInt(10);
+			assertEquals(typed + " " + maxEdits + " " + k, bruteForceFuzzy(words, typed.toString(), maxEdits, k),
+					strings(autocomplete.getFuzzySuggestions(typed.toString(), maxEdits, k)));
+		}
+	}
+
+	/**
+	 * Test that fuzzy suggestions come fewest edits first, then highest weight,
+	 * in every implementation
+	 */
+	@Test
+	public void testFuzzyRanking() {
+		Map<String, Long> words = new TreeMap<>();
+		words.put("news", 10L);
+		words.put("newt", 90L);
+		words.put("nets", 50L);
+		words.put("mews", 70L);
+		words.put("new", 5L);
+		words.put("nations", 100L);
+		for (IAutocomplete autocomplete : new IAutocomplete[] { autocomplete(words), new PooledTrie(),
+				CompactAutocomplete.build(new TreeMap<>(words), 10) }) {
+			if (autocomplete instanceof PooledTrie) {
+				for (Entry<String, Long> e : words.entrySet()) {
+					autocomplete.addWord(e.getKey(), e.getValue());
+				}
+			}
+			String name = autocomplete.getClass().getSimpleName();
+			assertEquals(name, Arrays.asList("10\tnews", "90\tnewt", "70\tmews", "50\tnets", "5\tnew"),
+					strings(autocomplete.getFuzzySuggestions("news", 1, 10)));
+			assertEquals(name, Arrays.asList("10\tnews", "90\tnewt"),
+					strings(autocomplete.getFuzzySuggestions("NEWS", 1, 2)));
+			assertEquals(name, Arrays.asList("10\tnews"), strings(autocomplete.getFuzzySuggestions("news", 0, 10)));
+			// nations starts with nat, nets with one edit, the new words with two and
+			// mews with three
+			assertEquals(name, Arrays.asList("100\tnations", "50\tnets", "90\tnewt", "10\tnews", "5\tnew"),
+					strings(autocomplete.getFuzzySuggestions("nat", 2, 10)));
+			assertTrue(name, autocomplete.getFuzzySuggestions("news", -1, 10).isEmpty());
+			assertTrue(name, autocomplete.getFuzzySuggestions("news", 1, 0).isEmpty());
+			assertTrue(name, autocomplete.getFuzzySuggestions(null, 1, 10).isEmpty());
+			assertTrue(name, autocomplete.getFuzzySuggestions("zzzzzz", 2, 10).isEmpty());
+		}
+	}
+
+	/**
+	 * Test that misspelt prefixes get the suggestions brute force finds, in
+	 * every implementation, and with any code point in PooledTrie
+	 */
+	@Test
+	public void testFuzzyMatchesBruteForce() {
+		TreeMap<String, Long> words = vocabulary(16, 2000);
+		assertFuzzyMatchesBruteForce(words, autocomplete(words), 17);
+		assertFuzzyMatchesBruteForce(words, CompactAutocomplete.build(words, 10), 17);
+		PooledTrie trie = new PooledTrie();
+		for (Entry<String, Long> e : words.entrySet()) {
+			trie.addWord(e.getKey(), e.getValue());
+		}
+		assertFuzzyMatchesBruteForce(words, trie, 17);
+
+		Map<String, Long> unicode = new HashMap<>();
+		Random random = new Random(18);
+		String[] letters = { "a", "\u00E9", "\u6771", "7", "\uD801\uDC28" };
+		PooledTrie unicodeTrie = new PooledTrie();
+		while (unicode.size() < 500) {
+			StringBuilder word = new StringBuilder();
+			for (int length = 1 + random.nextInt(6); length > 0; length--) {
+				word.append(letters[random.nextInt(letters.length)]);
+			}
+			if (!unicode.containsKey(word.toString())) {
+				unicode.put(word.toString(), 1000L + unicode.size());
+				unicodeTrie.addWord(word.toString(), 1000L + unicode.size() - 1);
+			}
+		}
+		assertFuzzyMatchesBruteForce(unicode, unicodeTrie, 19);
+	}
+}
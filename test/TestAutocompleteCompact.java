@@ -0,0 +1,202 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import autocomplete.CompactAutocomplete;
+
+/**
+ * Checks that CompactAutocomplete, built in memory, loaded from a file or
+ * memory-mapped from a saved automaton, suggests the same words as brute force,
+ * and that a damaged automaton is rejected
+ *
+ * @author clairewalker
+ */
+public class TestAutocompleteCompact {
+	// magic, version, numWords, root, maxWeight and the checksum of the states
+	private static final int HEADER = 4 + 4 + 4 + 4 + 8 + 4;
+
+	private Path directory;
+	private TreeMap<String, Long> words;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("compact-autocomplete");
+		words = TestAutocomplete.vocabulary(5, 2000);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+
+	/**
+	 * Checks the suggestions and counts of every prefix against brute force
+	 */
+	private void assertMatchesBruteForce(CompactAutocomplete automaton) {
+		assertEquals(words.size(), automaton.numWords());
+		TestAutocomplete.assertTopMatchesBruteForce(words, automaton);
+		for (String prefix : TestAutocomplete.prefixes(words)) {
+			// every word with the prefix, in lexicographic order
+			List<String> expected = new ArrayList<>();
+			for (Map.Entry<String, Long> e : words.subMap(prefix, prefix + Character.MAX_VALUE).entrySet()) {
+				expected.add(e.getValue() + "\t" + e.getKey());
+			}
+			assertEquals(prefix, expected, TestAutocomplete.strings(automaton.getSuggestions(prefix)));
+			assertEquals(prefix, expected.size(), automaton.countPrefixes(prefix));
+		}
+	}
+
+	private void assertRejected(byte[] bytes, String reason) throws IOException {
+		Path file = Files.createTempFile(directory, "damaged", ".fst");
+		Files.write(file, bytes);
+		try {
+			CompactAutocomplete.open(file, 10);
+			fail("opened an automaton that should be " + reason);
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(reason));
+		}
+	}
+
+	/**
+	 * Test that an automaton built from a map suggests what brute force does
+	 */
+	@Test
+	public void testBuild() {
+		CompactAutocomplete automaton = CompactAutocomplete.build(words, 10);
+		assertMatchesBruteForce(automaton);
+		assertEquals(10, automaton.numberSuggestions());
+		assertTrue(automaton.getTopSuggestions("ba", 0).isEmpty());
+		assertTrue(automaton.getTopSuggestions(null, 5).isEmpty());
+		assertNull(automaton.getSubTrie("zzzz"));
+		assertEquals(words.get("ba").longValue(), automaton.getSubTrie("BA").getWeight());
+	}
+
+	/**
+	 * Test that buildTrie reads autocomplete.txt like Autocomplete: the count line
+	 * and bad lines are skipped, and words are lowercased
+	 */
+	@Test
+	public void testBuildTrie() throws IOException {
+		Path file = directory.resolve("autocomplete.txt");
+		TestAutocomplete.write(file, words);
+		List<String> lines = new ArrayList<>(Files.readAllLines(file));
+		lines.addAll(Arrays.asList("", "   12", "notanumber word", "-5 negative", "7 has-dash", "9 caf\u00E9"));
+		Files.write(file, lines);
+		CompactAutocomplete automaton = new CompactAutocomplete();
+		automaton.buildTrie(file.toString(), 7);
+		assertEquals(7, automaton.numberSuggestions());
+		assertMatchesBruteForce(automaton);
+	}
+
+	/**
+	 * Test that an automaton saved and memory-mapped back is byte for byte the
+	 * same and suggests the same words
+	 */
+	@Test
+	public void testWriteAndOpen() throws IOException {
+		CompactAutocomplete built = CompactAutocomplete.build(words, 10);
+		Path file = directory.resolve("autocomplete.fst");
+		built.write(file);
+		assertEquals(built.byteSize(), Files.size(file));
+		CompactAutocomplete opened = CompactAutocomplete.open(file, 10);
+		assertEquals(built.byteSize(), opened.byteSize());
+		assertMatchesBruteForce(opened);
+
+		// an empty automaton saves and opens too
+		new CompactAutocomplete().write(file);
+		CompactAutocomplete empty = CompactAutocomplete.open(file, 10);
+		assertEquals(0, empty.numWords());
+		assertTrue(empty.getTopSuggestions("", 10).isEmpty());
+	}
+
+	/**
+	 * Test that flipping any byte of the states fails the checksum, and that a
+	 * truncated file, a bad root offset, a bad magic number and another version
+	 * are all rejected
+	 */
+	@Test
+	public void testDamagedAutomaton() throws IOException {
+		Path file = directory.resolve("autocomplete.fst");
+		CompactAutocomplete.build(new TreeMap<>(words.headMap("ce")), 10).write(file);
+		byte[] bytes = Files.readAllBytes(file);
+		assertTrue(bytes.length > HEADER);
+		for (int i = HEADER; i < bytes.length; i++) {
+			byte[] damaged = bytes.clone();
+			damaged[i] ^= 0x04;
+			assertRejected(damaged, "corrupt automaton");
+		}
+		for (int length : new int[] { HEADER, HEADER + 1, bytes.length - 1 }) {
+			assertRejected(Arrays.copyOf(bytes, length), "corrupt automaton");
+		}
+		assertRejected(Arrays.copyOf(bytes, HEADER - 1), "not an autocomplete automaton");
+
+		byte[] damaged = bytes.clone();
+		ByteBuffer.wrap(damaged).putInt(12, bytes.length);
+		assertRejected(damaged, "corrupt automaton");
+		damaged = bytes.clone();
+		damaged[0] ^= 0x01;
+		assertRejected(damaged, "not an autocomplete automaton");
+		damaged = bytes.clone();
+		ByteBuffer.wrap(damaged).putInt(4, CompactAutocomplete.VERSION + 1);
+		assertRejected(damaged, "unsupported automaton version " + (CompactAutocomplete.VERSION + 1));
+	}
+
+	/**
+	 * Test that words sharing suffixes share states, so the automaton is smaller
+	 * than the words themselves
+	 */
+	@Test
+	public void testSharesSuffixes() {
+		TreeMap<String, Long> shared = new TreeMap<>();
+		for (String first : new String[] { "ba", "ce", "di", "fo", "gu" }) {
+			for (String second : new String[] { "ha", "je", "ki", "lo", "mu" }) {
+				// the same weight for the same suffix, so the suffix states are equal
+				shared.put(first + second + "nation", 100L);
+			}
+		}
+		int letters = 0;
+		for (String word : shared.keySet()) {
+			letters += word.length();
+		}
+		CompactAutocomplete automaton = CompactAutocomplete.build(shared, 10);
+		assertTrue(automaton.byteSize() < letters);
+		assertEquals(25, automaton.countPrefixes(""));
+		assertEquals(5, automaton.countPrefixes("ce"));
+		assertEquals(Arrays.asList("100\tcehanation"), TestAutocomplete.strings(automaton.getSuggestions("ceh")));
+		assertEquals(3, automaton.getTopSuggestions("ba", 3).size());
+	}
+
+	/**
+	 * Test that the automaton is read-only
+	 */
+	@Test(expected = UnsupportedOperationException.class)
+	public void testAddWord() {
+		CompactAutocomplete.build(words, 10).addWord("new", 1);
+	}
+
+	/**
+	 * Test that words outside a to z are rejected by build
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testBuildRejectsOtherLetters() {
+		TreeMap<String, Long> bad = new TreeMap<>(words.headMap("bab"));
+		bad.put("caf\u00E9", 1L);
+		CompactAutocomplete.build(bad, 10);
+	}
+}
@@ -0,0 +1,205 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+import autocomplete.PooledTrie;
+
+/**
+ * Checks that PooledTrie suggests the same words as brute force, including
+ * words of any Unicode code point
+ *
+ * @author clairewalker
+ */
+public class TestAutocompletePooled {
+	// a, e acute, a CJK ideograph, a digit, a Cyrillic letter and a Deseret letter
+	// outside the Basic Multilingual Plane
+	private static final String[] LETTERS = { "a", "\u00E9", "\u6771", "7", "\u0434", "\uD801\uDC28" };
+
+	/**
+	 * orders strings by code point, as PooledTrie orders children
+	 */
+	private static int compareCodePoints(String a, String b) {
+		int[] x = a.codePoints().toArray();
+		int[] y = b.codePoints().toArray();
+		for (int i = 0; i < Math.min(x.length, y.length); i++) {
+			if (x[i] != y[i]) {
+				return Integer.compare(x[i], y[i]);
+			}
+		}
+		return Integer.compare(x.length, y.length);
+	}
+
+	private static PooledTrie trie(Map<String, Long> words) {
+		PooledTrie trie = new PooledTrie();
+		for (Entry<String, Long> e : words.entrySet()) {
+			trie.addWord(e.getKey(), e.getValue());
+		}
+		return trie;
+	}
+
+	/**
+	 * @return n random words of LETTERS, each with a weight no other word has
+	 */
+	private static Map<String, Long> unicodeVocabulary(long seed, int n) {
+		Random random = new Random(seed);
+		Set<String> words = new HashSet<>();
+		while (words.size() < n) {
+			StringBuilder word = new StringBuilder();
+			for (int length = 1 + random.nextInt(6); length > 0; length--) {
+				word.append(LETTERS[random.nextInt(LETTERS.length)]);
+			}
+			words.add(word.toString());
+		}
+		List<Long> weights = new ArrayList<>();
+		for (long w = 0; w < n; w++) {
+			weights.add(w * 3 + 1);
+		}
+		Collections.shuffle(weights, random);
+		Map<String, Long> out = new HashMap<>();
+		int i = 0;
+		for (String word : words) {
+			out.put(word, weights.get(i++));
+		}
+		return out;
+	}
+
+	/**
+	 * Checks top-k, every suggestion in code point order and the counts of each
+	 * prefix of up to two code points against brute force
+	 */
+	private static void assertMatchesBruteForce(Map<String, Long> words, PooledTrie trie) {
+		// whole code points only: a prefix ending inside a surrogate pair matches
+		// nothing, as testNonLatinWords checks
+		Set<String> prefixes = new HashSet<>(Arrays.asList("", "zzzz"));
+		int n = 0;
+		for (String word : words.keySet()) {
+			int[] codePoints = word.codePoints().toArray();
+			prefixes.add(new String(codePoints, 0, 1));
+			prefixes.add(new String(codePoints, 0, Math.min(2, codePoints.length)));
+			if (n++ % 50 == 0) {
+				prefixes.add(word);
+			}
+		}
+		for (String prefix : prefixes) {
+			for (int k : new int[] { 1, 4, 25, Integer.MAX_VALUE }) {
+				assertEquals(prefix + " " + k, TestAutocomplete.bruteForceTop(words, prefix, k),
+						TestAutocomplete.strings(trie.getTopSuggestions(prefix, k)));
+			}
+			List<String> expected = new ArrayList<>();
+			for (String word : words.keySet()) {
+				if (word.startsWith(prefix)) {
+					expected.add(word);
+				}
+			}
+			expected.sort(TestAutocompletePooled::compareCodePoints);
+			for (int i = 0; i < expected.size(); i++) {
+				expected.set(i, words.get(expected.get(i)) + "\t" + expected.get(i));
+			}
+			assertEquals(prefix, expected, TestAutocomplete.strings(trie.getSuggestions(prefix)));
+			assertEquals(prefix, expected.size(), trie.countPrefixes(prefix));
+		}
+	}
+
+	/**
+	 * Test that a trie of a to z words suggests what brute force does
+	 */
+	@Test
+	public void testMatchesBruteForce() {
+		Map<String, Long> words = TestAutocomplete.vocabulary(6, 2000);
+		assertMatchesBruteForce(words, trie(words));
+	}
+
+	/**
+	 * Test that words of accented, CJK, Cyrillic, digit and supplementary code
+	 * points are all kept and suggested as brute force does
+	 */
+	@Test
+	public void testAnyCodePoint() {
+		Map<String, Long> words = unicodeVocabulary(7, 1500);
+		PooledTrie trie = trie(words);
+		assertMatchesBruteForce(words, trie);
+		// every word is a path of code points, so there are no more nodes than code
+		// points plus the root
+		int codePoints = 0;
+		for (String word : words.keySet()) {
+			codePoints += word.codePointCount(0, word.length());
+		}
+		assertTrue(trie.numNodes() <= codePoints + 1);
+	}
+
+	/**
+	 * Test words that Autocomplete drops, and that a prefix ending half way
+	 * through a surrogate pair matches nothing
+	 */
+	@Test
+	public void testNonLatinWords() {
+		PooledTrie trie = new PooledTrie();
+		trie.addWord("caf\u00E9", 30);
+		trie.addWord("cafe", 20);
+		trie.addWord("caf\u00E9s", 10);
+		trie.addWord("\u6771\u4EAC", 50);
+		trie.addWord("\u6771\u4EAC\u90FD", 40);
+		trie.addWord("b52", 5);
+		// uppercase e acute and a Deseret capital are lowercased
+		trie.addWord("\u00C9COLE", 8);
+		trie.addWord("\uD801\uDC00\uD801\uDC01", 9);
+		assertEquals(Arrays.asList("30\tcaf\u00E9", "20\tcafe", "10\tcaf\u00E9s"),
+				TestAutocomplete.strings(trie.getTopSuggestions("caf", 5)));
+		assertEquals(Arrays.asList("30\tcaf\u00E9", "10\tcaf\u00E9s"),
+				TestAutocomplete.strings(trie.getTopSuggestions("CAF\u00C9", 5)));
+		assertEquals(Arrays.asList("50\t\u6771\u4EAC", "40\t\u6771\u4EAC\u90FD"),
+				TestAutocomplete.strings(trie.getTopSuggestions("\u6771", 5)));
+		assertEquals(Arrays.asList("5\tb52"), TestAutocomplete.strings(trie.getTopSuggestions("b5", 5)));
+		assertEquals(Arrays.asList("8\t\u00E9cole"), TestAutocomplete.strings(trie.getTopSuggestions("\u00E9", 5)));
+		assertEquals(Arrays.asList("9\t\uD801\uDC28\uD801\uDC29"),
+				TestAutocomplete.strings(trie.getTopSuggestions("\uD801\uDC28", 5)));
+		assertEquals(1, trie.countPrefixes("\uD801\uDC00"));
+		assertEquals(0, trie.countPrefixes("\uD801"));
+		assertTrue(trie.getTopSuggestions("\uD801", 5).isEmpty());
+		assertNull(trie.getSubTrie("\uD801"));
+		assertEquals(8, trie.countPrefixes(""));
+	}
+
+	/**
+	 * Test that adding a word again replaces its weight, and that the largest
+	 * weight above it goes down as well as up
+	 */
+	@Test
+	public void testReplaceWeight() {
+		PooledTrie trie = new PooledTrie();
+		trie.addWord("news", 100);
+		trie.addWord("newt", 40);
+		trie.addWord("nest", 60);
+		assertEquals(100, trie.getSubTrie("ne").getMaxWeight());
+		trie.addWord("news", 10);
+		assertEquals(3, trie.countPrefixes("n"));
+		assertEquals(40, trie.getSubTrie("new").getMaxWeight());
+		assertEquals(60, trie.getSubTrie("ne").getMaxWeight());
+		assertEquals(Arrays.asList("60\tnest", "40\tnewt", "10\tnews"),
+				TestAutocomplete.strings(trie.getTopSuggestions("n", 5)));
+		trie.addWord("NEWS", 70);
+		assertEquals(70, trie.getSubTrie("").getMaxWeight());
+		assertEquals(Arrays.asList("70\tnews", "60\tnest"), TestAutocomplete.strings(trie.getTopSuggestions("n", 2)));
+	}
+
+	/**
+	 * Test that a negative weight is rejected
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeWeight() {
+		new PooledTrie().addWord("news", -1);
+	}
+
+	/**
+	 * Test that a null word is rejected
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullWord() {
+		new PooledTrie().addWord(null, 1);
+	}
+}
@@ -0,0 +1,176 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsoup.HttpStatusException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import indexing.FetchCache;
+
+/**
+ * Checks how FetchCache revalidates against a stub server that answers 304
+ * whenever the request carries the page's ETag
+ *
+ * @author clairewalker
+ */
+public class TestFetchCache {
+	private static final String BODY = "<html><body>unchanged page</body></html>";
+	private static final String ETAG = "\"v1\"";
+
+	private HttpServer server;
+	private Path directory;
+	// the If-None-Match header of each request, or null when there was none
+	private final List<String> conditions = new ArrayList<>();
+	// answer 304 even to requests without If-None-Match
+	private volatile boolean alwaysNotModified;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", this::handle);
+		server.start();
+		directory = Files.createTempDirectory("fetch-cache");
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String condition = exchange.getRequestHeaders().getFirst("If-None-Match");
+		synchronized (conditions) {
+			conditions.add(condition);
+		}
+		exchange.getResponseHeaders().set("ETag", ETAG);
+		if (alwaysNotModified || ETAG.equals(condition)) {
+			exchange.sendResponseHeaders(304, -1);
+			exchange.close();
+			return;
+		}
+		byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private String url() {
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/page.html";
+	}
+
+	private void deleteBodies() throws IOException {
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.body")) {
+			for (Path p : stream) {
+				Files.delete(p);
+			}
+		}
+	}
+
+	/**
+	 * Test that a second fetch is answered with a 304 and served from the cache
+	 */
+	@Test
+	public void testRevalidatedPageComesFromCache() throws IOException {
+		FetchCache cache = new FetchCache(directory.toString(), 1 << 20);
+		assertFalse(cache.fetch(url()).isNotModified());
+		FetchCache.Page page = cache.fetch(url());
+		assertTrue(page.isNotModified());
+		assertEquals(BODY, new String(page.getBody(), StandardCharsets.UTF_8));
+		assertEquals(ETAG, conditions.get(1));
+	}
+
+	/**
+	 * Test that a 304 for an entry whose body has gone is refetched without
+	 * validators, and the full page is returned and cached again
+	 */
+	@Test
+	public void testNotModifiedWithoutBodyRefetches() throws IOException {
+		FetchCache cache = new FetchCache(directory.toString(), 1 << 20);
+		cache.fetch(url());
+		deleteBodies();
+
+		FetchCache.Page page = cache.fetch(url());
+		assertFalse(page.isNotModified());
+		assertEquals(BODY, new String(page.getBody(), StandardCharsets.UTF_8));
+		assertEquals(3, conditions.size());
+		assertEquals(ETAG, conditions.get(1));
+		assertNull(conditions.get(2));
+
+		// the refetched page was cached again, so the next fetch revalidates it
+		page = cache.fetch(url());
+		assertTrue(page.isNotModified());
+		assertEquals(BODY, new String(page.getBody(), StandardCharsets.UTF_8));
+		assertEquals(BODY.length(), cache.getTotalBytes());
+	}
+
+	/**
+	 * Test that a cache reopened after a crash between writing a body and its
+	 * headers drops the body, and fetches the page again without validators
+	 */
+	@Test
+	public void testBodyWithoutHeadersIsDropped() throws IOException {
+		new FetchCache(directory.toString(), 1 << 20).fetch(url());
+		List<String> left = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.meta")) {
+			for (Path p : stream) {
+				// as if the crash came while the new headers were written
+				Files.move(p, p.resolveSibling(p.getFileName() + ".tmp"));
+			}
+		}
+		Files.write(directory.resolve("notes.txt"), new byte[] { 1 });
+
+		FetchCache cache = new FetchCache(directory.toString(), 1 << 20);
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getTotalBytes());
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path p : stream) {
+				left.add(p.getFileName().toString());
+			}
+		}
+		// files that aren't the cache's are left alone
+		assertEquals(List.of("notes.txt"), left);
+		assertFalse(cache.fetch(url()).isNotModified());
+		assertNull(conditions.get(1));
+
+		// once written, the headers are read back by the next run
+		cache = new FetchCache(directory.toString(), 1 << 20);
+		assertEquals(1, cache.size());
+		assertTrue(cache.fetch(url()).isNotModified());
+		assertEquals(ETAG, conditions.get(2));
+	}
+
+	/**
+	 * Test that a 304 to an unconditional request is an error and isn't cached
+	 */
+	@Test
+	public void testUnexpectedNotModifiedIsNotCached() throws IOException {
+		FetchCache cache = new FetchCache(directory.toString(), 1 << 20);
+		alwaysNotModified = true;
+		try {
+			cache.fetch(url());
+			fail();
+		} catch (HttpStatusException e) {
+			assertEquals(304, e.getStatusCode());
+		}
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getTotalBytes());
+	}
+}
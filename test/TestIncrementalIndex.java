@@ -0,0 +1,171 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+import indexing.IncrementalIndex;
+import indexing.IndexBuilder;
+
+/**
+ * Checks that an IncrementalIndex updated one document at a time always holds
+ * the indexes buildIndex and buildInvertedIndex would build from scratch
+ *
+ * @author clairewalker
+ */
+public class TestIncrementalIndex {
+
+	/**
+	 * Lists the postings of an inverted index term by term, in iteration order
+	 */
+	private static List<String> postings(Map<?, ?> invertedIndex) {
+		List<String> out = new ArrayList<>();
+		for (Object term : new TreeSet<Object>(invertedIndex.keySet())) {
+			for (Object posting : (Collection<?>) invertedIndex.get(term)) {
+				Entry<?, ?> e = (Entry<?, ?>) posting;
+				out.add(term + " " + e.getKey() + " " + e.getValue());
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Checks every view of index against indexes built from docs
+	 */
+	private static void assertMatchesBuild(Map<String, List<String>> docs, IncrementalIndex index) {
+		IndexBuilder builder = new IndexBuilder();
+		Map<String, Map<String, Double>> forward = builder.buildIndex(docs);
+		Map<?, ?> inverted = builder.buildInvertedIndex(forward);
+		assertEquals(forward, index.forwardIndex());
+		assertEquals(postings(inverted), postings(index.invertedIndex()));
+		assertEquals(docs.size(), index.numDocuments());
+		assertEquals(inverted.size(), index.numTerms());
+		long numPostings = 0;
+		for (Map<String, Double> terms : forward.values()) {
+			numPostings += terms.size();
+		}
+		assertEquals(numPostings, index.numPostings());
+		// the snapshot renumbers the term ids densely
+		assertEquals(forward, index.snapshot().toForwardMap());
+	}
+
+	/**
+	 * Test that a random sequence of added, replaced and removed documents leaves
+	 * the same indexes as building from the final documents
+	 */
+	@Test
+	public void testUpdatesMatchBuild() {
+		SyntheticCorpus corpus = new SyntheticCorpus(3, 200, 1.0);
+		Map<String, List<String>> docs = corpus.documents(80, 50);
+		docs.put("http://localhost:8090/empty.html", new ArrayList<String>());
+		IncrementalIndex index = new IncrementalIndex();
+		for (Entry<String, List<String>> e : docs.entrySet()) {
+			assertTrue(index.addDocument(e.getKey(), e.getValue()));
+		}
+		assertMatchesBuild(docs, index);
+
+		Random random = new Random(17);
+		int next = docs.size();
+		for (int step = 0; step < 300; step++) {
+			List<String> urls = new ArrayList<>(docs.keySet());
+			int op = random.nextInt(4);
+			if (op == 0 || urls.isEmpty()) {
+				String url = SyntheticCorpus.url(next++);
+				docs.put(url, corpus.tokens(random.nextInt(80)));
+				assertTrue(index.addDocument(url, docs.get(url)));
+			} else if (op == 1) {
+				String url = urls.get(random.nextInt(urls.size()));
+				List<String> words = corpus.tokens(1 + random.nextInt(80));
+				boolean changed = !words.equals(docs.get(url));
+				docs.put(url, words);
+				assertEquals(changed, index.addDocument(url, words));
+			} else if (op == 2) {
+				// the same words in a new list don't change anything
+				String url = urls.get(random.nextInt(urls.size()));
+				assertFalse(index.addDocument(url, new ArrayList<>(docs.get(url))));
+			} else {
+				String url = urls.get(random.nextInt(urls.size()));
+				docs.remove(url);
+				assertTrue(index.removeDocument(url));
+				assertFalse(index.containsDocument(url));
+			}
+			if (step % 25 == 24) {
+				assertMatchesBuild(docs, index);
+			}
+		}
+	}
+
+	/**
+	 * Test that refresh() reports exactly the documents added, changed and
+	 * removed
+	 */
+	@Test
+	public void testRefreshReportsChanges() {
+		SyntheticCorpus corpus = new SyntheticCorpus(4, 100, 1.0);
+		Map<String, List<String>> docs = corpus.documents(20, 30);
+		IncrementalIndex index = new IncrementalIndex();
+		assertEquals(docs.keySet(), index.refresh(docs));
+		assertEquals(new HashSet<String>(), index.refresh(docs));
+
+		Map<String, List<String>> next = new HashMap<>(docs);
+		String removed = SyntheticCorpus.url(0);
+		String changed = SyntheticCorpus.url(1);
+		String copied = SyntheticCorpus.url(2);
+		String added = SyntheticCorpus.url(20);
+		next.remove(removed);
+		next.put(changed, Arrays.asList("brand", "new", "words"));
+		next.put(copied, new ArrayList<>(docs.get(copied)));
+		next.put(added, corpus.tokens(30));
+		assertEquals(new HashSet<>(Arrays.asList(removed, changed, added)), index.refresh(next));
+		assertMatchesBuild(next, index);
+	}
+
+	/**
+	 * Test that documents and terms coming and going don't grow the dictionaries
+	 * without bound, and the index still matches a full build after they are
+	 * rebuilt
+	 */
+	@Test
+	public void testDeadIdsAreReclaimed() {
+		SyntheticCorpus corpus = new SyntheticCorpus(6, 100, 1.0);
+		Map<String, List<String>> docs = new HashMap<>();
+		IncrementalIndex index = new IncrementalIndex();
+		int limit = 2 * IncrementalIndex.MIN_DEAD_IDS + 100;
+		for (int doc = 0; doc < 10000; doc++) {
+			// each document has a word of its own, which goes when the document does
+			String url = SyntheticCorpus.url(doc);
+			List<String> words = corpus.tokens(20);
+			words.add("only" + doc);
+			docs.put(url, words);
+			index.addDocument(url, words);
+			if (doc >= 50) {
+				String old = SyntheticCorpus.url(doc - 50);
+				docs.remove(old);
+				index.removeDocument(old);
+			}
+			assertTrue(index.getDocumentTable().maxId() <= limit);
+			assertTrue(index.getTermDictionary().size() <= limit);
+		}
+		assertMatchesBuild(docs, index);
+	}
+
+	/**
+	 * Test that removing every document leaves an empty index
+	 */
+	@Test
+	public void testRemoveEveryDocument() {
+		Map<String, List<String>> docs = new SyntheticCorpus(5, 50, 1.0).documents(10, 20);
+		IncrementalIndex index = new IncrementalIndex();
+		index.refresh(docs);
+		index.refresh(new HashMap<String, List<String>>());
+		assertEquals(0, index.numDocuments());
+		assertEquals(0, index.numTerms());
+		assertEquals(0, index.numPostings());
+		assertTrue(index.invertedIndex().isEmpty());
+		assertEquals(0, index.documentFrequency(SyntheticCorpus.word(0)));
+		assertFalse(index.removeDocument(SyntheticCorpus.url(0)));
+	}
+}
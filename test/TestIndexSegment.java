@@ -0,0 +1,195 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import indexing.CompressedInvertedIndex;
+import indexing.ForwardIndex;
+import indexing.IndexBuilder;
+import indexing.IndexSegment;
+
+/**
+ * Checks that a segment reads back what was written, and that open rejects a
+ * segment that is truncated, damaged anywhere or from another version
+ *
+ * @author clairewalker
+ */
+public class TestIndexSegment {
+	private static final int NUM_SECTIONS = 5;
+	private static final int HEADER = 16 + NUM_SECTIONS * 12 + 4;
+
+	private Path directory;
+	private Map<String, List<String>> docs;
+	private ForwardIndex index;
+	private byte[] bytes;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("index-segment");
+		docs = new SyntheticCorpus(8, 300, 1.0).documents(60, 40);
+		docs.put("http://localhost:8090/caf\u00E9.html", Arrays.asList("na\u00EFve", "caf\u00E9", "\u6771\u4EAC"));
+		index = ForwardIndex.build(docs);
+		Path file = directory.resolve("index.seg");
+		IndexSegment.write(file, index);
+		bytes = Files.readAllBytes(file);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+
+	/**
+	 * Writes bytes to a new file and opens it, expecting open to fail with a
+	 * message containing reason
+	 */
+	private void assertRejected(byte[] damaged, String reason) throws IOException {
+		Path file = Files.createTempFile(directory, "damaged", ".seg");
+		Files.write(file, damaged);
+		try {
+			IndexSegment.open(file);
+			fail("opened a segment that should be " + reason);
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(reason));
+		}
+	}
+
+	private static int crc(byte[] bytes, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, offset, length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Test that the documents, terms, forward index and postings read back from
+	 * a segment are the ones it was written from
+	 */
+	@Test
+	public void testReadsBackWhatWasWritten() throws IOException {
+		IndexSegment segment = IndexSegment.open(directory.resolve("index.seg"));
+		assertEquals(index.numDocuments(), segment.numDocuments());
+		assertEquals(index.numTerms(), segment.numTerms());
+		for (int doc = 0; doc < index.numDocuments(); doc++) {
+			String url = index.url(doc);
+			int id = segment.docId(url);
+			assertEquals(url, segment.url(id));
+			assertEquals(docs.get(url).size(), segment.length(id));
+		}
+		assertEquals(-1, segment.docId("http://localhost:8090/missing.html"));
+		assertNull(segment.forwardIndex("http://localhost:8090/missing.html"));
+
+		Map<String, Map<String, Double>> forward = index.toForwardMap();
+		assertEquals(forward, segment.forwardIndex());
+		CompressedInvertedIndex inverted = segment.getInvertedIndex();
+		@SuppressWarnings("unchecked")
+		Map<String, TreeSet<Entry<String, Double>>> written = (Map<String, TreeSet<Entry<String, Double>>>) new IndexBuilder()
+				.buildInvertedIndex(forward);
+		assertEquals(written.keySet(), new HashSet<>(inverted.terms()));
+		for (String term : written.keySet()) {
+			// the order is exact, the TFIDF values are quantized to 16 bits
+			List<Entry<String, Double>> expected = new ArrayList<>(written.get(term));
+			List<Entry<String, Double>> actual = new ArrayList<>(inverted.invertedIndex().get(term));
+			assertEquals(term, expected.size(), actual.size());
+			double step = expected.get(0).getValue() / 65535;
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(term, expected.get(i).getKey(), actual.get(i).getKey());
+				assertEquals(term, expected.get(i).getValue(), actual.get(i).getValue(), step);
+			}
+		}
+		for (int term = 0; term < index.numTerms(); term++) {
+			assertEquals(index.documentFrequency(index.term(term)), inverted.postings(index.term(term)).size());
+		}
+	}
+
+	/**
+	 * Test that an empty index makes a segment that opens
+	 */
+	@Test
+	public void testEmptyIndex() throws IOException {
+		Path file = directory.resolve("empty.seg");
+		IndexSegment.write(file, ForwardIndex.build(new HashMap<String, List<String>>()));
+		IndexSegment segment = IndexSegment.open(file);
+		assertEquals(0, segment.numDocuments());
+		assertEquals(0, segment.numTerms());
+		assertTrue(segment.forwardIndex().isEmpty());
+	}
+
+	/**
+	 * Test that a segment cut short anywhere is rejected
+	 */
+	@Test
+	public void testTruncated() throws IOException {
+		assertRejected(new byte[0], "not an index segment");
+		assertRejected(Arrays.copyOf(bytes, HEADER - 1), "not an index segment");
+		for (int length : new int[] { HEADER, HEADER + 1, bytes.length / 2, bytes.length - 1 }) {
+			assertRejected(Arrays.copyOf(bytes, length), "truncated segment");
+		}
+	}
+
+	/**
+	 * Test that flipping a byte of the magic number or anywhere else in the
+	 * header is caught
+	 */
+	@Test
+	public void testDamagedHeader() throws IOException {
+		byte[] damaged = bytes.clone();
+		damaged[0] ^= 1;
+		assertRejected(damaged, "not an index segment");
+		// numTerms, numDocs, each section's offset, length and checksum, and the
+		// header checksum itself
+		for (int i = 8; i < HEADER; i++) {
+			damaged = bytes.clone();
+			damaged[i] ^= 0x10;
+			assertRejected(damaged, "corrupt segment header");
+		}
+	}
+
+	/**
+	 * Test that flipping a byte at the start, middle or end of each section is
+	 * caught by that section's checksum
+	 */
+	@Test
+	public void testDamagedSections() throws IOException {
+		ByteBuffer header = ByteBuffer.wrap(bytes);
+		for (int s = 0; s < NUM_SECTIONS; s++) {
+			int offset = header.getInt(16 + s * 12);
+			int length = header.getInt(16 + s * 12 + 4);
+			assertTrue(length > 0);
+			for (int i : new int[] { offset, offset + length / 2, offset + length - 1 }) {
+				byte[] damaged = bytes.clone();
+				damaged[i] ^= 0x01;
+				assertRejected(damaged, "corrupt segment section " + s);
+			}
+		}
+	}
+
+	/**
+	 * Test that a segment from another version is rejected even when its header
+	 * checksum is consistent
+	 */
+	@Test
+	public void testOtherVersion() throws IOException {
+		byte[] damaged = bytes.clone();
+		ByteBuffer header = ByteBuffer.wrap(damaged);
+		header.putInt(4, IndexSegment.VERSION + 1);
+		header.putInt(HEADER - 4, crc(damaged, 0, HEADER - 4));
+		assertRejected(damaged, "unsupported segment version " + (IndexSegment.VERSION + 1));
+	}
+}
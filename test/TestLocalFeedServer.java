@@ -0,0 +1,117 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import indexing.ConcurrentFetcher;
+import indexing.FetchCache;
+import indexing.IndexBuilder;
+import indexing.IndexMetrics;
+
+/**
+ * Checks that parseFeed reads every feed and article served by a
+ * LocalFeedServer, so indexing can be tested without a web server
+ *
+ * @author clairewalker
+ */
+public class TestLocalFeedServer {
+	private LocalFeedServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new LocalFeedServer(7, 3, 4, 120);
+		server.setHosts(2);
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	/**
+	 * Test that parseFeed() returns every article of every feed, with its words
+	 */
+	@Test
+	public void testParseFeedFetchesEveryArticle() {
+		Map<String, List<String>> m = new IndexBuilder().parseFeed(server.getFeedUrls());
+		assertEquals(12, m.size());
+		for (int feed = 0; feed < 3; feed++) {
+			for (int article = 0; article < 4; article++) {
+				List<String> words = m.get(server.getArticleUrl(feed, article));
+				assertNotNull(words);
+				assertTrue(words.size() >= 120);
+			}
+		}
+	}
+
+	/**
+	 * Test that fetching concurrently across hosts gives the same documents as
+	 * fetching one after another
+	 */
+	@Test
+	public void testConcurrentFetchMatchesSequential() {
+		Map<String, List<String>> sequential = new IndexBuilder().parseFeed(server.getFeedUrls());
+		IndexBuilder test = new IndexBuilder();
+		test.setConcurrentFetcher(new ConcurrentFetcher(8, 2, 60000));
+		assertEquals(sequential, test.parseFeed(server.getFeedUrls()));
+	}
+
+	/**
+	 * Test that a second fetch through a FetchCache is answered with a 304 for
+	 * every feed and article, and gives the same documents
+	 */
+	@Test
+	public void testCachedFetchIsNotModified() throws IOException {
+		IndexBuilder test = new IndexBuilder();
+		test.setFetchCache(new FetchCache(Files.createTempDirectory("feeds").toString(), 1 << 24));
+		Map<String, List<String>> first = test.parseFeed(server.getFeedUrls());
+		assertEquals(0, server.getNotModified());
+		Map<String, List<String>> second = test.parseFeed(server.getFeedUrls());
+		assertEquals(15, server.getNotModified());
+		assertEquals(first, second);
+	}
+
+	/**
+	 * Test that metrics count every feed, article and byte fetched, and time each
+	 * stage that ran
+	 */
+	@Test
+	public void testMetricsCountEveryStage() {
+		IndexBuilder test = new IndexBuilder();
+		IndexMetrics metrics = new IndexMetrics();
+		test.setMetrics(metrics);
+		Map<String, List<String>> docs = test.parseFeed(server.getFeedUrls());
+		Map<?, ?> invertedIndex = test.buildInvertedIndex(test.buildIndex(docs));
+		IndexMetrics.Snapshot snapshot = metrics.snapshot();
+		assertEquals(3, snapshot.getFeeds());
+		assertEquals(12, snapshot.getDocuments());
+		assertEquals(server.getBytesSent(), snapshot.getBytesFetched());
+		assertEquals(invertedIndex.size(), snapshot.getUniqueTerms());
+		assertEquals(0, snapshot.getFetchFailures());
+		assertEquals(15, metrics.getStage(IndexMetrics.Stage.FETCH).getCount());
+		assertEquals(12, metrics.getStage(IndexMetrics.Stage.TOKENIZE).getCount());
+		assertEquals(1, metrics.getStage(IndexMetrics.Stage.INVERT).getCount());
+		assertEquals(0, metrics.getStage(IndexMetrics.Stage.UPDATE).getCount());
+	}
+
+	/**
+	 * Test that an article is only served by the host of its feed
+	 */
+	@Test
+	public void testArticleOnOtherHostIsNotFound() throws IOException {
+		String url = server.getArticleUrl(1, 0).replace("127.0.0.2", "127.0.0.1");
+		HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+		assertEquals(404, conn.getResponseCode());
+		conn.disconnect();
+	}
+}
@@ -0,0 +1,81 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+import indexing.IndexBuilder;
+
+/**
+ * Checks that building with several threads gives exactly the indexes built on
+ * one thread
+ *
+ * @author clairewalker
+ */
+public class TestParallelIndexBuilder {
+
+	private static Map<String, List<String>> corpus() {
+		Map<String, List<String>> docs = new SyntheticCorpus(7, 5000, 1.0).documents(1000, 150);
+		docs.put("http://localhost:8090/empty.html", new ArrayList<String>());
+		return docs;
+	}
+
+	/**
+	 * Lists the postings of an inverted index term by term, in iteration order
+	 */
+	private static List<String> postings(Map<?, ?> invertedIndex) {
+		List<String> out = new ArrayList<>();
+		for (Object term : new TreeSet<Object>(invertedIndex.keySet())) {
+			for (Object posting : (Collection<?>) invertedIndex.get(term)) {
+				Entry<?, ?> e = (Entry<?, ?>) posting;
+				out.add(term + " " + e.getKey() + " " + e.getValue());
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Test that buildIndex() gives the same forward index for any parallelism
+	 */
+	@Test
+	public void testParallelBuildIndexMatchesSequential() {
+		Map<String, List<String>> docs = corpus();
+		Map<String, Map<String, Double>> sequential = new IndexBuilder().buildIndex(docs);
+		for (int threads : new int[] { 2, 3, 16 }) {
+			IndexBuilder test = new IndexBuilder();
+			test.setParallelism(threads);
+			Map<String, Map<String, Double>> parallel = test.buildIndex(docs);
+			assertTrue(parallel instanceof TreeMap);
+			assertEquals(sequential, parallel);
+		}
+	}
+
+	/**
+	 * Test that buildInvertedIndex() gives the same postings, in the same order,
+	 * for any parallelism
+	 */
+	@Test
+	public void testParallelBuildInvertedIndexMatchesSequential() {
+		Map<String, List<String>> docs = corpus();
+		IndexBuilder seq = new IndexBuilder();
+		List<String> sequential = postings(seq.buildInvertedIndex(seq.buildIndex(docs)));
+		for (int threads : new int[] { 2, 3, 16 }) {
+			IndexBuilder test = new IndexBuilder();
+			test.setParallelism(threads);
+			Map<?, ?> parallel = test.buildInvertedIndex(test.buildIndex(docs));
+			assertTrue(parallel instanceof HashMap);
+			assertEquals(sequential, postings(parallel));
+		}
+	}
+
+	/**
+	 * Test that setParallelism() rejects less than one thread
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetParallelismRejectsZero() {
+		new IndexBuilder().setParallelism(0);
+	}
+}
@@ -0,0 +1,205 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import indexing.PositionalIndex;
+
+/**
+ * Checks the phrases PositionalIndex finds, and that adding and removing
+ * documents one at a time finds the same ones as building from scratch
+ *
+ * @author clairewalker
+ */
+public class TestPositionalIndex {
+
+	private static Set<String> found(PositionalIndex index, String phrase) {
+		return new TreeSet<>(index.phraseSearch(phrase));
+	}
+
+	/**
+	 * @return urls of the documents with the words of phrase one after another,
+	 *         found by checking every document
+	 */
+	private static Set<String> bruteForce(Map<String, List<String>> docs, String phrase) {
+		List<String> words = Arrays.asList(phrase.split(" "));
+		Set<String> out = new TreeSet<>();
+		for (Map.Entry<String, List<String>> doc : docs.entrySet()) {
+			if (Collections.indexOfSubList(doc.getValue(), words) >= 0) {
+				out.add(doc.getKey());
+			}
+		}
+		return out;
+	}
+
+	private static Map<String, List<String>> documents(String... texts) {
+		Map<String, List<String>> docs = new HashMap<>();
+		for (int i = 0; i < texts.length; i++) {
+			docs.put(SyntheticCorpus.url(i), Arrays.asList(texts[i].split(" ")));
+		}
+		return docs;
+	}
+
+	private static Set<String> urls(int... docs) {
+		Set<String> out = new TreeSet<>();
+		for (int doc : docs) {
+			out.add(SyntheticCorpus.url(doc));
+		}
+		return out;
+	}
+
+	/**
+	 * Test that a phrase matches only where its words are next to each other and
+	 * in order
+	 */
+	@Test
+	public void testAdjacentWords() {
+		PositionalIndex index = PositionalIndex.build(documents("the federal reserve raised rates",
+				"federal judges and the reserve bank", "reserve federal", "a federal reserve federal reserve note",
+				"federal"));
+		assertEquals(urls(0, 3), found(index, "federal reserve"));
+		assertEquals(urls(0), found(index, "the federal reserve raised rates"));
+		assertEquals(urls(2, 3), found(index, "reserve federal"));
+		assertEquals(urls(0, 1, 2, 3, 4), found(index, "federal"));
+		assertEquals(urls(), found(index, "federal rates"));
+		assertEquals(urls(), found(index, "federal missing"));
+		assertEquals(urls(), found(index, ""));
+		// normalised like the article text
+		assertEquals(urls(0, 3), found(index, "Federal, Reserve"));
+	}
+
+	/**
+	 * Test that the words of a phrase all co-occurring in a document is not
+	 * enough: they must be adjacent
+	 */
+	@Test
+	public void testCoOccurringWordsAreNotAPhrase() {
+		PositionalIndex index = PositionalIndex.build(documents("supreme court of the land",
+				"the court is supreme", "supreme and final court", "court supreme court"));
+		assertEquals(urls(0, 3), found(index, "supreme court"));
+		assertEquals(urls(1), found(index, "is supreme"));
+		assertEquals(urls(3), found(index, "court supreme"));
+		assertEquals(urls(), found(index, "court land"));
+		assertEquals(urls(), found(index, "supreme final"));
+	}
+
+	/**
+	 * Test phrases that repeat a word, which must be matched at different
+	 * positions
+	 */
+	@Test
+	public void testRepeatedWords() {
+		PositionalIndex index = PositionalIndex.build(documents("new york", "new new york", "new york new york",
+				"new new new york", "york new", "new"));
+		assertEquals(urls(1, 3), found(index, "new new york"));
+		assertEquals(urls(1, 3), found(index, "new new"));
+		assertEquals(urls(3), found(index, "new new new"));
+		assertEquals(urls(2), found(index, "new york new york"));
+		assertEquals(urls(2), found(index, "york new york"));
+		assertEquals(urls(0, 1, 2, 3), found(index, "new york"));
+		assertEquals(urls(), found(index, "york york"));
+	}
+
+	/**
+	 * Test that a phrase whose first words end one document and last words start
+	 * the next is not found, whether the documents were built, added or both
+	 */
+	@Test
+	public void testPhraseAcrossDocuments() {
+		Map<String, List<String>> docs = documents("rates set by the federal", "reserve bank of new",
+				"york city federal");
+		PositionalIndex index = PositionalIndex.build(docs);
+		assertEquals(urls(), found(index, "federal reserve"));
+		assertEquals(urls(), found(index, "new york"));
+		assertEquals(urls(), found(index, "the federal reserve bank"));
+
+		// an added document after the last built one, then one after that
+		index.addDocument(SyntheticCorpus.url(3), Arrays.asList("reserve", "new"));
+		index.addDocument(SyntheticCorpus.url(4), Arrays.asList("york", "federal"));
+		assertEquals(urls(), found(index, "federal reserve"));
+		assertEquals(urls(), found(index, "new york"));
+
+		// and once a removal leaves a gap in the ids
+		index.removeDocument(SyntheticCorpus.url(1));
+		assertEquals(urls(), found(index, "federal reserve"));
+		index.addDocument(SyntheticCorpus.url(5), Arrays.asList("federal", "reserve"));
+		assertEquals(urls(5), found(index, "federal reserve"));
+	}
+
+	/**
+	 * Test that random phrases over a small vocabulary find the documents brute
+	 * force does
+	 */
+	@Test
+	public void testMatchesBruteForce() {
+		SyntheticCorpus corpus = new SyntheticCorpus(13, 8, 1.0);
+		Map<String, List<String>> docs = corpus.documents(200, 30);
+		PositionalIndex index = PositionalIndex.build(docs);
+		String[] vocabulary = corpus.vocabulary();
+		Random random = new Random(3);
+		int found = 0;
+		for (int i = 0; i < 500; i++) {
+			StringBuilder phrase = new StringBuilder(vocabulary[random.nextInt(vocabulary.length)]);
+			for (int w = random.nextInt(4); w > 0; w--) {
+				phrase.append(' ').append(vocabulary[random.nextInt(vocabulary.length)]);
+			}
+			Set<String> expected = bruteForce(docs, phrase.toString());
+			assertEquals(phrase.toString(), expected, found(index, phrase.toString()));
+			found += expected.isEmpty() ? 0 : 1;
+		}
+		// most phrases should be found somewhere, or this tests little
+		assertTrue(found > 250);
+	}
+
+	/**
+	 * Test that adding, replacing and removing documents one at a time, through
+	 * several compactions, finds the same phrases as an index built from the
+	 * final documents
+	 */
+	@Test
+	public void testUpdatesMatchBuild() {
+		// a small vocabulary so most phrases of two or three words occur somewhere
+		SyntheticCorpus corpus = new SyntheticCorpus(11, 12, 1.0);
+		Map<String, List<String>> docs = corpus.documents(150, 40);
+		PositionalIndex index = PositionalIndex.build(docs);
+		Random random = new Random(5);
+		String[] vocabulary = corpus.vocabulary();
+		int next = docs.size();
+		for (int step = 0; step < 600; step++) {
+			List<String> urls = new ArrayList<>(docs.keySet());
+			int op = random.nextInt(3);
+			if (op == 0 || urls.isEmpty()) {
+				String url = SyntheticCorpus.url(next++);
+				List<String> words = corpus.tokens(random.nextInt(60));
+				docs.put(url, words);
+				index.addDocument(url, words);
+			} else if (op == 1) {
+				String url = urls.get(random.nextInt(urls.size()));
+				List<String> words = corpus.tokens(random.nextInt(60));
+				docs.put(url, words);
+				index.addDocument(url, words);
+			} else {
+				String url = urls.get(random.nextInt(urls.size()));
+				docs.remove(url);
+				assertTrue(index.removeDocument(url));
+			}
+
+			if (step % 50 == 49) {
+				assertEquals(docs.size(), index.numDocuments());
+				PositionalIndex rebuilt = PositionalIndex.build(docs);
+				for (int i = 0; i < 40; i++) {
+					StringBuilder phrase = new StringBuilder();
+					for (int w = 0; w < 1 + i % 3; w++) {
+						phrase.append(vocabulary[random.nextInt(vocabulary.length)]).append(' ');
+					}
+					assertEquals(phrase.toString(), found(rebuilt, phrase.toString()),
+							found(index, phrase.toString()));
+				}
+			}
+		}
+		assertFalse(index.removeDocument("http://localhost:8090/missing.html"));
+	}
+}
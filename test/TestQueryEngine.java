@@ -0,0 +1,316 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.Map.Entry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import indexing.CompressedInvertedIndex;
+import indexing.IndexBuilder;
+import indexing.PositionalIndex;
+import indexing.QueryEngine;
+import indexing.Tokenizer;
+
+/**
+ * Checks the documents QueryEngine matches, their order and paging against a
+ * brute force search of the same documents
+ *
+ * @author clairewalker
+ */
+public class TestQueryEngine {
+	private static final String[][] ARTICLES = {
+			{ "a", "supreme court rules federal reserve rates" },
+			{ "b", "supreme court hears sports case" },
+			{ "c", "federal reserve raises rates again rates" },
+			{ "d", "court tribunal sports" },
+			{ "e", "tribunal rules on rates" },
+			{ "f", "weather sunny today" },
+			{ "g", "sports sports sports final" },
+			{ "h", "supreme tribunal federal" } };
+
+	private Map<String, List<String>> docs;
+	private CompressedInvertedIndex index;
+	private QueryEngine engine;
+
+	private static String url(String name) {
+		return "http://localhost:8090/" + name + ".html";
+	}
+
+	private static CompressedInvertedIndex compress(Map<String, List<String>> docs) {
+		IndexBuilder builder = new IndexBuilder();
+		return CompressedInvertedIndex.build(builder.buildInvertedIndex(builder.buildIndex(docs)));
+	}
+
+	@Before
+	public void setUp() {
+		docs = new HashMap<>();
+		for (String[] article : ARTICLES) {
+			docs.put(url(article[0]), Arrays.asList(article[1].split(" ")));
+		}
+		index = compress(docs);
+		engine = new QueryEngine(index);
+	}
+
+	/**
+	 * Answers a query of plain words, OR, AND, NOT and -word by checking every
+	 * document, scoring with the same quantized TFIDF values the engine reads
+	 */
+	private static List<Entry<String, Double>> bruteForce(Map<String, List<String>> docs,
+			CompressedInvertedIndex index, String query) {
+		List<Set<String>> required = new ArrayList<>();
+		List<Set<String>> excluded = new ArrayList<>();
+		Set<String> allRequired = new LinkedHashSet<>();
+		Tokenizer tokenizer = new Tokenizer();
+		for (String alternative : query.split(" OR ")) {
+			Set<String> req = new HashSet<>();
+			Set<String> exc = new HashSet<>();
+			boolean not = false;
+			for (String word : alternative.split(" +")) {
+				if (word.equals("NOT")) {
+					not = true;
+				} else if (word.startsWith("-")) {
+					exc.addAll(tokenizer.tokenize(word.substring(1)));
+				} else if (!word.equals("AND")) {
+					List<String> terms = tokenizer.tokenize(word);
+					(not ? exc : req).addAll(terms);
+					if (!not) {
+						allRequired.addAll(terms);
+					}
+					not = false;
+				}
+			}
+			required.add(req);
+			excluded.add(exc);
+		}
+
+		List<Entry<String, Double>> matches = new ArrayList<>();
+		for (Entry<String, List<String>> doc : new TreeMap<>(docs).entrySet()) {
+			boolean match = false;
+			for (int i = 0; i < required.size(); i++) {
+				match |= !required.get(i).isEmpty() && doc.getValue().containsAll(required.get(i))
+						&& Collections.disjoint(doc.getValue(), excluded.get(i));
+			}
+			if (!match) {
+				continue;
+			}
+			double score = 0;
+			for (String word : allRequired) {
+				Set<Entry<String, Double>> postings = index.invertedIndex().get(word);
+				for (Entry<String, Double> posting : postings == null ? new HashSet<Entry<String, Double>>()
+						: postings) {
+					if (posting.getKey().equals(doc.getKey())) {
+						score += posting.getValue();
+					}
+				}
+			}
+			matches.add(new AbstractMap.SimpleImmutableEntry<>(doc.getKey(), score));
+		}
+		// highest score first, ties by url, which is also doc id order
+		matches.sort((x, y) -> x.getValue().equals(y.getValue()) ? x.getKey().compareTo(y.getKey())
+				: Double.compare(y.getValue(), x.getValue()));
+		return matches;
+	}
+
+	private static Set<String> urls(QueryEngine engine, String query) {
+		Set<String> out = new TreeSet<>();
+		for (Entry<String, Double> e : engine.search(query, 0, Integer.MAX_VALUE)) {
+			out.add(e.getKey());
+		}
+		assertEquals(query, out.size(), engine.count(query));
+		return out;
+	}
+
+	private Set<String> urls(String query) {
+		assertEquals(query, bruteForce(docs, index, query), engine.search(query, 0, Integer.MAX_VALUE));
+		return urls(engine, query);
+	}
+
+	private static Set<String> urlsOf(String... names) {
+		Set<String> out = new TreeSet<>();
+		for (String name : names) {
+			out.add(url(name));
+		}
+		return out;
+	}
+
+	/**
+	 * Test that words are ANDed together, written out or not
+	 */
+	@Test
+	public void testAnd() {
+		assertEquals(urlsOf("a", "b"), urls("supreme court"));
+		assertEquals(urlsOf("a", "b"), urls("supreme AND court"));
+		assertEquals(urlsOf("a", "c"), urls("federal reserve rates"));
+		assertEquals(urlsOf("b", "d", "g"), urls("sports"));
+		// query words are normalised like article text
+		assertEquals(urlsOf("a", "b"), urls("Supreme, COURT"));
+	}
+
+	/**
+	 * Test that OR matches documents with any of the alternatives, each counted
+	 * once
+	 */
+	@Test
+	public void testOr() {
+		assertEquals(urlsOf("a", "b", "d", "e", "h"), urls("supreme OR tribunal"));
+		assertEquals(urlsOf("a", "b", "c", "h"), urls("supreme court OR federal"));
+		assertEquals(urlsOf("f", "g"), urls("weather OR final OR missing"));
+	}
+
+	/**
+	 * Test that NOT and a leading - exclude documents with the word
+	 */
+	@Test
+	public void testNot() {
+		assertEquals(urlsOf("a"), urls("court -sports"));
+		assertEquals(urlsOf("a"), urls("court NOT sports"));
+		assertEquals(urlsOf("b", "d"), urls("sports -final"));
+		assertEquals(urlsOf("h"), urls("supreme -court -rates"));
+	}
+
+	/**
+	 * Test that an exclusion only applies to its own alternative
+	 */
+	@Test
+	public void testAndWithNot() {
+		assertEquals(urlsOf("c"), urls("rates AND federal -supreme"));
+		// d has sports, but matches the first alternative
+		assertEquals(urlsOf("a", "b", "e", "h"), urls("supreme court OR tribunal -sports"));
+		assertEquals(urlsOf("a", "b", "d"), urls("court -tribunal OR tribunal -rates -supreme"));
+	}
+
+	/**
+	 * Test queries that match nothing
+	 */
+	@Test
+	public void testEmptyResult() {
+		for (String query : new String[] { "missing", "weather court", "sports -sports", "-sports",
+				"NOT supreme OR -court", "", "AND OR" }) {
+			assertEquals(query, new ArrayList<Entry<String, Double>>(), engine.search(query, 0, 10));
+			assertEquals(query, 0, engine.count(query));
+		}
+		assertEquals(new ArrayList<Entry<String, Double>>(),
+				new QueryEngine(compress(new HashMap<String, List<String>>())).search("court", 0, 10));
+	}
+
+	/**
+	 * Test that pages of any size, for single words and several, join up into
+	 * the full result, and that paging past the end is empty
+	 */
+	@Test
+	public void testPaging() {
+		for (String query : new String[] { "rates", "supreme OR rates OR sports", "court OR tribunal -weather" }) {
+			List<Entry<String, Double>> all = engine.search(query, 0, Integer.MAX_VALUE);
+			assertEquals(bruteForce(docs, index, query), all);
+			for (int limit = 1; limit <= all.size() + 1; limit++) {
+				List<Entry<String, Double>> joined = new ArrayList<>();
+				for (int offset = 0; offset < all.size(); offset += limit) {
+					List<Entry<String, Double>> page = engine.search(query, offset, limit);
+					assertEquals(Math.min(limit, all.size() - offset), page.size());
+					joined.addAll(page);
+				}
+				assertEquals(query + " " + limit, all, joined);
+			}
+			assertEquals(all.subList(1, 3), engine.search(query, 1, 2));
+			assertTrue(engine.search(query, 0, 0).isEmpty());
+			assertTrue(engine.search(query, all.size(), 10).isEmpty());
+			assertTrue(engine.search(query, Integer.MAX_VALUE, Integer.MAX_VALUE).isEmpty());
+		}
+	}
+
+	/**
+	 * Test that a negative offset or limit is rejected
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeOffset() {
+		engine.search("court", -1, 10);
+	}
+
+	/**
+	 * Test that a negative limit is rejected
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeLimit() {
+		engine.search("court", 0, -1);
+	}
+
+	/**
+	 * Test that with a PositionalIndex quoted words match only where they are
+	 * adjacent and in order, scored like the same words unquoted
+	 */
+	@Test
+	public void testPhrases() {
+		QueryEngine phrases = new QueryEngine(index, PositionalIndex.build(docs));
+		assertEquals(engine.search("federal reserve", 0, 10), phrases.search("\"federal reserve\"", 0, 10));
+		assertEquals(urlsOf("a"), urls(phrases, "\"reserve rates\""));
+		assertEquals(urlsOf("a", "b"), urls(phrases, "\"supreme court\""));
+		assertEquals(urlsOf("c"), urls(phrases, "\"rates again rates\""));
+		assertEquals(urlsOf("g"), urls(phrases, "\"sports sports\""));
+		assertEquals(urlsOf("g"), urls(phrases, "\"sports sports sports\""));
+		// the words co-occur but never next to each other, or not in this order
+		assertEquals(urlsOf(), urls(phrases, "\"rates federal\""));
+		assertEquals(urlsOf(), urls(phrases, "\"court supreme\""));
+		assertEquals(urlsOf(), urls(phrases, "\"sports final sports\""));
+		// without positions the words are just ANDed
+		assertEquals(urlsOf("a", "c"), urls(engine, "\"rates federal\""));
+	}
+
+	/**
+	 * Test that an excluded phrase only removes documents with the words
+	 * adjacent, and is ignored without a PositionalIndex
+	 */
+	@Test
+	public void testExcludedPhrases() {
+		QueryEngine phrases = new QueryEngine(index, PositionalIndex.build(docs));
+		assertEquals(urlsOf("e"), urls(phrases, "rates -\"federal reserve\""));
+		assertEquals(urlsOf("a", "c", "e"), urls(phrases, "rates -\"reserve federal\""));
+		assertEquals(urlsOf("b", "d"), urls(phrases, "court NOT \"supreme court rules\" OR \"court tribunal\""));
+		assertEquals(urlsOf("a", "c", "e"), urls(engine, "rates -\"federal reserve\""));
+	}
+
+	/**
+	 * Test that phrases still match the right documents once the positions have
+	 * been updated and their doc ids no longer line up with the inverted index
+	 */
+	@Test
+	public void testPhrasesAfterPositionsUpdated() {
+		PositionalIndex positions = PositionalIndex.build(docs);
+		positions.removeDocument(url("a"));
+		positions.addDocument(url("a"), docs.get(url("a")));
+		QueryEngine phrases = new QueryEngine(index, positions);
+		assertEquals(urlsOf("a", "b"), urls(phrases, "\"supreme court\""));
+		assertEquals(urlsOf("a", "c"), urls(phrases, "\"federal reserve\""));
+		assertEquals(urlsOf("e"), urls(phrases, "rates -\"federal reserve\""));
+	}
+
+	/**
+	 * Test that random queries over a larger corpus match and rank the same
+	 * documents as brute force: summed TFIDF, highest first, ties by url
+	 */
+	@Test
+	public void testRankedBySummedTFIDF() {
+		SyntheticCorpus corpus = new SyntheticCorpus(21, 60, 1.0);
+		Map<String, List<String>> docs = corpus.documents(300, 30);
+		CompressedInvertedIndex index = compress(docs);
+		QueryEngine engine = new QueryEngine(index);
+		String[] vocabulary = corpus.vocabulary();
+		Random random = new Random(9);
+		String[] operators = { " ", " ", " AND ", " OR ", " -", " NOT " };
+		for (int i = 0; i < 300; i++) {
+			StringBuilder query = new StringBuilder(vocabulary[random.nextInt(vocabulary.length)]);
+			for (int w = random.nextInt(4); w > 0; w--) {
+				query.append(operators[random.nextInt(operators.length)]);
+				query.append(vocabulary[random.nextInt(vocabulary.length)]);
+			}
+			List<Entry<String, Double>> expected = bruteForce(docs, index, query.toString());
+			assertEquals(query.toString(), expected, engine.search(query.toString(), 0, Integer.MAX_VALUE));
+			assertEquals(query.toString(), expected.size(), engine.count(query.toString()));
+			int offset = random.nextInt(expected.size() + 1);
+			assertEquals(query.toString(), expected.subList(offset, Math.min(offset + 5, expected.size())),
+					engine.search(query.toString(), offset, 5));
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import indexing.Tokenizer;
+
+/**
+ * Checks how Tokenizer splits text into words
+ *
+ * @author clairewalker
+ */
+public class TestTokenizer {
+
+	private static List<String> tokenize(String text) {
+		return new Tokenizer().tokenize(text);
+	}
+
+	/**
+	 * Test that runs of whitespace, including at either end, never give empty
+	 * words
+	 */
+	@Test
+	public void testRunsOfWhitespace() {
+		assertEquals(Arrays.asList("the", "quick", "brown", "fox"),
+				tokenize("  the\t\tquick \n\n brown\r\nfox   "));
+		assertEquals(new ArrayList<String>(), tokenize(""));
+		assertEquals(new ArrayList<String>(), tokenize(" \t\n "));
+	}
+
+	/**
+	 * Test that punctuation inside a word is dropped without splitting it, and
+	 * punctuation between words is dropped without making a word of its own
+	 */
+	@Test
+	public void testPunctuation() {
+		assertEquals(Arrays.asList("dont", "email", "usa"), tokenize("don't e-mail U.S.A."));
+		assertEquals(Arrays.asList("hello", "world"), tokenize("Hello, world!"));
+		assertEquals(Arrays.asList("a", "b"), tokenize("a -- b"));
+		assertEquals(new ArrayList<String>(), tokenize("!!! ... ?"));
+	}
+
+	/**
+	 * Test that non-breaking and other Unicode spaces separate words
+	 */
+	@Test
+	public void testUnicodeSpaces() {
+		// no-break space, em space, narrow no-break space, ideographic space
+		assertEquals(Arrays.asList("new", "york", "city", "now", "today"),
+				tokenize("new\u00A0york\u2003city\u202Fnow\u3000today"));
+	}
+
+	/**
+	 * Test that Unicode punctuation is dropped like ASCII punctuation
+	 */
+	@Test
+	public void testUnicodePunctuation() {
+		// guillemets, curly quotes, an em dash and an ideographic full stop
+		assertEquals(Arrays.asList("bonjour", "quoted", "ab", "\u6771\u4EAC"),
+				tokenize("\u00ABbonjour\u00BB \u201Cquoted\u201D a\u2014b \u6771\u4EAC\u3002"));
+	}
+
+	/**
+	 * Test that letters outside Latin are kept and lowercased one code point at a
+	 * time, including code points outside the Basic Multilingual Plane
+	 */
+	@Test
+	public void testNonLatinLetters() {
+		// Cyrillic, Greek and Deseret capitals
+		assertEquals(Arrays.asList("\u043C\u043E\u0441\u043A\u0432\u0430", "\u03B1\u03B8\u03B7\u03BD\u03B1", "\uD801\uDC28\uD801\uDC29"),
+				tokenize("\u041C\u041E\u0421\u041A\u0412\u0410 \u0391\u0398\u0397\u039D\u0391 \uD801\uDC00\uD801\uDC01"));
+	}
+
+	/**
+	 * Test that words longer than the initial buffer are kept whole
+	 */
+	@Test
+	public void testLongWord() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			sb.append((char) ('A' + i % 26));
+		}
+		String word = sb.toString();
+		assertEquals(Arrays.asList("x", word.toLowerCase(Locale.ROOT), "y"), tokenize("x " + word + " y"));
+	}
+
+	/**
+	 * Test that the sink sees the same words the list version returns, and the
+	 * count returned matches
+	 */
+	@Test
+	public void testSinkMatchesList() {
+		String text = "  One, two;  THREE\u00A0four's ...five ";
+		List<String> seen = new ArrayList<>();
+		int count = new Tokenizer().tokenize(text, (chars, len) -> seen.add(new String(chars, 0, len)));
+		assertEquals(tokenize(text), seen);
+		assertEquals(5, count);
+	}
+}